@@ -0,0 +1,57 @@
+/**
+ * Result of a many-to-many cost calculation
+ *
+ * The costs and distances (in meters) from each origin to
+ * each target, as a dense table. Both are -1 where a target
+ * cannot be reached, or a position is not mapped.
+ *
+ * @author ab
+ */
+package btools.router;
+
+import java.util.Arrays;
+
+public final class CostMatrix
+{
+  private int[][] costs;
+  private int[][] distances;
+  private int targetCount;
+
+  CostMatrix( int originCount, int targetCount )
+  {
+    this.targetCount = targetCount;
+    costs = new int[originCount][targetCount];
+    distances = new int[originCount][targetCount];
+    for( int i=0; i<originCount; i++ )
+    {
+      Arrays.fill( costs[i], -1 );
+      Arrays.fill( distances[i], -1 );
+    }
+  }
+
+  void set( int origin, int target, int cost, int distance )
+  {
+    costs[origin][target] = cost;
+    distances[origin][target] = distance;
+  }
+
+  public int getOriginCount()
+  {
+    return costs.length;
+  }
+
+  public int getTargetCount()
+  {
+    return targetCount;
+  }
+
+  public int getCost( int origin, int target )
+  {
+    return costs[origin][target];
+  }
+
+  public int getDistance( int origin, int target )
+  {
+    return distances[origin][target];
+  }
+}
@@ -0,0 +1,205 @@
+/**
+ * Implementation for the open-set as an
+ * indexed 4-ary min-heap
+ *
+ * add, remove and update are O(log n), the
+ * position of a label in the heap is kept in
+ * an array by label (1-based, 0 = not in set)
+ *
+ * The sort keys are kept in a separate long-array
+ * for cache locality: the adjusted cost in the upper
+ * 32 bits and the inverted insertion sequence in the
+ * lower ones, reproducing the LIFO order on equal cost
+ * of the linked-list implementation
+ *
+ * @author ab
+ */
+package btools.router;
+
+import btools.mapaccess.OsmNode;
+
+final class HeapOpenSet extends OpenSet
+{
+  private int[] heap = new int[1024];
+  private long[] keys = new long[1024];
+
+  // the heap position by label
+  private int[] positions = new int[1024];
+
+  private int size = 0;
+
+  private int addCount = 0;
+
+  HeapOpenSet( LabelStore labels )
+  {
+    super( labels );
+  }
+
+  public void clear()
+  {
+    for( int i=1; i<=size; i++ )
+    {
+      positions[heap[i]] = 0;
+    }
+    size = 0;
+    addCount = 0;
+  }
+
+  public void add( int label )
+  {
+    if ( ++size == heap.length )
+    {
+      grow();
+    }
+    if ( label >= positions.length )
+    {
+      int[] newPositions = new int[Math.max( 2*positions.length, label+1 )];
+      System.arraycopy( positions, 0, newPositions, 0, positions.length );
+      positions = newPositions;
+    }
+    siftUp( size, label, sortKey( label ) );
+  }
+
+  public void remove( int label )
+  {
+    int idx = label < positions.length ? positions[label] : 0;
+    if ( idx == 0 )
+    {
+      return; // not in set
+    }
+    positions[label] = 0;
+
+    int last = heap[size];
+    long lastKey = keys[size];
+    size--;
+    if ( idx <= size )
+    {
+      if ( lastKey < keys[idx] )
+      {
+        siftUp( idx, last, lastKey );
+      }
+      else
+      {
+        siftDown( idx, last, lastKey );
+      }
+    }
+  }
+
+  public void update( int label )
+  {
+    int idx = label < positions.length ? positions[label] : 0;
+    if ( idx == 0 )
+    {
+      return; // not in set
+    }
+    long key = sortKey( label );
+    if ( key < keys[idx] )
+    {
+      siftUp( idx, label, key );
+    }
+    else
+    {
+      siftDown( idx, label, key );
+    }
+  }
+
+  public int first()
+  {
+    return size == 0 ? 0 : heap[1];
+  }
+
+  public int size()
+  {
+    return size;
+  }
+
+  public int[] getExtract()
+  {
+    int div = size / 1000 + 1;
+
+    int[] res =  new int[size/div * 2];
+    int i = 0;
+    for( int idx = div; idx <= size; idx += div )
+    {
+      OsmNode n = labels.getLink( heap[idx] ).targetNode;
+      res[i++] = n.ilon;
+      res[i++] = n.ilat;
+    }
+    return res;
+  }
+
+  // heap operations
+
+  private long sortKey( int label )
+  {
+    long seq = 0xffffffffL - ( addCount++ & 0xffffffffL );
+    return ( (long)labels.getAdjustedCost( label ) ) << 32 | seq;
+  }
+
+  private void siftUp( int idx, int label, long key )
+  {
+    while( idx > 1 )
+    {
+      int parent = ( ( idx - 2 ) >> 2 ) + 1;
+      long parentKey = keys[parent];
+      if ( parentKey < key )
+      {
+        break;
+      }
+      int p = heap[parent];
+      heap[idx] = p;
+      keys[idx] = parentKey;
+      positions[p] = idx;
+      idx = parent;
+    }
+    heap[idx] = label;
+    keys[idx] = key;
+    positions[label] = idx;
+  }
+
+  private void siftDown( int idx, int label, long key )
+  {
+    for(;;)
+    {
+      int child = ( ( idx - 1 ) << 2 ) + 2;
+      if ( child > size )
+      {
+        break;
+      }
+      int lastChild = child + 3 < size ? child + 3 : size;
+      int minChild = child;
+      long minKey = keys[child];
+      for( int c = child + 1; c <= lastChild; c++ )
+      {
+        if ( keys[c] < minKey )
+        {
+          minChild = c;
+          minKey = keys[c];
+        }
+      }
+      if ( key < minKey )
+      {
+        break;
+      }
+      int p = heap[minChild];
+      heap[idx] = p;
+      keys[idx] = minKey;
+      positions[p] = idx;
+      idx = minChild;
+    }
+    heap[idx] = label;
+    keys[idx] = key;
+    positions[label] = idx;
+  }
+
+  private void grow()
+  {
+    int n = heap.length * 2;
+    int[] newHeap = new int[n];
+    long[] newKeys = new long[n];
+    System.arraycopy( heap, 0, newHeap, 0, heap.length );
+    System.arraycopy( keys, 0, newKeys, 0, keys.length );
+    heap = newHeap;
+    keys = newKeys;
+  }
+}
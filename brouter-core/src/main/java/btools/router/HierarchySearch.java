@@ -0,0 +1,244 @@
+/**
+ * Query on a contraction hierarchy: a bidirectional dijkstra
+ * that only follows edges to higher-ranked nodes, with the
+ * shortcuts of the resulting path unpacked into plain links
+ *
+ * @author ab
+ */
+package btools.router;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+import btools.mapaccess.HierarchyCache;
+import btools.mapaccess.HierarchyTile;
+import btools.util.LongList;
+
+final class HierarchySearch
+{
+  private static final class Label
+  {
+    long id;
+    int cost;
+    Label pred;
+    long middle; // middle node of the edge from pred
+    boolean settled;
+  }
+
+  private static final Comparator<Label> labelComparator = new Comparator<Label>()
+  {
+    public int compare( Label l1, Label l2 )
+    {
+      return l1.cost < l2.cost ? -1 : ( l1.cost > l2.cost ? 1 : 0 );
+    }
+  };
+
+  private HierarchyCache cache;
+
+  private HashMap<Long,Label> forwardLabels = new HashMap<Long,Label>();
+  private HashMap<Long,Label> backwardLabels = new HashMap<Long,Label>();
+  private PriorityQueue<Label> forwardQueue = new PriorityQueue<Label>( 64, labelComparator );
+  private PriorityQueue<Label> backwardQueue = new PriorityQueue<Label>( 64, labelComparator );
+
+  private int bestCost = Integer.MAX_VALUE;
+  private Label bestForward;
+  private Label bestBackward;
+
+  private LongList pathIds;
+  private LongList pathCosts;
+
+  public int nodesVisited;
+
+  public HierarchySearch( HierarchyCache cache )
+  {
+    this.cache = cache;
+  }
+
+  public void addSource( long id, int cost )
+  {
+    relax( id, cost, null, HierarchyTile.NO_MIDDLE, true );
+  }
+
+  public void addTarget( long id, int cost )
+  {
+    relax( id, cost, null, HierarchyTile.NO_MIDDLE, false );
+  }
+
+  /**
+   * @return true if a path was found
+   */
+  public boolean search()
+  {
+    for(;;)
+    {
+      Label f = top( forwardQueue );
+      Label b = top( backwardQueue );
+      boolean forwardDone = f == null || f.cost >= bestCost;
+      boolean backwardDone = b == null || b.cost >= bestCost;
+      if ( forwardDone && backwardDone ) break;
+
+      boolean forward = backwardDone || ( !forwardDone && f.cost <= b.cost );
+      Label l = forward ? forwardQueue.poll() : backwardQueue.poll();
+      l.settled = true;
+      nodesVisited++;
+
+      HierarchyTile tile = cache.getTileFor( l.id );
+      int idx = tile == null ? -1 : tile.indexOf( l.id );
+      if ( idx < 0 ) continue;
+
+      byte dir = forward ? HierarchyTile.EDGE_UP : HierarchyTile.EDGE_DOWN;
+      for( int e = tile.edgeStart[idx]; e < tile.edgeStart[idx+1]; e++ )
+      {
+        if ( tile.edgeDir[e] == dir )
+        {
+          relax( tile.edgeOther[e], l.cost + tile.edgeCost[e], l, tile.edgeMiddle[e], forward );
+        }
+      }
+    }
+    if ( bestForward == null )
+    {
+      return false;
+    }
+    unpackPath();
+    return true;
+  }
+
+  public int getCost()
+  {
+    return bestCost;
+  }
+
+  /**
+   * @return the node ids of the path, from the source to the target
+   */
+  public LongList getPathIds()
+  {
+    return pathIds;
+  }
+
+  /**
+   * @return the cost at each node of the path
+   */
+  public LongList getPathCosts()
+  {
+    return pathCosts;
+  }
+
+  // skip outdated queue entries
+  private Label top( PriorityQueue<Label> queue )
+  {
+    for(;;)
+    {
+      Label l = queue.peek();
+      if ( l == null || !l.settled ) return l;
+      queue.poll();
+    }
+  }
+
+  private void relax( long id, int cost, Label pred, long middle, boolean forward )
+  {
+    HashMap<Long,Label> labels = forward ? forwardLabels : backwardLabels;
+    Long key = Long.valueOf( id );
+    Label l = labels.get( key );
+    if ( l != null )
+    {
+      if ( l.settled || l.cost <= cost ) return;
+      l.settled = true; // outdated, a new entry is queued below
+    }
+    Label nl = new Label();
+    nl.id = id;
+    nl.cost = cost;
+    nl.pred = pred;
+    nl.middle = middle;
+    labels.put( key, nl );
+    ( forward ? forwardQueue : backwardQueue ).add( nl );
+
+    // check for a meeting with the other direction
+    Label other = ( forward ? backwardLabels : forwardLabels ).get( key );
+    if ( other != null && (long)cost + other.cost < bestCost )
+    {
+      bestCost = cost + other.cost;
+      bestForward = forward ? nl : other;
+      bestBackward = forward ? other : nl;
+    }
+  }
+
+  private void unpackPath()
+  {
+    // collect the labels from the source to the meeting node
+    int n = 0;
+    for( Label l = bestForward; l != null; l = l.pred ) n++;
+    Label[] forwardPath = new Label[n];
+    for( Label l = bestForward; l != null; l = l.pred ) forwardPath[--n] = l;
+
+    pathIds = new LongList( 64 );
+    pathCosts = new LongList( 64 );
+    pathIds.add( forwardPath[0].id );
+    pathCosts.add( forwardPath[0].cost );
+    for( int i=1; i<forwardPath.length; i++ )
+    {
+      Label l = forwardPath[i];
+      unpackEdge( l.pred.id, l.id, l.middle );
+    }
+    for( Label l = bestBackward; l.pred != null; l = l.pred )
+    {
+      unpackEdge( l.id, l.pred.id, l.middle );
+    }
+  }
+
+  // append the nodes of the edge from->to (excluding "from")
+  private void unpackEdge( long from, long to, long middle )
+  {
+    long cost = pathCosts.get( pathCosts.size()-1 );
+    if ( middle == HierarchyTile.NO_MIDDLE )
+    {
+      pathIds.add( to );
+      pathCosts.add( cost + findEdgeCost( from, to ) );
+      return;
+    }
+    // both parts of a shortcut are stored at the middle node
+    HierarchyTile tile = cache.getTileFor( middle );
+    int idx = tile == null ? -1 : tile.indexOf( middle );
+    if ( idx < 0 ) throw new IllegalArgumentException( "inconsistent hierarchy at " + middle );
+    unpackEdge( from, middle, tile.edgeMiddle[ findEdge( tile, idx, HierarchyTile.EDGE_DOWN, from ) ] );
+    unpackEdge( middle, to, tile.edgeMiddle[ findEdge( tile, idx, HierarchyTile.EDGE_UP, to ) ] );
+  }
+
+  // cost of a plain link, which is stored at the lower-ranked of its nodes
+  private int findEdgeCost( long from, long to )
+  {
+    HierarchyTile tile = cache.getTileFor( from );
+    int idx = tile == null ? -1 : tile.indexOf( from );
+    int e = idx < 0 ? -1 : findEdge( tile, idx, HierarchyTile.EDGE_UP, to, false );
+    if ( e >= 0 ) return tile.edgeCost[e];
+
+    tile = cache.getTileFor( to );
+    idx = tile == null ? -1 : tile.indexOf( to );
+    if ( idx < 0 ) throw new IllegalArgumentException( "inconsistent hierarchy at " + to );
+    return tile.edgeCost[ findEdge( tile, idx, HierarchyTile.EDGE_DOWN, from ) ];
+  }
+
+  private int findEdge( HierarchyTile tile, int idx, byte dir, long other )
+  {
+    return findEdge( tile, idx, dir, other, true );
+  }
+
+  // find the cheapest edge of the given direction to "other"
+  private int findEdge( HierarchyTile tile, int idx, byte dir, long other, boolean mustExist )
+  {
+    int best = -1;
+    for( int e = tile.edgeStart[idx]; e < tile.edgeStart[idx+1]; e++ )
+    {
+      if ( tile.edgeDir[e] == dir && tile.edgeOther[e] == other )
+      {
+        if ( best < 0 || tile.edgeCost[e] < tile.edgeCost[best] ) best = e;
+      }
+    }
+    if ( best < 0 && mustExist )
+    {
+      throw new IllegalArgumentException( "inconsistent hierarchy at " + tile.nodeIds[idx] );
+    }
+    return best;
+  }
+}
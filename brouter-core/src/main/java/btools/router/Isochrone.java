@@ -0,0 +1,176 @@
+/**
+ * Result of a reachability search
+ *
+ * The nodes reachable from an origin within a cost limit, each with
+ * its cost, and the boundary points: where the links leaving the
+ * reachable set cross the cost limit, interpolated along the link
+ * geometry. Positions are in the internal format (micro-degrees,
+ * offset by 180/90 degrees).
+ *
+ * @author ab
+ */
+package btools.router;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public final class Isochrone
+{
+  private int originLon;
+  private int originLat;
+  private int maxCost;
+
+  private int[] nodeLons = new int[256];
+  private int[] nodeLats = new int[256];
+  private int[] nodeCosts = new int[256];
+  private int nodeCount;
+
+  private int[] boundaryLons = new int[64];
+  private int[] boundaryLats = new int[64];
+  private int boundaryCount;
+
+  Isochrone( int originLon, int originLat, int maxCost )
+  {
+    this.originLon = originLon;
+    this.originLat = originLat;
+    this.maxCost = maxCost;
+  }
+
+  void addNode( int ilon, int ilat, int cost )
+  {
+    if ( nodeCount == nodeLons.length )
+    {
+      nodeLons = Arrays.copyOf( nodeLons, 2*nodeCount );
+      nodeLats = Arrays.copyOf( nodeLats, 2*nodeCount );
+      nodeCosts = Arrays.copyOf( nodeCosts, 2*nodeCount );
+    }
+    nodeLons[nodeCount] = ilon;
+    nodeLats[nodeCount] = ilat;
+    nodeCosts[nodeCount] = cost;
+    nodeCount++;
+  }
+
+  void addBoundaryPoint( int ilon, int ilat )
+  {
+    if ( boundaryCount == boundaryLons.length )
+    {
+      boundaryLons = Arrays.copyOf( boundaryLons, 2*boundaryCount );
+      boundaryLats = Arrays.copyOf( boundaryLats, 2*boundaryCount );
+    }
+    boundaryLons[boundaryCount] = ilon;
+    boundaryLats[boundaryCount] = ilat;
+    boundaryCount++;
+  }
+
+  public int getOriginLon()
+  {
+    return originLon;
+  }
+
+  public int getOriginLat()
+  {
+    return originLat;
+  }
+
+  public int getMaxCost()
+  {
+    return maxCost;
+  }
+
+  public int getNodeCount()
+  {
+    return nodeCount;
+  }
+
+  public int getNodeLon( int i )
+  {
+    return nodeLons[i];
+  }
+
+  public int getNodeLat( int i )
+  {
+    return nodeLats[i];
+  }
+
+  public int getNodeCost( int i )
+  {
+    return nodeCosts[i];
+  }
+
+  public int getBoundaryCount()
+  {
+    return boundaryCount;
+  }
+
+  public int getBoundaryLon( int i )
+  {
+    return boundaryLons[i];
+  }
+
+  public int getBoundaryLat( int i )
+  {
+    return boundaryLats[i];
+  }
+
+  /**
+   * Get a hull polygon of the reachable area: the farthest reachable
+   * position in each of the given number of angular sectors around the
+   * origin, counter-clockwise. This is a star-shaped (in general concave)
+   * polygon, the more sectors the deeper it follows the reachable area
+   * into its corridors.
+   *
+   * @return the closed ring (first position repeated at the end),
+   *         empty if less than 3 sectors are reached
+   */
+  public List<OsmNodeNamed> getHull( int sectors )
+  {
+    double l = (originLat-90000000) * 0.00000001234134;
+    double l2 = l*l;
+    double l4 = l2*l2;
+    double coslat = 1.- l2 + l4 / 6.;
+
+    int[] bestLons = new int[sectors];
+    int[] bestLats = new int[sectors];
+    double[] bestDist2 = new double[sectors];
+    Arrays.fill( bestDist2, -1. );
+    for( int i=0; i<nodeCount + boundaryCount; i++ )
+    {
+      int ilon = i < nodeCount ? nodeLons[i] : boundaryLons[i-nodeCount];
+      int ilat = i < nodeCount ? nodeLats[i] : boundaryLats[i-nodeCount];
+      double dx = ( ilon - originLon ) * coslat;
+      double dy = ilat - originLat;
+      if ( dx == 0. && dy == 0. ) continue;
+      int s = (int)( ( Math.atan2( dy, dx ) + Math.PI ) / ( 2.*Math.PI ) * sectors );
+      if ( s == sectors ) s = 0;
+      double dist2 = dx*dx + dy*dy;
+      if ( dist2 > bestDist2[s] )
+      {
+        bestDist2[s] = dist2;
+        bestLons[s] = ilon;
+        bestLats[s] = ilat;
+      }
+    }
+
+    List<OsmNodeNamed> hull = new ArrayList<OsmNodeNamed>();
+    for( int s=0; s<sectors; s++ )
+    {
+      if ( bestDist2[s] >= 0. )
+      {
+        OsmNodeNamed n = new OsmNodeNamed();
+        n.ilon = bestLons[s];
+        n.ilat = bestLats[s];
+        hull.add( n );
+      }
+    }
+    if ( hull.size() < 3 )
+    {
+      hull.clear();
+    }
+    else
+    {
+      hull.add( hull.get( 0 ) );
+    }
+    return hull;
+  }
+}
@@ -0,0 +1,349 @@
+/**
+ * The labels of a search (the paths reaching a link), kept in
+ * growable primitive arrays and addressed by int handles
+ * (1-based, 0 = none), so labeling a link allocates no objects
+ *
+ * A label is stored from an OsmPath, which is used only to
+ * evaluate the extensions of the labels. The labels on a link
+ * are chained from OsmLink.firstlinkholder, and each label
+ * keeps the label it was extended from, so the OsmPathElement
+ * chain of a label is created only when needed for a track.
+ * For a search recording the transfer-nodes, the elements
+ * (with their messages) are stored with the labels instead.
+ *
+ * The handles are valid until the store is cleared for the next search.
+ *
+ * @author ab
+ */
+package btools.router;
+
+import java.util.Arrays;
+
+import btools.mapaccess.OsmLink;
+import btools.mapaccess.OsmNode;
+
+final class LabelStore
+{
+  private int size = 0;
+
+  private int[] costs = new int[1024];
+  private int[] adjustedCosts = new int[1024];
+  private int[] distances = new int[1024];
+  private int[] ehbds = new int[1024];
+  private int[] ehbus = new int[1024];
+  private short[] selevs = new short[1024];
+  private float[] lastCostfactors = new float[1024];
+  private int[] originLons = new int[1024];
+  private int[] originLats = new int[1024];
+  private boolean[] hasOrigins = new boolean[1024];
+  private int[] treedepths = new int[1024];
+  private int[] origins = new int[1024];
+  private int[] nextForLinks = new int[1024];
+  private OsmLink[] links = new OsmLink[1024];
+  private OsmNode[] sourceNodes = new OsmNode[1024];
+  private OsmPathElement[] elements = new OsmPathElement[1024];
+
+  // the deferred cost-items of the reverse labels (see ReverseInfo),
+  // allocated with the first one
+  private boolean[] reverses;
+  private int[] reverseNexts;
+  private int[] firstLons;
+  private int[] firstLats;
+  private float[] firstCostfactors;
+  private float[] firstTurncosts;
+  private int[] firstInitialcosts;
+
+  // the labels without element when creating an element chain
+  private int[] chain = new int[64];
+
+  /**
+   * Remove all labels, for the next search
+   */
+  void clear()
+  {
+    for( int i=1; i<=size; i++ )
+    {
+      links[i] = null;
+      sourceNodes[i] = null;
+      elements[i] = null;
+    }
+    size = 0;
+  }
+
+  /**
+   * @return the number of labels
+   */
+  int size()
+  {
+    return size;
+  }
+
+  /**
+   * Store a path as a new label, its origin is the label
+   * the path was extended from (OsmPath.originLabel)
+   *
+   * @return the handle of the label, also set as OsmPath.label
+   */
+  int add( OsmPath path )
+  {
+    if ( ++size == costs.length )
+    {
+      grow();
+    }
+    int label = size;
+    costs[label] = path.cost;
+    adjustedCosts[label] = path.adjustedCost;
+    distances[label] = path.distance;
+    ehbds[label] = path.ehbd;
+    ehbus[label] = path.ehbu;
+    selevs[label] = path.selev;
+    lastCostfactors[label] = path.lastCostfactor;
+    originLons[label] = path.originLon;
+    originLats[label] = path.originLat;
+    hasOrigins[label] = path.hasOrigin;
+    treedepths[label] = path.treedepth;
+    origins[label] = path.originLabel;
+    nextForLinks[label] = 0;
+    links[label] = path.getLink();
+    sourceNodes[label] = path.getSourceNode();
+    if ( reverses != null )
+    {
+      reverses[label] = false;
+    }
+    path.label = label;
+    return label;
+  }
+
+  /**
+   * Load a label into a path, as the origin of an extension
+   */
+  void load( int label, OsmPath path )
+  {
+    path.initLabel( links[label], sourceNodes[label], label, origins[label] );
+    path.cost = costs[label];
+    path.adjustedCost = adjustedCosts[label];
+    path.distance = distances[label];
+    path.ehbd = ehbds[label];
+    path.ehbu = ehbus[label];
+    path.selev = selevs[label];
+    path.lastCostfactor = lastCostfactors[label];
+    path.originLon = originLons[label];
+    path.originLat = originLats[label];
+    path.hasOrigin = hasOrigins[label];
+    path.treedepth = treedepths[label];
+    path.element = elements[label];
+  }
+
+  int getCost( int label )
+  {
+    return costs[label];
+  }
+
+  int getAdjustedCost( int label )
+  {
+    return adjustedCosts[label];
+  }
+
+  void setAdjustedCost( int label, int adjustedCost )
+  {
+    adjustedCosts[label] = adjustedCost;
+  }
+
+  int getDistance( int label )
+  {
+    return distances[label];
+  }
+
+  int getEhbd( int label )
+  {
+    return ehbds[label];
+  }
+
+  int getEhbu( int label )
+  {
+    return ehbus[label];
+  }
+
+  float getLastCostfactor( int label )
+  {
+    return lastCostfactors[label];
+  }
+
+  int getOriginLon( int label )
+  {
+    return originLons[label];
+  }
+
+  int getOriginLat( int label )
+  {
+    return originLats[label];
+  }
+
+  int getTreedepth( int label )
+  {
+    return treedepths[label];
+  }
+
+  /**
+   * @return the label this one was extended from, 0 for a start label
+   */
+  int getOrigin( int label )
+  {
+    return origins[label];
+  }
+
+  OsmLink getLink( int label )
+  {
+    return links[label];
+  }
+
+  OsmNode getSourceNode( int label )
+  {
+    return sourceNodes[label];
+  }
+
+  // the labels on a link
+
+  void addLinkHolder( OsmLink link, int label )
+  {
+    nextForLinks[label] = link.firstlinkholder;
+    link.firstlinkholder = label;
+  }
+
+  int getNextForLink( int label )
+  {
+    return nextForLinks[label];
+  }
+
+  // the reverse labels (bidirectional mode)
+
+  /**
+   * Make a label a reverse label, with the given deferred cost-items
+   */
+  void setReverse( int label, ReverseInfo ri )
+  {
+    if ( reverses == null )
+    {
+      int n = costs.length;
+      reverses = new boolean[n];
+      reverseNexts = new int[n];
+      firstLons = new int[n];
+      firstLats = new int[n];
+      firstCostfactors = new float[n];
+      firstTurncosts = new float[n];
+      firstInitialcosts = new int[n];
+    }
+    reverses[label] = true;
+    reverseNexts[label] = ri.next;
+    firstLons[label] = ri.firstLon;
+    firstLats[label] = ri.firstLat;
+    firstCostfactors[label] = ri.firstCostfactor;
+    firstTurncosts[label] = ri.firstTurncost;
+    firstInitialcosts[label] = ri.firstInitialcost;
+  }
+
+  boolean isReverse( int label )
+  {
+    return reverses != null && reverses[label];
+  }
+
+  /**
+   * @return the reverse label for the remaining route, 0 at the end
+   */
+  int getReverseNext( int label )
+  {
+    return reverseNexts[label];
+  }
+
+  /**
+   * Load the deferred cost-items of a reverse label
+   */
+  void getReverseInfo( int label, ReverseInfo ri )
+  {
+    ri.next = reverseNexts[label];
+    ri.firstLon = firstLons[label];
+    ri.firstLat = firstLats[label];
+    ri.firstCostfactor = firstCostfactors[label];
+    ri.firstTurncost = firstTurncosts[label];
+    ri.firstInitialcost = firstInitialcosts[label];
+  }
+
+  // the path elements
+
+  void setElement( int label, OsmPathElement element )
+  {
+    elements[label] = element;
+  }
+
+  /**
+   * @return the element for the end of a label (null for label 0),
+   *         creating the missing elements of its chain
+   */
+  OsmPathElement getElement( int label )
+  {
+    int n = 0;
+    int l = label;
+    while( l != 0 && elements[l] == null )
+    {
+      if ( n == chain.length )
+      {
+        chain = Arrays.copyOf( chain, 2*n );
+      }
+      chain[n++] = l;
+      l = origins[l];
+    }
+    OsmPathElement e = l == 0 ? null : elements[l];
+    while( n > 0 )
+    {
+      l = chain[--n];
+      OsmNode node = links[l].targetNode;
+      e = new OsmPathElement( node.ilon, node.ilat, selevs[l], e );
+      e.cost = costs[l];
+      elements[l] = e;
+    }
+    return e;
+  }
+
+  /**
+   * @return an element for a path that is not stored, on
+   *         the chain of its origin (not recording transfer-nodes)
+   */
+  OsmPathElement createElement( OsmPath path )
+  {
+    OsmNode node = path.getLink().targetNode;
+    OsmPathElement e = new OsmPathElement( node.ilon, node.ilat, path.selev, getElement( path.originLabel ) );
+    e.cost = path.cost;
+    return e;
+  }
+
+  private void grow()
+  {
+    int n = costs.length * 2;
+    costs = Arrays.copyOf( costs, n );
+    adjustedCosts = Arrays.copyOf( adjustedCosts, n );
+    distances = Arrays.copyOf( distances, n );
+    ehbds = Arrays.copyOf( ehbds, n );
+    ehbus = Arrays.copyOf( ehbus, n );
+    selevs = Arrays.copyOf( selevs, n );
+    lastCostfactors = Arrays.copyOf( lastCostfactors, n );
+    originLons = Arrays.copyOf( originLons, n );
+    originLats = Arrays.copyOf( originLats, n );
+    hasOrigins = Arrays.copyOf( hasOrigins, n );
+    treedepths = Arrays.copyOf( treedepths, n );
+    origins = Arrays.copyOf( origins, n );
+    nextForLinks = Arrays.copyOf( nextForLinks, n );
+    links = Arrays.copyOf( links, n );
+    sourceNodes = Arrays.copyOf( sourceNodes, n );
+    elements = Arrays.copyOf( elements, n );
+    if ( reverses != null )
+    {
+      reverses = Arrays.copyOf( reverses, n );
+      reverseNexts = Arrays.copyOf( reverseNexts, n );
+      firstLons = Arrays.copyOf( firstLons, n );
+      firstLats = Arrays.copyOf( firstLats, n );
+      firstCostfactors = Arrays.copyOf( firstCostfactors, n );
+      firstTurncosts = Arrays.copyOf( firstTurncosts, n );
+      firstInitialcosts = Arrays.copyOf( firstInitialcosts, n );
+    }
+  }
+}
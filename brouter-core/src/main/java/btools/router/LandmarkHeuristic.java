@@ -0,0 +1,95 @@
+/**
+ * Lower bound of the remaining cost from the landmark
+ * costs (ALT heuristic), using the triangle inequality:
+ *
+ *  cost(v,t) >= cost(L,t) - cost(L,v)
+ *  cost(v,t) >= cost(v,L) - cost(t,L)
+ *
+ * The landmark costs leave out turn-costs, way initial-costs
+ * and elevation, which are never negative, so the bound
+ * is also valid for the costs in OsmPath.
+ *
+ * The target is the link containing the end waypoint, so the
+ * bound is the minimum of the bounds to both of its nodes.
+ *
+ * @author ab
+ */
+package btools.router;
+
+import btools.mapaccess.LandmarkCache;
+import btools.mapaccess.LandmarkTile;
+
+final class LandmarkHeuristic
+{
+  private LandmarkCache cache;
+  private int landmarkCount;
+
+  // the landmark costs of the two target nodes
+  private int[][] targetFrom = new int[2][];
+  private int[][] targetTo = new int[2][];
+
+  private LandmarkHeuristic( LandmarkCache cache )
+  {
+    this.cache = cache;
+  }
+
+  /**
+   * @return the heuristic for the given target nodes, or null
+   * if there are no landmark costs for them
+   */
+  public static LandmarkHeuristic create( LandmarkCache cache, long targetId1, long targetId2 )
+  {
+    LandmarkHeuristic h = new LandmarkHeuristic( cache );
+    if ( h.initTarget( 0, targetId1 ) && h.initTarget( 1, targetId2 ) )
+    {
+      return h;
+    }
+    return null;
+  }
+
+  private boolean initTarget( int i, long id )
+  {
+    LandmarkTile tile = cache.getTileFor( id );
+    int idx = tile == null ? -1 : tile.indexOf( id );
+    if ( idx < 0 ) return false;
+    landmarkCount = tile.landmarkIds.length;
+    targetFrom[i] = new int[landmarkCount];
+    targetTo[i] = new int[landmarkCount];
+    System.arraycopy( tile.costFrom, idx*landmarkCount, targetFrom[i], 0, landmarkCount );
+    System.arraycopy( tile.costTo, idx*landmarkCount, targetTo[i], 0, landmarkCount );
+    return true;
+  }
+
+  /**
+   * @return a lower bound of the cost from the given node to the target, 0 if unknown
+   */
+  public int getLowerBound( long id )
+  {
+    LandmarkTile tile = cache.getTileFor( id );
+    int idx = tile == null ? -1 : tile.indexOf( id );
+    if ( idx < 0 ) return 0;
+    int base = idx*landmarkCount;
+    return Math.min( getLowerBound( tile, base, 0 ), getLowerBound( tile, base, 1 ) );
+  }
+
+  private int getLowerBound( LandmarkTile tile, int base, int target )
+  {
+    int[] tFrom = targetFrom[target];
+    int[] tTo = targetTo[target];
+    int bound = 0;
+    for( int k=0; k<landmarkCount; k++ )
+    {
+      int vFrom = tile.costFrom[base+k];
+      if ( vFrom >= 0 && tFrom[k] >= 0 && tFrom[k] - vFrom > bound )
+      {
+        bound = tFrom[k] - vFrom;
+      }
+      int vTo = tile.costTo[base+k];
+      if ( vTo >= 0 && tTo[k] >= 0 && vTo - tTo[k] > bound )
+      {
+        bound = vTo - tTo[k];
+      }
+    }
+    return bound;
+  }
+}
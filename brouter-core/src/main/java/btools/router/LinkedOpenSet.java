@@ -0,0 +1,233 @@
+/**
+ * Implementation for the open-set
+ * that should be somewhat faster
+ * and memory-efficient than the original
+ * version based on java.util.TreeSet
+ *
+ * It relies on two double-linked lists,
+ * kept in arrays by label
+ *
+ * Kept as the reference implementation,
+ * see HeapOpenSet for the default one
+ *
+ * @author ab
+ */
+package btools.router;
+
+import btools.mapaccess.OsmNode;
+
+final class LinkedOpenSet extends OpenSet
+{
+  // the list entries: the two list heads, then the labels (label+2)
+  private static final int NONE = 0;
+  private static final int START = 1;
+  private static final int INDEX2 = 2;
+
+  private int[] nextInSet = new int[1024];
+  private int[] prevInSet = new int[1024];
+  private int[] nextInIndexSet = new int[1024];
+  private int[] prevInIndexSet = new int[1024];
+  private int[] adjustedCosts = new int[1024];
+
+  private int addCount = 0;
+
+  private int size = 0;
+
+  LinkedOpenSet( LabelStore labels )
+  {
+    super( labels );
+  }
+
+  public void clear()
+  {
+    int p = nextInSet[START];
+    while( p != NONE )
+    {
+      int p2 = nextInSet[p];
+      unlink( p );
+      p = p2;
+    }
+    nextInSet[START] = NONE;
+    nextInIndexSet[START] = NONE;
+    nextInIndexSet[INDEX2] = NONE;
+    size = 0;
+    addCount = 0;
+  }
+
+  public void add( int label )
+  {
+    int path = label + 2;
+    if ( path >= nextInSet.length )
+    {
+      grow( path );
+    }
+	int ac = labels.getAdjustedCost( label );
+	adjustedCosts[path] = ac;
+	nextInIndexSet[path] = NONE;
+	prevInIndexSet[path] = NONE;
+	int p1 = INDEX2;
+
+	// fast forward along index2
+	while( nextInIndexSet[p1] != NONE && adjustedCosts[nextInIndexSet[p1]] < ac )
+    {
+      p1 = nextInIndexSet[p1];
+    }
+    if ( p1 == INDEX2 )
+    {
+      p1 = START;
+    }
+
+    // search using index1
+	for(;;)
+    {
+	  if ( nextInIndexSet[p1] != NONE && adjustedCosts[nextInIndexSet[p1]] < ac )
+	  {
+        p1 = nextInIndexSet[p1];
+	  }
+	  else if ( nextInSet[p1] != NONE && adjustedCosts[nextInSet[p1]] < ac )
+	  {
+        p1 = nextInSet[p1];
+	  }
+	  else
+	  {
+	    break;
+	  }
+    }
+    int p2 = nextInSet[p1];
+
+    nextInSet[p1] = path;
+	prevInSet[path] = p1;
+	nextInSet[path] = p2;
+	if ( p2 != NONE ) { prevInSet[p2] = path; }
+	size++;
+
+	addCount++;
+
+	// feed random samples to the indices
+	if ( (addCount & 31) == 0 )
+	{
+	  addIndex( path, START );
+	}
+	else if ( (addCount & 1023) == 1023 )
+	{
+	  addIndex( path, INDEX2 );
+	}
+  }
+
+  public void remove( int label )
+  {
+    int path = label + 2;
+    if ( path >= nextInSet.length )
+    {
+      return; // not in set
+    }
+	int p1 = prevInSet[path];
+	int p2 = nextInSet[path];
+	if ( p1 == NONE )
+	{
+	  return; // not in set
+	}
+	prevInSet[path] = NONE;
+	nextInSet[path] = NONE;
+	if ( p2 != NONE )
+	{
+      prevInSet[p2] = p1;
+	}
+	nextInSet[p1] = p2;
+
+	removeIndex( path );
+
+	size--;
+  }
+
+  public int first()
+  {
+    int p = nextInSet[START];
+    return p == NONE ? 0 : p - 2;
+  }
+
+  public int size()
+  {
+    return size;
+  }
+
+  public int[] getExtract()
+  {
+	  int div = size / 1000 + 1;
+
+      int[] res =  new int[size/div * 2];
+      int i = 0;
+      int cnt = 0;
+      for( int p = nextInSet[START]; p != NONE; p = nextInSet[p] )
+      {
+    	if ( (++cnt) % div == 0 )
+    	{
+          OsmNode n = labels.getLink( p - 2 ).targetNode;
+          res[i++] = n.ilon;
+          res[i++] = n.ilat;
+    	}
+      }
+      return res;
+  }
+
+  // index operations
+
+  private void addIndex( int path, int index )
+  {
+	int ac = adjustedCosts[path];
+	int p1 = index;
+	int p2 = nextInIndexSet[p1];
+	while( p2 != NONE && adjustedCosts[p2] < ac )
+	{
+	  p1 = p2;
+      p2 = nextInIndexSet[p2];
+	}
+	nextInIndexSet[p1] = path;
+	prevInIndexSet[path] = p1;
+	nextInIndexSet[path] = p2;
+	if ( p2 != NONE ) { prevInIndexSet[p2] = path; }
+  }
+
+
+  private void removeIndex( int path )
+  {
+	int p1 = prevInIndexSet[path];
+	int p2 = nextInIndexSet[path];
+	if ( p1 == NONE )
+	{
+	  return; // not in set
+	}
+	prevInIndexSet[path] = NONE;
+	nextInIndexSet[path] = NONE;
+	if ( p2 != NONE )
+	{
+      prevInIndexSet[p2] = p1;
+	}
+	nextInIndexSet[p1] = p2;
+  }
+
+  private void unlink( int path )
+  {
+    prevInSet[path] = NONE;
+    nextInSet[path] = NONE;
+    prevInIndexSet[path] = NONE;
+    nextInIndexSet[path] = NONE;
+  }
+
+  private void grow( int path )
+  {
+    int n = Math.max( 2*nextInSet.length, path+1 );
+    nextInSet = copyOf( nextInSet, n );
+    prevInSet = copyOf( prevInSet, n );
+    nextInIndexSet = copyOf( nextInIndexSet, n );
+    prevInIndexSet = copyOf( prevInIndexSet, n );
+    adjustedCosts = copyOf( adjustedCosts, n );
+  }
+
+  private static int[] copyOf( int[] a, int n )
+  {
+    int[] aa = new int[n];
+    System.arraycopy( a, 0, aa, 0, a.length );
+    return aa;
+  }
+}
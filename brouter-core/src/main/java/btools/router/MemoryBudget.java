@@ -0,0 +1,95 @@
+/**
+ * Memory accounting of the routing requests
+ *
+ * A request reports its estimated memory use: the decoded segments
+ * referenced by its cache, the nodes of its nodes-map, its open set
+ * and its search labels (see LabelStore). It is within budget if
+ * that is not above the per-request budget, given by the system
+ * property "requestMemoryBudget" in MB (default: half of the max heap),
+ * and, while the sum over all active requests is above 3/4 of the
+ * max heap, not above its share of that. So in a shared server one
+ * huge request is degraded before it pushes the others into an
+ * OutOfMemoryError.
+ *
+ * The sizes are estimates per object, not measured.
+ *
+ * @author ab
+ */
+package btools.router;
+
+public final class MemoryBudget
+{
+  static final int NODE_BYTES = 200; // the node, its links and the map entry
+  static final int LABEL_BYTES = 64; // the arrays of a label
+  static final int OPEN_SET_BYTES = 8;
+
+  private static final long requestBudget = getDefaultRequestBudget();
+  private static final long processBudget = Runtime.getRuntime().maxMemory() / 4 * 3;
+
+  private static long processBytes;
+  private static int activeRequests;
+  private static long exceeded;
+
+  private long bytes;
+  private boolean active;
+
+  private static long getDefaultRequestBudget()
+  {
+    String s = System.getProperty( "requestMemoryBudget" );
+    return s == null ? Runtime.getRuntime().maxMemory() / 2 : Long.parseLong( s ) * 1024L * 1024L;
+  }
+
+  /**
+   * Report the current memory use of this request
+   *
+   * @return true if within budget
+   */
+  boolean update( long bytes )
+  {
+    synchronized( MemoryBudget.class )
+    {
+      if ( !active )
+      {
+        active = true;
+        activeRequests++;
+      }
+      processBytes += bytes - this.bytes;
+      this.bytes = bytes;
+      boolean within = bytes <= requestBudget
+                    && ( processBytes <= processBudget || bytes <= processBudget / activeRequests );
+      if ( !within ) exceeded++;
+      return within;
+    }
+  }
+
+  /**
+   * Remove this request from the accounting, at its end
+   */
+  void release()
+  {
+    synchronized( MemoryBudget.class )
+    {
+      if ( active )
+      {
+        processBytes -= bytes;
+        activeRequests--;
+        active = false;
+      }
+      bytes = 0;
+    }
+  }
+
+  long getBytes()
+  {
+    return bytes;
+  }
+
+  /**
+   * @return the counters as a single-line string for logging
+   */
+  public static synchronized String getStatistics()
+  {
+    return "requests=" + activeRequests + " bytes=" + processBytes + "/" + processBudget
+         + " requestBudget=" + requestBudget + " exceeded=" + exceeded;
+  }
+}
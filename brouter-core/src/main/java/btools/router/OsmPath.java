@@ -7,24 +7,23 @@ package btools.router;
 
 import btools.mapaccess.*;
 
-final class OsmPath implements OsmLinkHolder
+final class OsmPath
 {
-  // double-linked lists for the openSet
-  public OsmPath nextInSet;
-  public OsmPath prevInSet;
-  public OsmPath nextInIndexSet;
-  public OsmPath prevInIndexSet;
-  
   /**
    * The cost of that path (a modified distance)
    */
   public int cost = 0;
 
+  /**
+   * The distance of that path in meters, summed over the sections
+   */
+  public int distance = 0;
+
   /**
    * The elevation-hysteresis-buffer (0-10 m)
    */
-  private int ehbd; // in micrometer
-  private int ehbu; // in micrometer
+  int ehbd; // in micrometer
+  int ehbu; // in micrometer
 
   // the elevation assumed for that path can have a value
   // if the corresponding node has not
@@ -41,9 +40,23 @@ final class OsmPath implements OsmLinkHolder
   
   private OsmNode sourcenode;
   private OsmLink link;
+
+  // the elements up to this path, only if recording the transfer-nodes,
+  // else they are created from the labels (see LabelStore)
   public OsmPathElement originElement;
 
-  private OsmLinkHolder nextForLink = null;
+  // the element for the end of this path, shared by all its extensions
+  OsmPathElement element;
+
+  // the handle of this path in the LabelStore (0 = not stored)
+  // and that of the path it was extended from
+  int label;
+  int originLabel;
+
+  // false for a start path, there is no direction to turn from
+  // (also when recording a path that starts on its target node,
+  // until it has a transfer-node)
+  boolean hasOrigin;
 
   public int treedepth = 0;
 
@@ -64,23 +77,68 @@ final class OsmPath implements OsmLinkHolder
   OsmPath( OsmLink link )
   {
     this();
-    this.link = link;
-    this.selev = link.targetNode.getSElev();
+    initStart( link );
   }
 
   OsmPath( OsmNode sourcenode, OsmPath origin, OsmLink link, OsmTrack refTrack, boolean recordTransferNodes, RoutingContext rc )
   {
     this();
-    this.originElement = new OsmPathElement( origin );
-    this.link = link;
-    this.sourcenode = sourcenode;
+    init( sourcenode, origin, link, refTrack, recordTransferNodes, rc );
+  }
+
+  /**
+   * (Re-)initialize as a start path, ending at
+   * the target of the given link
+   */
+  void initStart( OsmLink link )
+  {
+    initLabel( link, null, 0, 0 );
+    cost = 0;
+    adjustedCost = 0;
+    distance = 0;
+    ehbd = 0;
+    ehbu = 0;
+    selev = link.targetNode.getSElev();
+    lastCostfactor = 0.f;
+    originLon = 0;
+    originLat = 0;
+    hasOrigin = false;
+    treedepth = 0;
+  }
+
+  /**
+   * (Re-)initialize as the extension of the origin by the given link,
+   * so a path object can evaluate any number of candidates
+   */
+  void init( OsmNode sourcenode, OsmPath origin, OsmLink link, OsmTrack refTrack, boolean recordTransferNodes, RoutingContext rc )
+  {
+    initLabel( link, sourcenode, 0, origin.label );
+    adjustedCost = 0;
+    selev = 0;
+    treedepth = 0;
+    hasOrigin = true;
+
+    this.originElement = recordTransferNodes ? origin.getElement() : null;
     this.cost = origin.cost;
+    this.distance = origin.distance;
     this.ehbd = origin.ehbd;
     this.ehbu = origin.ehbu;
     this.lastCostfactor = origin.lastCostfactor;
     addAddionalPenalty(refTrack, recordTransferNodes, origin, link, rc );
   }
 
+  // reset the references, see LabelStore.load
+  void initLabel( OsmLink link, OsmNode sourcenode, int label, int originLabel )
+  {
+    this.link = link;
+    this.sourcenode = sourcenode;
+    this.label = label;
+    this.originLabel = originLabel;
+    originElement = null;
+    element = null;
+    message = null;
+  }
+
   private void addAddionalPenalty(OsmTrack refTrack, boolean recordTransferNodes, OsmPath origin, OsmLink link, RoutingContext rc )
   {
     rc.nogomatch = false;
@@ -99,7 +157,9 @@ final class OsmPath implements OsmLinkHolder
     int linkelevationcost = 0;
     int linkturncost = 0;
 
-    OsmTransferNode transferNode = link.decodeFirsttransfer();
+    TransferNodeCursor transferNodes = rc.transferNodes;
+    transferNodes.init( link );
+    boolean isTransfer = transferNodes.next();
     OsmNode targetNode = link.targetNode;
     long lastDescription = -1L;
     String lastMessage = null;
@@ -113,19 +173,19 @@ final class OsmPath implements OsmLinkHolder
       short ele2;
       long description;
 
-      if ( transferNode == null )
+      if ( !isTransfer )
       {
         lon2 = targetNode.ilon;
         lat2 = targetNode.ilat;
         ele2 = targetNode.selev;
-        description = link.descriptionBitmap;
+        description = link.getDescriptionBitmap();
       }
       else
       {
-        lon2 = transferNode.ilon;
-        lat2 = transferNode.ilat;
-        ele2 = transferNode.selev;
-        description = transferNode.descriptionBitmap;
+        lon2 = transferNodes.ilon;
+        lat2 = transferNodes.ilat;
+        ele2 = transferNodes.selev;
+        description = transferNodes.descriptionBitmap;
       }
 
       // if way description changed, store message
@@ -153,17 +213,25 @@ final class OsmPath implements OsmLinkHolder
         {
           // we just start here, reset cost
           cost = 0;
+          distance = 0;
           ehbd = 0;
           ehbu = 0;
-          if ( recordTransferNodes )
+          if (  rc.wayfraction > 0. )
           {
-            if (  rc.wayfraction > 0. )
+            if ( recordTransferNodes )
             {
               originElement = new OsmPathElement( rc.ilonshortest, rc.ilatshortest, ele2, null );
             }
-            else
+          }
+          else
+          {
+            // starting on the node: no direction to turn from, in any pass
+            originLon = lon2;
+            originLat = lat2;
+            if ( recordTransferNodes )
             {
               originElement = null; // prevent duplicate point
+              hasOrigin = false;
             }
           }
         }
@@ -171,12 +239,13 @@ final class OsmPath implements OsmLinkHolder
 
       linkdist += dist;
       linkdisttotal += dist;
+      distance += dist;
 
       rc.messageHandler.setCurrentPos( lon2, lat2 );
       rc.expctxWay.evaluate( description, rc.messageHandler );
 
       // *** penalty for way-change
-      if ( origin.originElement != null )
+      if ( origin.hasOrigin )
       {
         // penalty proportional to direction change
         double cos = rc.calcCosAngle( lon0, lat0, lon1, lat1, lon2, lat2 );
@@ -266,6 +335,7 @@ final class OsmPath implements OsmLinkHolder
         {
           originElement = new OsmPathElement( rc.ilonshortest, rc.ilatshortest, ele2, originElement );
           originElement.cost = cost;
+          hasOrigin = true;
         }
         if ( rc.nogomatch )
         {
@@ -274,7 +344,7 @@ final class OsmPath implements OsmLinkHolder
         return;
       }
 
-      if ( transferNode == null )
+      if ( !isTransfer )
       {
         // *** penalty for being part of the reference track
         if ( refTrack != null && refTrack.containsNode( targetNode ) && refTrack.containsNode( origin.link.targetNode ) )
@@ -286,12 +356,13 @@ final class OsmPath implements OsmLinkHolder
         selev = ele2;
         break;
       }
-      transferNode = transferNode.next;
+      isTransfer = transferNodes.next();
 
       if ( recordTransferNodes )
       {
         originElement = new OsmPathElement( lon2, lat2, ele2, originElement );
         originElement.cost = cost;
+        hasOrigin = true; // again a direction to turn from
       }
       lon0 = lon1;
       lat0 = lat1;
@@ -330,17 +401,21 @@ final class OsmPath implements OsmLinkHolder
          + ( rc.uphillcostdiv > 0 ? ehbu/rc.uphillcostdiv : 0 );
   }
 
-  public boolean definitlyWorseThan( OsmPath p, RoutingContext rc )
+  /**
+   * @return true if this path is definitly worse than the given label,
+   *         also if the elevation-buffers are taken into account
+   */
+  public boolean definitlyWorseThan( LabelStore labels, int label, RoutingContext rc )
   {
-	  int c = p.cost;
+	  int c = labels.getCost( label );
 	  if ( rc.downhillcostdiv > 0 )
 	  {
-	    int delta = p.ehbd - ehbd;
+	    int delta = labels.getEhbd( label ) - ehbd;
 	    if ( delta > 0 ) c += delta/rc.downhillcostdiv;
 	  }
 	  if ( rc.uphillcostdiv > 0 )
 	  {
-	    int delta = p.ehbu - ehbu;
+	    int delta = labels.getEhbu( label ) - ehbu;
 	    if ( delta > 0 ) c += delta/rc.uphillcostdiv;
 	  }
 	  
@@ -348,6 +423,19 @@ final class OsmPath implements OsmLinkHolder
   }
  
 
+  /**
+   * @return the element for the end of this path, created once
+   *         on the first extension of the path
+   */
+  OsmPathElement getElement()
+  {
+    if ( element == null )
+    {
+      element = new OsmPathElement( this );
+    }
+    return element;
+  }
+
   public OsmNode getSourceNode()
   {
     return sourcenode;
@@ -357,15 +445,4 @@ final class OsmPath implements OsmLinkHolder
   {
     return link;
   }
-
-
-  public void setNextForLink( OsmLinkHolder holder )
-  {
-    nextForLink = holder;
-  }
-
-  public OsmLinkHolder getNextForLink()
-  {
-    return nextForLink;
-  }
 }
@@ -270,7 +270,10 @@ public final class OsmTrack
     return sb.toString();
   }
 
-  private static String formatPos( int p )
+  /**
+   * Format a position offset in micro-degrees as decimal degrees
+   */
+  public static String formatPos( int p )
   {
     boolean negative = p < 0;
     if ( negative ) p = -p;
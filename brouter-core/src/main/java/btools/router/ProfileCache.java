@@ -0,0 +1,114 @@
+/**
+ * Cache of the parsed routing profiles
+ *
+ * Parsing lookups.dat and the profile for the three expression
+ * contexts is a significant part of a short request, so the
+ * parsed contexts are kept per profile file and used as templates
+ * for the per-request contexts. An entry is re-parsed if the
+ * profile or lookups.dat was modified in the meantime.
+ *
+ * With the system property "sharedExpressionCacheSize" (number of
+ * entries, default 0 = off), the way and node contexts of all
+ * requests using a profile also share a result cache.
+ *
+ * @author ab
+ */
+package btools.router;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import btools.expressions.BExpressionContext;
+import btools.expressions.BExpressionTemplate;
+import btools.mapaccess.SidecarFile;
+
+public final class ProfileCache
+{
+  private static final int MAX_PROFILES = 32;
+
+  private static int sharedCacheSize = Integer.getInteger( "sharedExpressionCacheSize", 0 ).intValue();
+
+  /**
+   * A parsed profile
+   */
+  static final class Profile
+  {
+    long profileModified;
+    long lookupsModified;
+
+    BExpressionTemplate expctxGlobal;
+    BExpressionTemplate expctxWay;
+    BExpressionTemplate expctxNode;
+    int profileCrc;
+  }
+
+  private static LinkedHashMap<String,Profile> profiles = new LinkedHashMap<String,Profile>( 16, 0.75f, true )
+  {
+    protected boolean removeEldestEntry( Map.Entry<String,Profile> eldest )
+    {
+      return size() > MAX_PROFILES;
+    }
+  };
+
+  private static long hits;
+  private static long misses;
+
+  /**
+   * @return the parsed profile, from the cache if still up to date
+   */
+  static Profile getProfile( File profileDir, File profileFile )
+  {
+    File lookupsFile = new File( profileDir, "lookups.dat" );
+    String key = profileFile.getAbsolutePath() + "|" + lookupsFile.getAbsolutePath();
+    long profileModified = profileFile.lastModified();
+    long lookupsModified = lookupsFile.lastModified();
+
+    synchronized( ProfileCache.class )
+    {
+      Profile p = profiles.get( key );
+      if ( p != null && p.profileModified == profileModified && p.lookupsModified == lookupsModified )
+      {
+        hits++;
+        return p;
+      }
+      misses++;
+    }
+
+    // parse outside the lock, a concurrent duplicate does no harm
+    Profile p = new Profile();
+    p.profileModified = profileModified;
+    p.lookupsModified = lookupsModified;
+
+    BExpressionContext expctxGlobal = new BExpressionContext( "global", 1 );
+    expctxGlobal.readMetaData( lookupsFile );
+    expctxGlobal.parseFile( profileFile, null );
+    p.expctxGlobal = expctxGlobal.createTemplate( 0 );
+
+    BExpressionContext expctxWay = new BExpressionContext( "way", 1 );
+    expctxWay.readMetaData( lookupsFile );
+    expctxWay.parseFile( profileFile, "global" );
+    p.expctxWay = expctxWay.createTemplate( sharedCacheSize );
+
+    BExpressionContext expctxNode = new BExpressionContext( "node", 1 );
+    expctxNode.readMetaData( lookupsFile );
+    expctxNode.parseFile( profileFile, "global" );
+    p.expctxNode = expctxNode.createTemplate( sharedCacheSize );
+
+    p.profileCrc = SidecarFile.calcProfileCrc( profileFile );
+
+    synchronized( ProfileCache.class )
+    {
+      profiles.put( key, p );
+    }
+    return p;
+  }
+
+  /**
+   * @return the counters as a single-line string for logging
+   */
+  public static synchronized String getStatistics()
+  {
+    return "profiles=" + profiles.size() + " hits=" + hits + " misses=" + misses;
+  }
+}
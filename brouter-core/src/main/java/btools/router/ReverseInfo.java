@@ -0,0 +1,56 @@
+/**
+ * Additional data for a path of the reverse search
+ * in bidirectional mode
+ *
+ * A reverse path on link u->v describes the remaining
+ * route from u to the target. The cost-items at its start
+ * (turn-cost at u and initial-cost of the first segment)
+ * depend on the predecessor link and are charged only
+ * when the predecessor is known, so the cost of a reverse
+ * path is a lower bound for its contribution.
+ *
+ * @author ab
+ */
+package btools.router;
+
+import btools.mapaccess.OsmNode;
+
+final class ReverseInfo
+{
+  // the reverse label for the remaining route after
+  // the link target (see LabelStore), 0 at the end
+  public int next;
+
+  // the position of the first point after the link origin
+  public int firstLon;
+  public int firstLat;
+
+  // way-context results for the first segment
+  public float firstCostfactor;
+  public float firstTurncost;
+  public int firstInitialcost;
+
+  /**
+   * Calculate the deferred cost for connecting a predecessor
+   * at the origin node of the reverse link
+   *
+   * @param lon0 the position before the connecting node
+   * @param lat0 the position before the connecting node
+   * @param n the connecting node (the origin of the reverse link)
+   * @param lastCostfactor the costfactor at the end of the predecessor
+   */
+  public int joinCost( int lon0, int lat0, OsmNode n, float lastCostfactor, RoutingContext rc )
+  {
+    // calcDistance sets up the latitude-correction for calcCosAngle
+    rc.calcDistance( n.ilon, n.ilat, firstLon, firstLat );
+    double cos = rc.calcCosAngle( lon0, lat0, n.ilon, n.ilat, firstLon, firstLat );
+    int cost = (int)(cos * firstTurncost + 0.2 );
+
+    float costdiff = firstCostfactor - lastCostfactor;
+    if ( costdiff > 0.0005 || costdiff < -0.0005 )
+    {
+      cost += firstInitialcost;
+    }
+    return cost;
+  }
+}
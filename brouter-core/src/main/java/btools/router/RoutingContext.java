@@ -47,6 +47,11 @@ public final class RoutingContext implements DistanceChecker
   public boolean carMode;
   public double pass1coefficient;
   public double pass2coefficient;
+  public boolean bidirectional;
+  public boolean useHierarchy;
+
+  // checksum of the profile file, to match contraction hierarchies
+  public int profileCrc;
   
   public void readGlobalConfig( BExpressionContext expctxGlobal )
   {
@@ -59,10 +64,15 @@ public final class RoutingContext implements DistanceChecker
     carMode = 0.f != expctxGlobal.getVariableValue( "validForCars" );
     pass1coefficient = expctxGlobal.getVariableValue( "pass1coefficient", 1.5f );
     pass2coefficient = expctxGlobal.getVariableValue( "pass2coefficient", 0.f );
+    bidirectional = 0.f != expctxGlobal.getVariableValue( "bidirectional", 0.f );
+    useHierarchy = 0.f != expctxGlobal.getVariableValue( "useHierarchy", 0.f );
   }
 
   public RoutingMessageHandler messageHandler = new RoutingMessageHandler();
 
+  // reused for the transfer-nodes of every link costed in this context
+  public TransferNodeCursor transferNodes = new TransferNodeCursor();
+
   public List<OsmNodeNamed> nogopoints = null;
   private List<OsmNodeNamed> keepnogopoints = null;
 
@@ -215,7 +225,7 @@ public final class RoutingContext implements DistanceChecker
   }
 
   @Override
-  public boolean isWithinRadius( int ilon0, int ilat0, OsmTransferNode firstTransfer, int ilon1, int ilat1 )
+  public boolean isWithinRadius( int ilon0, int ilat0, TransferNodeCursor transferNodes, int ilon1, int ilat1 )
   {
     OsmNodeNamed wp = nogopoints.get(0);
     double keepRadius = wp.radius;
@@ -223,11 +233,11 @@ public final class RoutingContext implements DistanceChecker
     {
       int ilon = ilon0;
       int ilat = ilat0;
-      for( OsmTransferNode trans = firstTransfer; trans != null; trans = trans.next )
+      while( transferNodes.next() )
       {
-        calcDistance( ilon, ilat, trans.ilon, trans.ilat );
-        ilon = trans.ilon;
-        ilat = trans.ilat;
+        calcDistance( ilon, ilat, transferNodes.ilon, transferNodes.ilat );
+        ilon = transferNodes.ilon;
+        ilat = transferNodes.ilat;
       }
       calcDistance( ilon, ilat, ilon1, ilat1 );
       return wp.radius < keepRadius;
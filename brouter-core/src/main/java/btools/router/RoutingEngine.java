@@ -2,20 +2,38 @@ package btools.router;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import btools.expressions.BExpressionContext;
+import btools.mapaccess.HierarchyCache;
+import btools.mapaccess.LandmarkCache;
+import btools.mapaccess.LinkCandidates;
 import btools.mapaccess.NodesCache;
 import btools.mapaccess.OsmLink;
-import btools.mapaccess.OsmLinkHolder;
 import btools.mapaccess.OsmNode;
 import btools.mapaccess.OsmNodesMap;
+import btools.mapaccess.OsmPos;
+import btools.mapaccess.TransferNodeCursor;
+import btools.util.CompactLongSet;
+import btools.util.HashLongMap;
+import btools.util.LongList;
 
 public class RoutingEngine extends Thread
 {
   private OsmNodesMap nodesMap;
   private NodesCache nodesCache;
-  private OpenSet openSet = new OpenSet();
+  private boolean matchingCache; // the nodes were decoded for waypoint-matching
+  // the labels of the current search, see LabelStore
+  private LabelStore labels = new LabelStore();
+  private OpenSet openSet = OpenSet.create( labels );
+  private OpenSet reverseOpenSet = null;
   private boolean finished = false;
 
   private List<OsmNodeNamed> waypoints = null;
@@ -39,12 +57,37 @@ public class RoutingEngine extends Thread
   private OsmTrack guideTrack;
 
   private OsmPathElement matchPath;
+
+  // the paths for evaluating the extensions of the labels: the origin
+  // loaded from the labels, and the candidates (see extendLabel)
+  private OsmPath originPath = new OsmPath();
+  private OsmPath candidatePath1 = new OsmPath();
+  private OsmPath candidatePath2 = new OsmPath();
+
+  // for the reverse search: the neutral origin, the deferred cost-items
+  // of a candidate and those of a stored label
+  private OsmLink reverseOriginLink = new OsmLink();
+  private OsmPath reverseOrigin = new OsmPath();
+  private ReverseInfo reverseInfo = new ReverseInfo();
+  private ReverseInfo joinInfo = new ReverseInfo();
+
+  // the links near a waypoint, kept for the next matching
+  private LinkCandidates linkCandidates;
+
+  // the memory accounting of this request, see checkMemory
+  private MemoryBudget memoryBudget = new MemoryBudget();
+  private boolean memoryExceeded;
   
   private long startTime;
   private long maxRunningTime;
   
   public boolean quite = false;
 
+  // the engines routing the legs in parallel mode
+  private volatile RoutingEngine[] legEngines;
+
+  private static ExecutorService legExecutor;
+
   public RoutingEngine( String outfileBase, String logfileBase, String segmentDir,
           List<OsmNodeNamed> waypoints, RoutingContext rc )
   {
@@ -57,33 +100,61 @@ public class RoutingEngine extends Thread
 
     if ( rc.localFunction != null )
     {
-      String profileBaseDir = System.getProperty( "profileBaseDir" );
-      File profileDir;
-      File profileFile;
-      if ( profileBaseDir == null )
-      {
-        profileDir = new File( rc.localFunction ).getParentFile();
-        profileFile = new File( rc.localFunction ) ;
-      }
-      else
-      {
-        profileDir = new File( profileBaseDir );
-        profileFile = new File( profileDir, rc.localFunction + ".brf" ) ;
-      }
-      BExpressionContext expctxGlobal = new BExpressionContext( "global" );
-      expctxGlobal.readMetaData( new File( profileDir, "lookups.dat" ) );
-      expctxGlobal.parseFile( profileFile, null );
-      expctxGlobal.evaluate( 1L, rc.messageHandler );
-      rc.readGlobalConfig(expctxGlobal);
+      parseProfile( rc );
+    }
+  }
 
-      rc.expctxWay = new BExpressionContext( "way", 4096 );
-      rc.expctxWay.readMetaData( new File( profileDir, "lookups.dat" ) );
-      rc.expctxWay.parseFile( profileFile, "global" );
+  /**
+   * Create an engine for routing a single leg in parallel mode. It has
+   * its own search state and expression contexts, but shares the
+   * open datafiles and the running time with the parent engine.
+   */
+  private RoutingEngine( RoutingEngine parent )
+  {
+    this.segmentDir = parent.segmentDir;
+    this.infoLogEnabled = parent.infoLogEnabled;
+    this.quite = parent.quite;
+    this.startTime = parent.startTime;
+    this.maxRunningTime = parent.maxRunningTime;
+    this.nodesCache = new NodesCache( parent.nodesCache );
+
+    RoutingContext prc = parent.routingContext;
+    RoutingContext rc = new RoutingContext();
+    rc.localFunction = prc.localFunction;
+    rc.alternativeIdx = prc.alternativeIdx;
+    rc.rawTrackPath = prc.rawTrackPath;
+    if ( prc.nogopoints != null )
+    {
+      rc.nogopoints = new ArrayList<OsmNodeNamed>( prc.nogopoints );
+    }
+    parseProfile( rc );
+    this.routingContext = rc;
+  }
 
-      rc.expctxNode = new BExpressionContext( "node", 1024 );
-      rc.expctxNode.readMetaData( new File( profileDir, "lookups.dat" ) );
-      rc.expctxNode.parseFile( profileFile, "global" );
+  private static void parseProfile( RoutingContext rc )
+  {
+    String profileBaseDir = System.getProperty( "profileBaseDir" );
+    File profileDir;
+    File profileFile;
+    if ( profileBaseDir == null )
+    {
+      profileDir = new File( rc.localFunction ).getParentFile();
+      profileFile = new File( rc.localFunction ) ;
+    }
+    else
+    {
+      profileDir = new File( profileBaseDir );
+      profileFile = new File( profileDir, rc.localFunction + ".brf" ) ;
     }
+    ProfileCache.Profile profile = ProfileCache.getProfile( profileDir, profileFile );
+
+    BExpressionContext expctxGlobal = new BExpressionContext( profile.expctxGlobal, 1 );
+    expctxGlobal.evaluate( 1L, rc.messageHandler );
+    rc.readGlobalConfig(expctxGlobal);
+    rc.profileCrc = profile.profileCrc;
+
+    rc.expctxWay = new BExpressionContext( profile.expctxWay, 4096 );
+    rc.expctxNode = new BExpressionContext( profile.expctxNode, 1024 );
   }
 
   private void logInfo( String s )
@@ -108,9 +179,22 @@ public class RoutingEngine extends Thread
       OsmTrack sum = null;
       OsmTrack track = null;
       ArrayList<String> messageList = new ArrayList<String>();
-      for( int i=0; !terminated; i++ )
+
+      // an alternative from a single search, if applicable
+      int firstIdx = 0;
+      OsmTrack alternative = null;
+      if ( outfileBase == null && routingContext.getAlternativeIdx() > 0 )
+      {
+        alternative = findAlternativeTrack( routingContext.getAlternativeIdx() );
+        if ( alternative != null )
+        {
+          firstIdx = routingContext.getAlternativeIdx();
+        }
+      }
+      for( int i=firstIdx; !terminated; i++ )
       {
-        track = findTrack( sum );
+        track = alternative != null ? alternative : findTrack( sum );
+        alternative = null;
         track.message = "track-length = " + track.distance + " filtered ascend = " + track.ascend
         + " plain-ascend = " +  track.plainAscend + " cost=" + track.cost;
         track.name = "brouter_" + routingContext.getProfileName() + "_" + i;
@@ -165,6 +249,8 @@ public class RoutingEngine extends Thread
       }
       long endTime = System.currentTimeMillis();
       logInfo( "execution time = " + (endTime-startTime)/1000. + " seconds" );
+      logInfo( "expression cache " + routingContext.expctxWay.getCacheStatistics() );
+      logInfo( "expression cache " + routingContext.expctxNode.getCacheStatistics() );
     }
     catch( Exception e)
     {
@@ -182,18 +268,91 @@ public class RoutingEngine extends Thread
     finally
     {
       openSet.clear();
+      if ( nodesCache != null )
+      {
+        nodesCache.cancelPrefetch();
+        nodesCache.releaseFiles();
+      }
+      memoryBudget.release();
       finished = true; // this signals termination to outside
     }
   }
 
   public String cleanOnOOM()
   {
-	  boolean oom_carsubset_hint = nodesCache == null ? false : nodesCache.oom_carsubset_hint;
+	  String hint = getCarsubsetHint();
       nodesMap = null;
+      if ( nodesCache != null )
+      {
+        nodesCache.releaseFiles();
+      }
       nodesCache = null;
+      labels.clear();
+      linkCandidates = null;
       terminate();
-      return oom_carsubset_hint ? "\nPlease use 'carsubset' maps for long-distance car-routing" : "";
+      return hint;
   }      
+
+  private String getCarsubsetHint()
+  {
+    boolean oom_carsubset_hint = nodesCache == null ? false : nodesCache.oom_carsubset_hint;
+    return oom_carsubset_hint ? "\nPlease use 'carsubset' maps for long-distance car-routing" : "";
+  }
+
+  /**
+   * Check the memory use of this request against its budget, every
+   * 1024 links. Over budget, the completed segments are dropped first.
+   * If that is not enough, the search is aborted with an error, which
+   * the exact pass of searchTrack handles by using the weighted pass,
+   * and findAlternativeTrack by re-routing. Not for the re-tracking,
+   * that is bounded by its guide-track.
+   */
+  private void checkMemory( String operationName )
+  {
+    if ( ( linksProcessed & 0x3ff ) != 0 || guideTrack != null )
+    {
+      return;
+    }
+    if ( memoryBudget.update( getMemoryUsage() ) )
+    {
+      return;
+    }
+    int evicted = nodesCache.evictCompletedSegments();
+    logInfo( "memory budget exceeded, evicted " + evicted + " segments" );
+    if ( evicted > 0 && memoryBudget.update( getMemoryUsage() ) )
+    {
+      return;
+    }
+    memoryExceeded = true;
+    throw new IllegalArgumentException( operationName + " exceeded the memory budget (" + ( memoryBudget.getBytes() >> 20 ) + " MB)" + getCarsubsetHint() );
+  }
+
+  // drop the search state and the cache after exceeding the memory budget
+  private void dropSearchMemory()
+  {
+    memoryExceeded = false;
+    synchronized( openSet )
+    {
+      openSet.clear();
+      if ( reverseOpenSet != null ) reverseOpenSet.clear();
+    }
+    resetCache();
+    matchingCache = false;
+  }
+
+  // the estimated memory use of this request
+  private long getMemoryUsage()
+  {
+    long bytes = nodesCache == null ? 0L : nodesCache.getSegmentBytes();
+    if ( nodesMap != null )
+    {
+      bytes += (long)nodesMap.size() * MemoryBudget.NODE_BYTES;
+    }
+    int openPaths = openSet.size() + ( reverseOpenSet == null ? 0 : reverseOpenSet.size() );
+    bytes += (long)openPaths * MemoryBudget.OPEN_SET_BYTES;
+    bytes += (long)labels.size() * MemoryBudget.LABEL_BYTES;
+    return bytes;
+  }
   
   
 
@@ -218,213 +377,1151 @@ public class RoutingEngine extends Thread
     {
       if ( wayointIds[i] == null )
       {
-        wayointIds[i] = matchNodeForPosition( waypoints.get(i) );
+        if ( i+1 < waypoints.size() )
+        {
+          // load the next waypoint's tiles while matching this one
+          prefetchPosition( waypoints.get(i+1) );
+        }
+        wayointIds[i] = matchWaypoint( waypoints.get(i) );
       }
     }
 
+    OsmTrack[] segs = null;
+    if ( waypoints.size() > 2 && routingContext.localFunction != null && getLegThreads() > 1 )
+    {
+      segs = searchTracksParallel( wayointIds, nearbyTrack, refTrack );
+    }
     for( int i=0; i<waypoints.size() -1; i++ )
     {
-      OsmTrack seg = searchTrack( wayointIds[i], wayointIds[i+1], i == waypoints.size()-2 ? nearbyTrack : null, refTrack );
+      OsmTrack seg = segs != null ? segs[i] : searchTrack( wayointIds[i], wayointIds[i+1], i == waypoints.size()-2 ? nearbyTrack : null, refTrack );
       if ( seg == null ) return null;
       totaltrack.appendTrack( seg );
     }
     return totaltrack;
   }
 
-  // geometric position matching finding the nearest routable way-section
-  private MatchedWaypoint matchNodeForPosition( OsmNodeNamed wp )
-  {
-     try
-     {
-         routingContext.setWaypoint( wp, false );
-         
-         int minRingWith = 1;
-         for(;;)
-         {
-           MatchedWaypoint mwp = _matchNodeForPosition( wp, minRingWith );
-           if ( mwp.node1 != null )
-           {
-             int mismatch = wp.calcDistance( mwp.crosspoint );
-             if ( mismatch < 50*minRingWith )
-             {
-               return mwp;
-             }
-           }
-           if ( minRingWith++ == 5 )
-           {
-             throw new IllegalArgumentException( wp.name + "-position not mapped" );
-           }
-         }
-     }
-     finally
-     {
-         routingContext.unsetWaypoint();
-     }
-  }
-
-  private MatchedWaypoint _matchNodeForPosition( OsmNodeNamed wp, int minRingWidth )
+  /**
+   * Find the alternative with the given index from a single bidirectional
+   * search, by the via-node method: each node reached by both searches
+   * within the stretch limit gives a via-path, joining its forward and
+   * its reverse path. Alternative i is the via-path with the least cost
+   * including the penalty of re-routing for the links of the
+   * alternatives 0..i-1 (see OsmPath). That is the criterion of re-routing,
+   * but limited to the via-paths.
+   *
+   * @return the track, or null if not applicable (no bidirectional search
+   *         in the profile, more than one leg, a raw-track path or elevation
+   *         costs), over the memory budget or if there are no via-paths,
+   *         then re-routing is used
+   */
+  private OsmTrack findAlternativeTrack( int idx )
   {
-    wp.radius = 1e9;
-    resetCache();
-    preloadPosition( wp, minRingWidth, 2000 );
-    nodesCache.distanceChecker = routingContext;
-    List<OsmNode> nodeList = nodesCache.getAllNodes();
-
-    MatchedWaypoint mwp = new MatchedWaypoint();
-    mwp.waypoint = wp;
+    if ( !routingContext.bidirectional || waypoints.size() != 2 || routingContext.rawTrackPath != null )
+    {
+      return null;
+    }
+    prefetchPosition( waypoints.get( 1 ) );
+    MatchedWaypoint startWp = matchWaypoint( waypoints.get( 0 ) );
+    MatchedWaypoint endWp = matchWaypoint( waypoints.get( 1 ) );
+    if ( !isPathIndependent( startWp, endWp ) )
+    {
+      return null;
+    }
 
-    // first loop just to expand reverse links
-    for( OsmNode n : nodeList )
+    airDistanceCostFactor = 0.;
+    viaCandidates = new HashLongMap<ViaCandidate>();
+    memoryExceeded = false;
+    OsmTrack track;
+    try
     {
-        if ( !nodesCache.obtainNonHollowNode( n ) )
+      try
+      {
+        track = findTrackBidirectional( "alternatives", startWp, endWp, null );
+      }
+      catch( IllegalArgumentException iae )
+      {
+        if ( !memoryExceeded )
         {
-          continue;
+          throw iae;
         }
-        expandHollowLinkTargets( n, false );
-        OsmLink startLink = new OsmLink();
-        startLink.targetNode = n;
-        OsmPath startPath = new OsmPath( startLink );
-        startLink.addLinkHolder( startPath );
-        for( OsmLink link = n.firstlink; link != null; link = link.next )
-        {
-          if ( link.counterLinkWritten ) continue; // reverse link not found
-          OsmNode nextNode = link.targetNode;
-          if ( nextNode.isHollow() ) continue; // border node?
-          if ( nextNode.firstlink == null ) continue; // don't care about dead ends
-          if ( nextNode == n ) continue; // ?
-          double oldRadius = wp.radius;
-          OsmPath testPath = new OsmPath( n, startPath, link, null, false, routingContext );
-          if ( wp.radius < oldRadius )
+        // over the memory budget: re-route instead, with less search state
+        logInfo( iae.getMessage() + ", re-routing" );
+        dropSearchMemory();
+        return null;
+      }
+      if ( track == null ) throw new IllegalArgumentException( "no track found" );
+      OsmTrack refTrack = new OsmTrack();
+      for( int i=1; i<=idx; i++ )
+      {
+        refTrack.addNodes( track );
+        ViaCandidate best = null;
+        long bestCost = Long.MAX_VALUE;
+        for( int slot=0; slot<viaCandidates.capacity(); slot++ )
+        {
+          ViaCandidate vc = viaCandidates.valueAt( slot );
+          if ( vc == null || vc.cost >= bestCost ) continue; // the penalty is not negative
+          long cost = vc.cost + getRefTrackPenalty( vc, refTrack );
+          if ( cost < bestCost )
           {
-           if ( testPath.cost < 0 )
-           {
-             wp.radius = oldRadius; // no valid way
-           }
-           else
-           {
-             mwp.node1 = n;
-             mwp.node2 = nextNode;
-             mwp.radius = wp.radius;
-             mwp.cost = testPath.cost;
-             mwp.crosspoint = new OsmNodeNamed();
-             mwp.crosspoint.ilon = routingContext.ilonshortest;
-             mwp.crosspoint.ilat = routingContext.ilatshortest;
-           }
+            best = vc;
+            bestCost = cost;
           }
         }
+        if ( best == null )
+        {
+          logInfo( "no via-path for alternative " + i + ", re-routing" );
+          return null;
+        }
+        logInfo( "alternative " + i + " at cost " + best.cost + " (" + bestCost + " with the reference track penalty)" );
+        track = compileTrack( buildViaElement( best.forward, best.reverse, best.cost ), best.cost );
+        track.cost = best.cost;
+      }
+    }
+    finally
+    {
+      viaCandidates = null;
+    }
+
+    // final run for verbose log info and detail nodes
+    guideTrack = track;
+    try
+    {
+      OsmTrack tt = findTrack( "re-tracking", startWp, endWp, null , null, false );
+      if ( tt == null ) throw new IllegalArgumentException( "error re-tracking track" );
+      OsmTrack totaltrack = new OsmTrack();
+      totaltrack.appendTrack( tt );
+      return totaltrack;
+    }
+    finally
+    {
+      guideTrack = null;
     }
-    return mwp;
   }
 
-  // expand hollow link targets and resolve reverse links
-  private void expandHollowLinkTargets( OsmNode n, boolean failOnReverseNotFound )
+  // the penalty of OsmPath for the links of a via-path with both nodes
+  // in the reference track, the link length as node-to-node distance
+  private long getRefTrackPenalty( ViaCandidate vc, OsmTrack refTrack )
   {
-    for( OsmLink link = n.firstlink; link != null; link = link.next )
+    long penalty = 0;
+    OsmNode v = labels.getLink( vc.forward ).targetNode;
+    boolean viaInRef = refTrack.containsNode( v );
+
+    OsmPos last = v;
+    boolean lastInRef = viaInRef;
+    for( OsmPathElement e = labels.getElement( labels.getOrigin( vc.forward ) ); e != null; e = e.origin )
     {
-      if ( ! nodesCache.obtainNonHollowNode( link.targetNode ) )
+      boolean inRef = refTrack.containsNode( e );
+      if ( inRef && lastInRef )
       {
-        continue;
+        penalty += e.calcDistance( last );
       }
+      last = e;
+      lastInRef = inRef;
+    }
 
-      if ( link.counterLinkWritten )
+    last = v;
+    lastInRef = viaInRef;
+    for( int rp = vc.reverse; rp != 0; rp = labels.getReverseNext( rp ) )
+    {
+      OsmNode n = labels.getLink( rp ).targetNode;
+      boolean inRef = refTrack.containsNode( n );
+      if ( inRef && lastInRef )
       {
-        OsmLink rlink = link.targetNode.getReverseLink( n.getILon(), n.getILat() );
-        if ( rlink == null )
-        {
-          if ( failOnReverseNotFound ) throw new RuntimeException( "reverse link not found!" );
-        }
-        else
-        {
-          link.descriptionBitmap = rlink.descriptionBitmap;
-          link.firsttransferBytes = rlink.firsttransferBytes;
-          link.counterLinkWritten = false;
-        }
+        penalty += n.calcDistance( last );
       }
+      last = n;
+      lastInRef = inRef;
     }
-    n.wasProcessed = true;
+    return penalty;
   }
 
-  private OsmTrack searchTrack( MatchedWaypoint startWp, MatchedWaypoint endWp, OsmTrack nearbyTrack, OsmTrack refTrack )
+  /**
+   * the number of threads for routing the legs of a
+   * multi-waypoint request in parallel (system property
+   * "legThreads", default = 1 = serial, opt-in because the
+   * legs compete for the memory and the segment cache)
+   */
+  private static int getLegThreads()
   {
-    OsmTrack track = null;
-    double[] airDistanceCostFactors = new double[]{ routingContext.pass1coefficient, routingContext.pass2coefficient };
-    boolean isDirty = false;
-    
-    if ( nearbyTrack != null )
+    String s = System.getProperty( "legThreads" );
+    return s == null ? 1 : Integer.parseInt( s );
+  }
+
+  private static synchronized ExecutorService getLegExecutor()
+  {
+    if ( legExecutor == null )
     {
-      airDistanceCostFactor = 0.;
-      try
+      legExecutor = Executors.newFixedThreadPool( getLegThreads(), new ThreadFactory()
       {
-        track = findTrack( "re-routing", startWp, endWp, nearbyTrack , refTrack, true );
-      }
-      catch( IllegalArgumentException iae )
+        public Thread newThread( Runnable r )
+        {
+          Thread t = new Thread( r, "brouter-leg" );
+          t.setDaemon( true );
+          return t;
+        }
+      } );
+    }
+    return legExecutor;
+  }
+
+  // route all legs concurrently, the result is the same as routing
+  // them one after another (every leg starts with a fresh cache anyway)
+  private OsmTrack[] searchTracksParallel( final MatchedWaypoint[] wps, final OsmTrack nearbyTrack, final OsmTrack refTrack )
+  {
+    int nlegs = wps.length - 1;
+    RoutingEngine[] legs = new RoutingEngine[nlegs];
+    List<Future<OsmTrack>> futures = new ArrayList<Future<OsmTrack>>( nlegs );
+    for( int i=0; i<nlegs; i++ )
+    {
+      legs[i] = new RoutingEngine( this );
+    }
+    legEngines = legs;
+    if ( terminated ) terminate();
+
+    ExecutorService executor = getLegExecutor();
+    for( int i=0; i<nlegs; i++ )
+    {
+      final RoutingEngine leg = legs[i];
+      final MatchedWaypoint startWp = wps[i];
+      final MatchedWaypoint endWp = wps[i+1];
+      final OsmTrack legNearbyTrack = i == nlegs-1 ? nearbyTrack : null;
+      futures.add( executor.submit( new Callable<OsmTrack>()
       {
-        // fast partial recalcs: if that timed out, but we had a match,
-        // build the concatenation from the partial and the nearby track
-        if ( matchPath != null )
+        public OsmTrack call()
         {
-          track = mergeTrack( matchPath, nearbyTrack );
-          isDirty = true;
+          try
+          {
+            return leg.searchTrack( startWp, endWp, legNearbyTrack, refTrack );
+          }
+          finally
+          {
+            if ( leg.nodesCache != null )
+            {
+              leg.nodesCache.cancelPrefetch();
+              leg.nodesCache.releaseFiles();
+            }
+            leg.memoryBudget.release();
+          }
         }
-    	maxRunningTime += System.currentTimeMillis() - startTime; // reset timeout...
-      }
+      } ) );
     }
 
-    if ( track == null )
+    try
     {
-      for( int cfi = 0; cfi < airDistanceCostFactors.length && !terminated; cfi++ )
+      OsmTrack[] tracks = new OsmTrack[nlegs];
+      for( int i=0; i<nlegs; i++ )
       {
-        airDistanceCostFactor = airDistanceCostFactors[cfi];
-        
-        if ( airDistanceCostFactor < 0. )
+        try
         {
-          continue;
+          tracks[i] = futures.get( i ).get();
         }
-      
-        OsmTrack t = findTrack( cfi == 0 ? "pass0" : "pass1", startWp, endWp, track , refTrack, false  );
-        if ( t == null && track != null && matchPath != null )
+        catch( ExecutionException e )
         {
-          // ups, didn't find it, use a merge
-          t = mergeTrack( matchPath, track );
+          // report the first failing leg, like the serial mode
+          Throwable cause = e.getCause();
+          if ( cause instanceof RuntimeException ) throw (RuntimeException)cause;
+          if ( cause instanceof Error ) throw (Error)cause;
+          throw new RuntimeException( cause );
         }
-        if ( t != null )
+        finally
         {
-          track = t;
+          linksProcessed += legs[i].linksProcessed;
         }
-        else
+        if ( legs[i].foundRawTrack != null )
         {
-          throw new IllegalArgumentException( "no track found at pass=" + cfi );
+          foundRawTrack = legs[i].foundRawTrack;
         }
       }
+      return tracks;
     }
-    if ( track == null ) throw new IllegalArgumentException( "no track found" );
-    
-    if ( refTrack == null && !isDirty )
+    catch( InterruptedException ie )
     {
-      track.endPoint = endWp;
-      foundRawTrack = track;
+      throw new IllegalArgumentException( "operation interrupted" );
+    }
+    finally
+    {
+      legEngines = null;
+      for( RoutingEngine leg : legs )
+      {
+        leg.terminate(); // in case of an error
+      }
     }
+  }
 
-    // final run for verbose log info and detail nodes
-    airDistanceCostFactor = 0.;
-    guideTrack = track;
+  /**
+   * Match the waypoints to their nearest routable way-sections, without
+   * routing. This is the snapping of the route requests, so it uses the
+   * same match-cache.
+   *
+   * @return the crosspoints in waypoint order, null for a waypoint not mapped
+   */
+  public List<OsmNodeNamed> snapWaypoints()
+  {
+    List<OsmNodeNamed> crosspoints = new ArrayList<OsmNodeNamed>( waypoints.size() );
     try
     {
-      OsmTrack tt = findTrack( "re-tracking", startWp, endWp, null , refTrack, false );
-      if ( tt == null ) throw new IllegalArgumentException( "error re-tracking track" );
-      return tt;
+      for( MatchedWaypoint mwp : matchPositions( waypoints ) )
+      {
+        if ( mwp != null )
+        {
+          mwp.crosspoint.name = mwp.waypoint.name;
+        }
+        crosspoints.add( mwp == null ? null : mwp.crosspoint );
+      }
     }
     finally
     {
-      guideTrack = null;
+      if ( nodesCache != null )
+      {
+        nodesCache.cancelPrefetch();
+        nodesCache.releaseFiles();
+      }
     }
+    return crosspoints;
   }
 
+  // match the given positions, null for a position not mapped
+  private MatchedWaypoint[] matchPositions( List<OsmNodeNamed> positions )
+  {
+    MatchedWaypoint[] mwps = new MatchedWaypoint[positions.size()];
+    for( int i=0; i<mwps.length; i++ )
+    {
+      if ( i+1 < mwps.length )
+      {
+        prefetchPosition( positions.get(i+1) );
+      }
+      try
+      {
+        mwps[i] = matchWaypoint( positions.get(i) );
+      }
+      catch( IllegalArgumentException iae )
+      {
+        // position not mapped
+      }
+    }
+    return mwps;
+  }
 
-  private void resetCache()
+  /**
+   * Calculate the costs and distances from each origin to each target.
+   * All positions are matched once, then one Dijkstra search per origin
+   * grows until all targets are settled, without compiling any tracks.
+   *
+   * @param maxRunningTime  the time limit in ms for all searches (0 = none)
+   */
+  public CostMatrix calcCostMatrix( List<OsmNodeNamed> origins, List<OsmNodeNamed> targets, long maxRunningTime )
+  {
+    startTime = System.currentTimeMillis();
+    this.maxRunningTime = maxRunningTime;
+    CostMatrix matrix = new CostMatrix( origins.size(), targets.size() );
+    try
+    {
+      MatchedWaypoint[] originWps = matchPositions( origins );
+      MatchedWaypoint[] targetWps = matchPositions( targets );
+
+      // the targets by the nodes of their way-section
+      HashLongMap<int[]> targetsByNode = new HashLongMap<int[]>( 2*targetWps.length );
+      for( int t=0; t<targetWps.length; t++ )
+      {
+        if ( targetWps[t] != null )
+        {
+          addTargetForNode( targetsByNode, targetWps[t].node1.getIdFromPos(), t );
+          addTargetForNode( targetsByNode, targetWps[t].node2.getIdFromPos(), t );
+        }
+      }
+
+      airDistanceCostFactor = 0.;
+      for( int i=0; i<originWps.length && !terminated; i++ )
+      {
+        if ( originWps[i] != null )
+        {
+          searchTargets( originWps[i], targetWps, targetsByNode, matrix, i );
+        }
+      }
+    }
+    finally
+    {
+      if ( nodesCache != null )
+      {
+        nodesCache.cancelPrefetch();
+        nodesCache.releaseFiles();
+      }
+      memoryBudget.release();
+    }
+    return matrix;
+  }
+
+  private static void addTargetForNode( HashLongMap<int[]> targetsByNode, long id, int t )
+  {
+    int[] old = targetsByNode.get( id );
+    int[] ts = old == null ? new int[1] : Arrays.copyOf( old, old.length+1 );
+    ts[ts.length-1] = t;
+    targetsByNode.put( id, ts );
+  }
+
+  // one-to-many Dijkstra search from an origin, until all targets are
+  // settled. A target is reached on its way-section, costed up to
+  // its crosspoint as the final link of a track
+  private void searchTargets( MatchedWaypoint startWp, MatchedWaypoint[] targetWps, HashLongMap<int[]> targetsByNode, CostMatrix matrix, int row )
+  {
+    int[] costs = new int[targetWps.length];
+    int[] distances = new int[targetWps.length];
+    boolean[] settled = new boolean[targetWps.length];
+    Arrays.fill( costs, Integer.MAX_VALUE );
+    int openTargets = 0;
+    for( int t=0; t<targetWps.length; t++ )
+    {
+      if ( targetWps[t] != null )
+      {
+        openTargets++;
+      }
+    }
+
+    resetSearch();
+    long startNodeId1 = startWp.node1.getIdFromPos();
+    long startNodeId2 = startWp.node2.getIdFromPos();
+    OsmNode start1 = getStartNode( startNodeId1 );
+    OsmNode start2 = getStartNode( startNodeId2 );
+    if ( start1 == null || start2 == null ) return;
+
+    int startPath1 = getStartPath( start1, start2, startWp.waypoint, startWp.crosspoint );
+    int startPath2 = getStartPath( start2, start1, startWp.waypoint, startWp.crosspoint );
+
+    // targets on the start way-section, ahead of the start in one direction
+    int minOpenCost = Integer.MAX_VALUE;
+    for( int t=0; t<targetWps.length; t++ )
+    {
+      MatchedWaypoint endWp = targetWps[t];
+      if ( endWp == null || !isSameLink( endWp, start1, start2 ) ) continue;
+      if ( endWp.crosspoint.ilon == startWp.crosspoint.ilon && endWp.crosspoint.ilat == startWp.crosspoint.ilat )
+      {
+        costs[t] = 0; // the start itself, the formula below has rounding errors
+        distances[t] = 0;
+        minOpenCost = 0;
+        continue;
+      }
+      for( int k=0; k<2; k++ )
+      {
+        int p = k == 0 ? startPath1 : startPath2;
+        OsmNode n1 = k == 0 ? start1 : start2;
+        OsmPath pe = getEndPath( n1, labels.getLink( p ), endWp.crosspoint, endWp.crosspoint );
+        OsmPath pt = getEndPath( n1, labels.getLink( p ), null, endWp.crosspoint );
+        int costdelta = pt.cost - labels.getCost( p );
+        if ( labels.getCost( p ) >= 0 && pe.cost >= costdelta && pe.cost - costdelta < costs[t] )
+        {
+          costs[t] = pe.cost - costdelta;
+          distances[t] = pe.distance - ( pt.distance - labels.getDistance( p ) );
+          minOpenCost = Math.min( minOpenCost, costs[t] );
+        }
+      }
+    }
+
+    synchronized( openSet )
+    {
+      openSet.clear();
+      if ( labels.getCost( startPath1 ) >= 0 ) openSet.add( startPath1 );
+      if ( labels.getCost( startPath2 ) >= 0 ) openSet.add( startPath2 );
+    }
+    while( !terminated && openTargets > 0 )
+    {
+      if ( maxRunningTime > 0 && System.currentTimeMillis() - startTime > maxRunningTime )
+      {
+        throw new IllegalArgumentException( "matrix timeout after " + (maxRunningTime/1000) + " seconds" );
+      }
+      int path;
+      synchronized( openSet )
+      {
+        if ( openSet.size() == 0 ) break;
+        path = openSet.first();
+        openSet.remove( path );
+      }
+      int pathCost = labels.getCost( path );
+
+      // settle the targets that cannot get any cheaper
+      if ( pathCost >= minOpenCost )
+      {
+        minOpenCost = Integer.MAX_VALUE;
+        for( int t=0; t<targetWps.length; t++ )
+        {
+          if ( settled[t] || costs[t] == Integer.MAX_VALUE ) continue;
+          if ( costs[t] <= pathCost )
+          {
+            settled[t] = true;
+            openTargets--;
+          }
+          else
+          {
+            minOpenCost = Math.min( minOpenCost, costs[t] );
+          }
+        }
+        if ( openTargets == 0 ) break;
+      }
+
+      linksProcessed++;
+      checkMemory( "matrix" );
+
+      OsmLink currentLink = labels.getLink( path );
+      OsmNode currentNode = currentLink.targetNode;
+      OsmNode sourceNode = labels.getSourceNode( path );
+
+      if ( !currentNode.wasProcessed )
+      {
+        expandHollowLinkTargets( currentNode, true );
+      }
+
+      if ( sourceNode != null )
+      {
+        nodesMap.unlinkLink( sourceNode, currentLink );
+      }
+
+      int[] nodeTargets = targetsByNode.get( currentNode.getIdFromPos() );
+      OsmLink counterLink = null;
+      for( OsmLink link = currentNode.firstlink; link != null; link = link.next )
+      {
+        OsmNode nextNode = link.targetNode;
+
+        if ( nextNode.isHollow() )
+        {
+          continue; // border node?
+        }
+        if ( nextNode.firstlink == null )
+        {
+          continue; // don't care about dead ends
+        }
+        if ( nextNode == sourceNode )
+        {
+          counterLink = link;
+          continue; // border node?
+        }
+
+        if ( nodeTargets != null )
+        {
+          for( int t : nodeTargets )
+          {
+            if ( settled[t] || !isSameLink( targetWps[t], currentNode, nextNode ) ) continue;
+            OsmPath endPath = extendPath( currentNode, currentLink, link, targetWps[t].crosspoint );
+            if ( endPath == null ) continue;
+            if ( endPath.cost < costs[t] )
+            {
+              costs[t] = endPath.cost;
+              distances[t] = endPath.distance;
+              minOpenCost = Math.min( minOpenCost, costs[t] );
+            }
+          }
+        }
+
+        OsmPath bestPath = extendPath( currentNode, currentLink, link, null );
+        if ( bestPath != null )
+        {
+          bestPath.setAirDistanceCostAdjustment( 0 );
+
+          // add only if this may beat an existing path for that link
+          if ( !isDominated( bestPath, link, false ) )
+          {
+            bestPath.treedepth = labels.getTreedepth( path ) + 1;
+            int label = labels.add( bestPath );
+            labels.addLinkHolder( link, label );
+            synchronized( openSet )
+            {
+              openSet.add( label );
+            }
+          }
+        }
+      }
+
+      // the other paths on the current link were extended as well
+      removeOtherHolders( currentLink, path, false );
+
+      // if the counterlink does not yet have a path, remove it
+      if ( counterLink != null && counterLink.firstlinkholder == 0 )
+      {
+        nodesMap.unlinkLink( currentNode, counterLink );
+      }
+    }
+
+    for( int t=0; t<targetWps.length; t++ )
+    {
+      if ( costs[t] != Integer.MAX_VALUE )
+      {
+        matrix.set( row, t, costs[t], distances[t] );
+      }
+    }
+  }
+
+  // evaluate the extension of a label by the given link, on the candidate
+  // path that is not the given one (the best so far), so the result is
+  // valid until the next but one evaluation
+  private OsmPath extendLabel( OsmNode sourceNode, int origin, OsmLink link, OsmTrack refTrack, boolean recordTransferNodes, OsmPath bestPath )
+  {
+    labels.load( origin, originPath );
+    OsmPath p = bestPath == candidatePath1 ? candidatePath2 : candidatePath1;
+    p.init( sourceNode, originPath, link, refTrack, recordTransferNodes, routingContext );
+    return p;
+  }
+
+  // the cheapest extension by the given link of the labels on the
+  // current link, up to the given endpoint if not null
+  private OsmPath extendPath( OsmNode currentNode, OsmLink currentLink, OsmLink link, OsmNodeNamed endPos )
+  {
+    OsmPath bestPath = null;
+    for( int otherPath = currentLink.firstlinkholder; otherPath != 0; otherPath = labels.getNextForLink( otherPath ) )
+    {
+      try
+      {
+        if ( endPos != null )
+        {
+          endPos.radius = 1e-5;
+          routingContext.setWaypoint( endPos, true );
+        }
+        OsmPath testPath = extendLabel( currentNode, otherPath, link, null, false, bestPath );
+        if ( testPath.cost >= 0 && ( bestPath == null || testPath.cost < bestPath.cost ) )
+        {
+          bestPath = testPath;
+        }
+      }
+      finally
+      {
+        if ( endPos != null )
+        {
+          routingContext.unsetWaypoint();
+        }
+      }
+    }
+    return bestPath;
+  }
+
+  /**
+   * Calculate the area reachable from a position within the given cost.
+   * A single Dijkstra search without a target, pruned at the cost limit,
+   * grows until nothing within the limit is left, without compiling
+   * any tracks.
+   *
+   * @param maxCost  the cost limit (in the cost units of the profile)
+   * @param maxRunningTime  the time limit in ms for the search (0 = none)
+   */
+  public Isochrone calcIsochrone( OsmNodeNamed origin, int maxCost, long maxRunningTime )
+  {
+    startTime = System.currentTimeMillis();
+    this.maxRunningTime = maxRunningTime;
+    try
+    {
+      MatchedWaypoint startWp = matchWaypoint( origin );
+      Isochrone isochrone = new Isochrone( startWp.crosspoint.ilon, startWp.crosspoint.ilat, maxCost );
+      airDistanceCostFactor = 0.;
+      searchIsochrone( startWp, isochrone );
+      return isochrone;
+    }
+    finally
+    {
+      if ( nodesCache != null )
+      {
+        nodesCache.cancelPrefetch();
+        nodesCache.releaseFiles();
+      }
+      memoryBudget.release();
+    }
+  }
+
+  // Dijkstra search from an origin up to the cost limit, collecting the
+  // reached nodes and the crossings of the limit. Crossings on links
+  // into a reached node are no boundary points, that link is reached
+  // from its other end
+  private void searchIsochrone( MatchedWaypoint startWp, Isochrone isochrone )
+  {
+    int maxCost = isochrone.getMaxCost();
+    CompactLongSet reached = new CompactLongSet();
+    LongList crossingTargets = new LongList( 256 );
+    LongList crossingPositions = new LongList( 256 );
+    TransferNodeCursor geometry = new TransferNodeCursor();
+
+    resetSearch();
+    OsmNode start1 = getStartNode( startWp.node1.getIdFromPos() );
+    OsmNode start2 = getStartNode( startWp.node2.getIdFromPos() );
+    if ( start1 == null || start2 == null ) return;
+
+    int startPath1 = getStartPath( start1, start2, startWp.waypoint, startWp.crosspoint );
+    int startPath2 = getStartPath( start2, start1, startWp.waypoint, startWp.crosspoint );
+
+    synchronized( openSet )
+    {
+      openSet.clear();
+      for( int k=0; k<2; k++ )
+      {
+        int p = k == 0 ? startPath1 : startPath2;
+        int cost = labels.getCost( p );
+        if ( cost < 0 ) continue;
+        if ( cost <= maxCost )
+        {
+          openSet.add( p );
+          continue;
+        }
+        // the limit is crossed on the start way-section
+        OsmNode n = labels.getLink( p ).targetNode;
+        crossingTargets.add( n.getIdFromPos() );
+        crossingPositions.add( interpolate( startWp.crosspoint.ilon, startWp.crosspoint.ilat, null, n, maxCost / (double)cost, geometry ) );
+      }
+    }
+
+    while( !terminated )
+    {
+      if ( maxRunningTime > 0 && System.currentTimeMillis() - startTime > maxRunningTime )
+      {
+        throw new IllegalArgumentException( "isochrone timeout after " + (maxRunningTime/1000) + " seconds" );
+      }
+      int path;
+      synchronized( openSet )
+      {
+        if ( openSet.size() == 0 ) break;
+        path = openSet.first();
+        openSet.remove( path );
+      }
+      int pathCost = labels.getCost( path );
+
+      linksProcessed++;
+      checkMemory( "isochrone" );
+
+      OsmLink currentLink = labels.getLink( path );
+      OsmNode currentNode = currentLink.targetNode;
+      OsmNode sourceNode = labels.getSourceNode( path );
+
+      if ( !currentNode.wasProcessed )
+      {
+        expandHollowLinkTargets( currentNode, true );
+      }
+
+      if ( sourceNode != null )
+      {
+        nodesMap.unlinkLink( sourceNode, currentLink );
+      }
+
+      // the first path to reach a node is the cheapest one
+      boolean firstVisit = !reached.add( currentNode.getIdFromPos() );
+      if ( firstVisit )
+      {
+        isochrone.addNode( currentNode.ilon, currentNode.ilat, pathCost );
+      }
+
+      OsmLink counterLink = null;
+      for( OsmLink link = currentNode.firstlink; link != null; link = link.next )
+      {
+        OsmNode nextNode = link.targetNode;
+
+        if ( nextNode.isHollow() )
+        {
+          continue; // border node?
+        }
+        if ( nextNode.firstlink == null )
+        {
+          continue; // don't care about dead ends
+        }
+        if ( nextNode == sourceNode )
+        {
+          counterLink = link;
+          continue; // border node?
+        }
+
+        OsmPath bestPath = extendPath( currentNode, currentLink, link, null );
+        if ( bestPath == null )
+        {
+          continue;
+        }
+        if ( bestPath.cost > maxCost )
+        {
+          if ( firstVisit )
+          {
+            double fraction = ( maxCost - pathCost ) / (double)( bestPath.cost - pathCost );
+            crossingTargets.add( nextNode.getIdFromPos() );
+            crossingPositions.add( interpolate( currentNode.ilon, currentNode.ilat, link, nextNode, fraction, geometry ) );
+          }
+          continue;
+        }
+        bestPath.setAirDistanceCostAdjustment( 0 );
+
+        // add only if this may beat an existing path for that link
+        if ( !isDominated( bestPath, link, false ) )
+        {
+          bestPath.treedepth = labels.getTreedepth( path ) + 1;
+          int label = labels.add( bestPath );
+          labels.addLinkHolder( link, label );
+          synchronized( openSet )
+          {
+            openSet.add( label );
+          }
+        }
+      }
+
+      // the other paths on the current link were extended as well
+      removeOtherHolders( currentLink, path, false );
+
+      // if the counterlink does not yet have a path, remove it
+      if ( counterLink != null && counterLink.firstlinkholder == 0 )
+      {
+        nodesMap.unlinkLink( currentNode, counterLink );
+      }
+    }
+
+    for( int i=0; i<crossingTargets.size(); i++ )
+    {
+      if ( !reached.contains( crossingTargets.get( i ) ) )
+      {
+        long pos = crossingPositions.get( i );
+        isochrone.addBoundaryPoint( (int)( pos >> 32 ), (int)( pos & 0xffffffff ) );
+      }
+    }
+  }
+
+  // the position (as id) at the given fraction of the length of a link,
+  // following its transfer-nodes if the link is given
+  private static long interpolate( int lon1, int lat1, OsmLink link, OsmNode target, double fraction, TransferNodeCursor geometry )
+  {
+    double l = (lat1-90000000) * 0.00000001234134;
+    double l2 = l*l;
+    double l4 = l2*l2;
+    double coslat = 1.- l2 + l4 / 6.;
+
+    fraction = Math.max( 0., Math.min( 1., fraction ) );
+    double remaining = 0.;
+    for( int pass=0; pass<2; pass++ )
+    {
+      if ( link != null )
+      {
+        geometry.init( link );
+      }
+      int lon = lon1;
+      int lat = lat1;
+      for(;;)
+      {
+        boolean isTransfer = link != null && geometry.next();
+        int lon2 = isTransfer ? geometry.ilon : target.ilon;
+        int lat2 = isTransfer ? geometry.ilat : target.ilat;
+        double dx = ( lon2 - lon ) * coslat;
+        double dy = lat2 - lat;
+        double d = Math.sqrt( dx*dx + dy*dy );
+        if ( pass == 0 )
+        {
+          remaining += d; // total length
+        }
+        else if ( d >= remaining || !isTransfer )
+        {
+          double f = d > 0. ? Math.min( 1., remaining / d ) : 0.;
+          long ilon = lon + (int)( ( lon2 - lon ) * f + 0.5 );
+          long ilat = lat + (int)( ( lat2 - lat ) * f + 0.5 );
+          return ilon << 32 | ilat;
+        }
+        else
+        {
+          remaining -= d;
+        }
+        if ( !isTransfer ) break;
+        lon = lon2;
+        lat = lat2;
+      }
+      remaining *= fraction;
+    }
+    return ( (long)target.ilon ) << 32 | target.ilat;
+  }
+
+  // match a waypoint, through the match-cache if enabled
+  private MatchedWaypoint matchWaypoint( OsmNodeNamed wp )
+  {
+    if ( !WaypointMatchCache.isEnabled() )
+    {
+      return matchNodeForPosition( wp );
+    }
+    String key = WaypointMatchCache.keyFor( segmentDir, routingContext, wp );
+    MatchedWaypoint mwp = WaypointMatchCache.get( key, wp );
+    if ( mwp == null )
+    {
+      mwp = matchNodeForPosition( wp );
+      WaypointMatchCache.put( key, mwp );
+    }
+    return mwp;
+  }
+
+  // geometric position matching finding the nearest routable way-section.
+  // The links come from the spatial index of the segments, ordered by the
+  // distance of their bounding box, so only the links that can be closer
+  // than the best match so far are costed. The rings of segments searched
+  // are those of at least minRingWith (and more, up to 5, until 2000 nodes
+  // are found), and on equal distance the first link in segment/node/link
+  // order wins, as when testing all nodes of the rings
+  private MatchedWaypoint matchNodeForPosition( OsmNodeNamed wp )
+  {
+     try
+     {
+         routingContext.setWaypoint( wp, false );
+         resetCache();
+         matchingCache = true;
+
+         MatchedWaypoint mwp = new MatchedWaypoint();
+         mwp.waypoint = wp;
+         mwp.radius = 1e9;
+         long bestOrder = Long.MAX_VALUE;
+         if ( linkCandidates == null )
+         {
+           linkCandidates = new LinkCandidates();
+         }
+         LinkCandidates candidates = linkCandidates;
+         OsmLink startLink = new OsmLink();
+         int nodeCount = 0;
+         int ring = 0;
+
+         int minRingWith = 1;
+         for(;;)
+         {
+           candidates.clear();
+           while( ring <= minRingWith || ( nodeCount < 2000 && ring <= 5 ) )
+           {
+             if ( ring < 5 )
+             {
+               preloadRing( wp, ring+1, true, null, 0. ); // possibly needed next
+             }
+             nodeCount += preloadRing( wp, ring++, false, candidates, mwp.radius / 0.99 );
+           }
+           candidates.sortByDistance();
+
+           for( int i=0; i<candidates.size(); i++ )
+           {
+             if ( candidates.getDistance( i ) * 0.99 > mwp.radius )
+             {
+               break; // the box distance is a lower bound, no closer links left
+             }
+             OsmNode n = getNodeForMatching( candidates.getNodeId( i ) );
+             if ( n == null )
+             {
+               continue;
+             }
+             OsmLink link = n.firstlink;
+             for( int k = candidates.getLinkPosition( i ); k > 0 && link != null; k-- )
+             {
+               link = link.next;
+             }
+             if ( link == null || link.counterLinkWritten ) continue; // reverse link not found
+             OsmNode nextNode = link.targetNode;
+             if ( nextNode.isHollow() ) continue; // border node?
+             if ( nextNode.firstlink == null ) continue; // don't care about dead ends
+             if ( nextNode == n ) continue; // ?
+
+             startLink.targetNode = n;
+             originPath.initStart( startLink );
+             wp.radius = 1e9;
+             candidatePath1.init( n, originPath, link, null, false, routingContext );
+             int cost = candidatePath1.cost; // just for the radius and the cost
+             long order = candidates.getOrderKey( i );
+             if ( cost < 0 || wp.radius > mwp.radius || ( wp.radius == mwp.radius && ( mwp.node1 == null || order > bestOrder ) ) )
+             {
+               continue; // no valid way, or not closer
+             }
+             bestOrder = order;
+             mwp.node1 = n;
+             mwp.node2 = nextNode;
+             mwp.radius = wp.radius;
+             mwp.cost = cost;
+             mwp.crosspoint = new OsmNodeNamed();
+             mwp.crosspoint.ilon = routingContext.ilonshortest;
+             mwp.crosspoint.ilat = routingContext.ilatshortest;
+           }
+           wp.radius = mwp.radius;
+
+           if ( mwp.node1 != null )
+           {
+             int mismatch = wp.calcDistance( mwp.crosspoint );
+             if ( mismatch < 50*minRingWith )
+             {
+               return mwp;
+             }
+           }
+           if ( minRingWith++ == 5 )
+           {
+             throw new IllegalArgumentException( wp.name + "-position not mapped" );
+           }
+         }
+     }
+     finally
+     {
+         routingContext.unsetWaypoint();
+     }
+  }
+
+  // get a node for matching, with its links and their targets expanded
+  private OsmNode getNodeForMatching( long id )
+  {
+    OsmNode n = nodesMap.get( id );
+    if ( n == null )
+    {
+      n = new OsmNode( id );
+      n.setHollow();
+      nodesMap.put( id, n );
+    }
+    if ( !nodesCache.obtainNonHollowNode( n ) )
+    {
+      return null;
+    }
+    if ( !n.wasProcessed )
+    {
+      expandHollowLinkTargets( n, false );
+    }
+    return n;
+  }
+
+  // expand hollow link targets, resolve the links written without
+  // details and find the links in counter-direction, for the reverse search
+  private void expandHollowLinkTargets( OsmNode n, boolean failOnReverseNotFound )
+  {
+    for( OsmLink link = n.firstlink; link != null; link = link.next )
+    {
+      if ( ! nodesCache.obtainNonHollowNode( link.targetNode ) )
+      {
+        continue;
+      }
+
+      link.counterLink = getLink( link.targetNode, n );
+
+      if ( link.counterLinkWritten )
+      {
+        if ( !n.resolveLink( link ) && failOnReverseNotFound )
+        {
+          throw new RuntimeException( "reverse link not found!" );
+        }
+      }
+    }
+    n.wasProcessed = true;
+  }
+
+  private OsmTrack searchTrack( MatchedWaypoint startWp, MatchedWaypoint endWp, OsmTrack nearbyTrack, OsmTrack refTrack )
+  {
+    OsmTrack track = null;
+    double[] airDistanceCostFactors = new double[]{ routingContext.pass1coefficient, routingContext.pass2coefficient };
+    boolean isDirty = false;
+    
+    if ( nearbyTrack != null )
+    {
+      airDistanceCostFactor = 0.;
+      try
+      {
+        track = findTrack( "re-routing", startWp, endWp, nearbyTrack , refTrack, true );
+      }
+      catch( IllegalArgumentException iae )
+      {
+        // fast partial recalcs: if that timed out, but we had a match,
+        // build the concatenation from the partial and the nearby track
+        if ( matchPath != null )
+        {
+          track = mergeTrack( matchPath, nearbyTrack );
+          isDirty = true;
+        }
+    	maxRunningTime += System.currentTimeMillis() - startTime; // reset timeout...
+      }
+    }
+
+    // the hierarchy is opt-in per profile. It has no reference-track penalty
+    // and does not know the nogos, so not for alternatives or with nogo-points
+    if ( track == null && refTrack == null && routingContext.useHierarchy && !hasNogos() && isPathIndependent( startWp, endWp ) )
+    {
+      track = findTrackHierarchy( startWp, endWp );
+    }
+
+    if ( track == null )
+    {
+      for( int cfi = 0; cfi < airDistanceCostFactors.length && !terminated; cfi++ )
+      {
+        airDistanceCostFactor = airDistanceCostFactors[cfi];
+        
+        if ( airDistanceCostFactor < 0. )
+        {
+          continue;
+        }
+      
+        String operationName = cfi == 0 ? "pass0" : "pass1";
+        OsmTrack t;
+        memoryExceeded = false;
+        try
+        {
+          if ( isBidirectionalApplicable( startWp, endWp ) )
+          {
+            t = findTrackBidirectional( operationName, startWp, endWp, refTrack );
+          }
+          else
+          {
+            t = findTrack( operationName, startWp, endWp, track , refTrack, false  );
+          }
+        }
+        catch( IllegalArgumentException iae )
+        {
+          if ( !memoryExceeded || track == null )
+          {
+            throw iae;
+          }
+          // over the memory budget in the exact pass: use the track
+          // of the weighted pass, on a fresh cache for the re-tracking
+          logInfo( iae.getMessage() + ", using the track of pass0" );
+          dropSearchMemory();
+          isDirty = true;
+          break;
+        }
+        if ( t == null && track != null && matchPath != null )
+        {
+          // ups, didn't find it, use a merge
+          t = mergeTrack( matchPath, track );
+        }
+        if ( t != null )
+        {
+          track = t;
+        }
+        else
+        {
+          throw new IllegalArgumentException( "no track found at pass=" + cfi );
+        }
+      }
+    }
+    if ( track == null ) throw new IllegalArgumentException( "no track found" );
+    
+    if ( refTrack == null && !isDirty )
+    {
+      track.endPoint = endWp;
+      foundRawTrack = track;
+    }
+
+    // final run for verbose log info and detail nodes
+    airDistanceCostFactor = 0.;
+    guideTrack = track;
+    try
+    {
+      OsmTrack tt = findTrack( "re-tracking", startWp, endWp, null , refTrack, false );
+      if ( tt == null ) throw new IllegalArgumentException( "error re-tracking track" );
+      return tt;
+    }
+    finally
+    {
+      guideTrack = null;
+    }
+  }
+
+
+  private void resetCache()
+  {
+    if ( nodesCache != null )
+    {
+      nodesCache.releaseFiles();
+    }
+    nodesMap = new OsmNodesMap();
+    nodesCache = new NodesCache(segmentDir, nodesMap, routingContext.expctxWay.lookupVersion, routingContext.carMode, nodesCache );
+  }
+
+  // start a new search on the nodes decoded by the previous one. Not after
+  // waypoint-matching, because the matching skips the reverse-link check
+  private void resetSearch()
   {
-    nodesMap = new OsmNodesMap();
-    nodesCache = new NodesCache(segmentDir, nodesMap, routingContext.expctxWay.lookupVersion, routingContext.carMode, nodesCache );
+    labels.clear();
+    if ( nodesMap != null && !matchingCache )
+    {
+      nodesMap.clearSearchState();
+    }
+    else
+    {
+      resetCache();
+      matchingCache = false;
+    }
   }
 
   private OsmNode getStartNode( long startId )
@@ -445,16 +1542,20 @@ public class RoutingEngine extends Thread
     return start;
   }
 
-  private OsmPath getStartPath( OsmNode n1, OsmNode n2, MatchedWaypoint mwp, MatchedWaypoint endWp, boolean sameSegmentSearch )
+  private int getStartPath( OsmNode n1, OsmNode n2, MatchedWaypoint mwp, MatchedWaypoint endWp, boolean sameSegmentSearch )
   {
-    OsmPath p = getStartPath( n1, n2, mwp.waypoint, endWp.crosspoint );
+    int p = getStartPath( n1, n2, mwp.waypoint, endWp.crosspoint );
     
     // special case: start+end on same segment
     if ( sameSegmentSearch )
     {
-      OsmPath pe = getEndPath( n1, p.getLink(), endWp.crosspoint, endWp.crosspoint );
-      OsmPath pt = getEndPath( n1, p.getLink(), null, endWp.crosspoint );
-      int costdelta = pt.cost - p.cost;
+      OsmPath pe = getEndPath( n1, labels.getLink( p ), endWp.crosspoint, endWp.crosspoint );
+      OsmPath pt = getEndPath( n1, labels.getLink( p ), null, endWp.crosspoint );
+      int costdelta = pt.cost - labels.getCost( p );
+      if ( endWp.crosspoint.ilon == mwp.crosspoint.ilon && endWp.crosspoint.ilat == mwp.crosspoint.ilat )
+      {
+        costdelta = pe.cost; // the start itself, as in searchTargets
+      }
       if ( pe.cost >= costdelta )
       {
     	pe.cost -= costdelta;
@@ -463,8 +1564,8 @@ public class RoutingEngine extends Thread
     	if ( guideTrack != null )
     	{
     	  // nasty stuff: combine the path cause "new OsmPath()" cannot handle start+endpoint
-    	  OsmPathElement startElement = p.originElement;
-          while( startElement.origin != null )
+    	  OsmPathElement startElement = labels.getElement( p ).origin;
+          while( startElement != null && startElement.origin != null )
           {
             startElement = startElement.origin;
           }
@@ -483,7 +1584,7 @@ public class RoutingEngine extends Thread
     	    pe.originElement = startElement;
     	  }
     	}
-        return pe;
+        return addLabel( pe );
       }
     }
     return p;
@@ -491,7 +1592,9 @@ public class RoutingEngine extends Thread
 
     
     
-  private OsmPath getStartPath( OsmNode n1, OsmNode n2, OsmNodeNamed wp, OsmNode endPos )
+  // the label for the partial start link (from the position to n2),
+  // a link-holder on that link
+  private int getStartPath( OsmNode n1, OsmNode n2, OsmNodeNamed wp, OsmNode endPos )
   {
     try
     {
@@ -501,7 +1604,7 @@ public class RoutingEngine extends Thread
       OsmLink startLink = new OsmLink();
       startLink.targetNode = n1;
       OsmPath startPath = new OsmPath( startLink );
-      startLink.addLinkHolder( startPath );
+      addLabel( startPath );
       double minradius = 1e10;
       for( OsmLink link = n1.firstlink; link != null; link = link.next )
       {
@@ -521,13 +1624,13 @@ public class RoutingEngine extends Thread
            bestLink = link;
          }
       }
+      bestPath.treedepth = 1;
+      int label = addLabel( bestPath );
       if ( bestLink != null )
       {
-        bestLink.addLinkHolder( bestPath );
+        labels.addLinkHolder( bestLink, label );
       }
-      bestPath.treedepth = 1;
-
-      return bestPath;
+      return label;
     }
     finally
     {
@@ -535,6 +1638,8 @@ public class RoutingEngine extends Thread
     }
   }
 
+  // the path for the partial end link (from n1 to the position), not
+  // stored, but its start is, so it can be stored as a label
   private OsmPath getEndPath( OsmNode n1, OsmLink link, OsmNodeNamed wp, OsmNode endPos )
   {
     try
@@ -543,7 +1648,7 @@ public class RoutingEngine extends Thread
       OsmLink startLink = new OsmLink();
       startLink.targetNode = n1;
       OsmPath startPath = new OsmPath( startLink );
-      startLink.addLinkHolder( startPath );
+      addLabel( startPath );
 
       if ( wp != null ) wp.radius = 1e-5;
      
@@ -558,6 +1663,17 @@ public class RoutingEngine extends Thread
     }
   }
 
+  // store a path as a label, with its element if recording the transfer-nodes
+  private int addLabel( OsmPath path )
+  {
+    int label = labels.add( path );
+    if ( guideTrack != null )
+    {
+      labels.setElement( label, path.getElement() );
+    }
+    return label;
+  }
+
   private OsmTrack findTrack( String operationName, MatchedWaypoint startWp, MatchedWaypoint endWp, OsmTrack costCuttingTrack, OsmTrack refTrack, boolean reducedTimeoutWhenUnmatched )
   {
     boolean verbose = guideTrack != null;
@@ -569,7 +1685,7 @@ public class RoutingEngine extends Thread
     matchPath = null;
     int nodesVisited = 0;
 
-    resetCache();
+    resetSearch();
     long endNodeId1 = endWp.node1.getIdFromPos();
     long endNodeId2 = endWp.node2.getIdFromPos();
     long startNodeId1 = startWp.node1.getIdFromPos();
@@ -584,16 +1700,25 @@ public class RoutingEngine extends Thread
     OsmNode start2 = getStartNode( startNodeId2 );
     if ( start1 == null || start2 == null ) return null;
 
-    OsmPath startPath1 = getStartPath( start1, start2, startWp, endWp, sameSegmentSearch );
-    OsmPath startPath2 = getStartPath( start2, start1, startWp, endWp, sameSegmentSearch );
+    int startPath1 = getStartPath( start1, start2, startWp, endWp, sameSegmentSearch );
+    int startPath2 = getStartPath( start2, start1, startWp, endWp, sameSegmentSearch );
+
+    // in the exact pass, use the landmark costs as heuristic, if available
+    LandmarkHeuristic landmarks = null;
+    if ( airDistanceCostFactor == 0. && !verbose )
+    {
+      LandmarkCache landmarkCache = new LandmarkCache( segmentDir, routingContext.carMode,
+                           routingContext.expctxWay.lookupVersion, routingContext.profileCrc );
+      landmarks = LandmarkHeuristic.create( landmarkCache, endNodeId1, endNodeId2 );
+    }
 
     int maxAdjCostFromQueue = 0;
 
     synchronized( openSet )
     {
       openSet.clear();
-      if ( startPath1.cost >= 0 ) openSet.add( startPath1 );
-      if ( startPath2.cost >= 0 ) openSet.add( startPath2 );
+      if ( labels.getCost( startPath1 ) >= 0 ) openSet.add( startPath1 );
+      if ( labels.getCost( startPath2 ) >= 0 ) openSet.add( startPath2 );
     }
     while(!terminated)
     {
@@ -605,26 +1730,29 @@ public class RoutingEngine extends Thread
           throw new IllegalArgumentException( operationName + " timeout after " + (timeout/1000) + " seconds" );
         }
       }
-      OsmPath path = null;
+      int path;
       synchronized( openSet )
       {
         if ( openSet.size() == 0 ) break;
         path = openSet.first();
         openSet.remove( path );
       }
+      int pathCost = labels.getCost( path );
+      int pathAdjustedCost = labels.getAdjustedCost( path );
 
-      if ( path.adjustedCost < maxAdjCostFromQueue && airDistanceCostFactor == 0.)
+      if ( pathAdjustedCost < maxAdjCostFromQueue && airDistanceCostFactor == 0.)
       {
-        throw new RuntimeException( "assertion failed: path.adjustedCost < maxAdjCostFromQueue: " + path.adjustedCost + "<" + maxAdjCostFromQueue );
+        throw new RuntimeException( "assertion failed: path.adjustedCost < maxAdjCostFromQueue: " + pathAdjustedCost + "<" + maxAdjCostFromQueue );
       }
-      maxAdjCostFromQueue = path.adjustedCost;
+      maxAdjCostFromQueue = pathAdjustedCost;
 
       nodesVisited++;
       linksProcessed++;
+      checkMemory( operationName );
       
-      OsmLink currentLink = path.getLink();
+      OsmLink currentLink = labels.getLink( path );
       OsmNode currentNode = currentLink.targetNode;
-      OsmNode sourceNode = path.getSourceNode();
+      OsmNode sourceNode = labels.getSourceNode( path );
 
       long currentNodeId = currentNode.getIdFromPos();
       if ( sourceNode != null )
@@ -634,27 +1762,27 @@ public class RoutingEngine extends Thread
           || ( sourceNodeId == endNodeId2 && currentNodeId == endNodeId1 ) )
         {
           // track found, compile
-          logInfo( "found track at cost " + path.cost +  " nodesVisited = " + nodesVisited );
+          logInfo( "found track at cost " + pathCost +  " nodesVisited = " + nodesVisited );
           return compileTrack( path, verbose );
         }
       }
 
       // recheck cutoff before doing expensive stuff
       int airDistance2 = currentNode.calcDistance( endPos );
-      if ( path.cost + airDistance2 > maxTotalCost + 10 )
+      if ( pathCost + airDistance2 > maxTotalCost + 10 )
       {
         continue;
       }
 
       if ( !currentNode.wasProcessed )
       {
+        nodesCache.prefetchTowards( currentNode.ilon, currentNode.ilat, endPos.ilon, endPos.ilat );
         expandHollowLinkTargets( currentNode, true );
-        nodesMap.removeCompletedNodes();
       }
 
       if ( sourceNode != null )
       {
-        sourceNode.unlinkLink ( currentLink );
+        nodesMap.unlinkLink( sourceNode, currentLink );
       }
 
       OsmLink counterLink = null;
@@ -678,7 +1806,7 @@ public class RoutingEngine extends Thread
 
         if ( guideTrack != null )
         {
-          int gidx = path.treedepth + 1;
+          int gidx = labels.getTreedepth( path ) + 1;
           if ( gidx >= guideTrack.nodes.size() )
           {
             continue;
@@ -702,9 +1830,8 @@ public class RoutingEngine extends Thread
           }
         }
 
-        for( OsmLinkHolder linkHolder = currentLink.firstlinkholder; linkHolder != null; linkHolder = linkHolder.getNextForLink() )
+        for( int otherPath = currentLink.firstlinkholder; otherPath != 0; otherPath = labels.getNextForLink( otherPath ) )
         {
-          OsmPath otherPath = (OsmPath)linkHolder;
           try
           {
             if ( isFinalLink )
@@ -712,7 +1839,7 @@ public class RoutingEngine extends Thread
               endWp.crosspoint.radius = 1e-5;
               routingContext.setWaypoint( endWp.crosspoint, true );
             }
-            OsmPath testPath = new OsmPath( currentNode, otherPath, link, refTrack, guideTrack != null, routingContext );
+            OsmPath testPath = extendLabel( currentNode, otherPath, link, refTrack, guideTrack != null, bestPath );
             if ( testPath.cost >= 0 && ( bestPath == null || testPath.cost < bestPath.cost ) )
             {
               bestPath = testPath;
@@ -733,7 +1860,13 @@ public class RoutingEngine extends Thread
         if ( bestPath != null )
         {
           int airDistance = isFinalLink ? 0 : nextNode.calcDistance( endPos );
-          bestPath.setAirDistanceCostAdjustment( (int)( airDistance * airDistanceCostFactor ) );
+          int costAdjustment = (int)( airDistance * airDistanceCostFactor );
+          if ( landmarks != null && !isFinalLink )
+          {
+            // never below the parent, because the bound is 0 outside the landmark data
+            costAdjustment = Math.max( landmarks.getLowerBound( targetNodeId ), pathAdjustedCost - bestPath.cost );
+          }
+          bestPath.setAirDistanceCostAdjustment( costAdjustment );
           
           // check for a match with the cost-cutting-track
           if ( costCuttingTrack != null )
@@ -746,7 +1879,7 @@ public class RoutingEngine extends Thread
                                + ( costCuttingTrack.cost - pe.cost );
               if ( costEstimate <= maxTotalCost )
               {
-                matchPath = new OsmPathElement( bestPath );
+                matchPath = labels.createElement( bestPath );
               }
               if ( costEstimate < maxTotalCost )
               {
@@ -759,52 +1892,577 @@ public class RoutingEngine extends Thread
           if ( isFinalLink || bestPath.cost + airDistance <= maxTotalCost + 10 )
           {
             // add only if this may beat an existing path for that link
-        	OsmLinkHolder dominator = link.firstlinkholder;
-        	while( dominator != null )
+        	int dominator = link.firstlinkholder;
+        	while( dominator != 0 )
             {
-              if ( bestPath.definitlyWorseThan( (OsmPath)dominator, routingContext ) )
+              if ( bestPath.definitlyWorseThan( labels, dominator, routingContext ) )
               {
                 break;
               }
-              dominator = dominator.getNextForLink();
+              dominator = labels.getNextForLink( dominator );
             }
 
-        	if ( dominator == null )
+        	if ( dominator == 0 )
         	{
-              bestPath.treedepth = path.treedepth + 1;
-              link.addLinkHolder( bestPath );
+              bestPath.treedepth = labels.getTreedepth( path ) + 1;
+              int label = addLabel( bestPath );
+              labels.addLinkHolder( link, label );
               synchronized( openSet )
               {
-                openSet.add( bestPath );
+                openSet.add( label );
               }
         	}
           }
         }
       }
       // if the counterlink does not yet have a path, remove it
-      if ( counterLink != null && counterLink.firstlinkholder == null )
+      if ( counterLink != null && counterLink.firstlinkholder == 0 )
       {
-        currentNode.unlinkLink(counterLink);
+        nodesMap.unlinkLink( currentNode, counterLink );
       }
 
     }
     return null;
   }
 
-  private void preloadPosition( OsmNode n, int minRingWidth, int minCount )
+  private boolean hasNogos()
   {
-    int c = 0;
-    int ring = 0;
-    while( ring <= minRingWidth || ( c < minCount && ring <= 5 ) )
+    return routingContext.nogopoints != null && !routingContext.nogopoints.isEmpty();
+  }
+
+  private boolean isBidirectionalApplicable( MatchedWaypoint startWp, MatchedWaypoint endWp )
+  {
+    return routingContext.bidirectional && isPathIndependent( startWp, endWp );
+  }
+
+  // the bidirectional and the hierarchy search cannot handle elevation costs,
+  // because the hysteresis-buffer depends on the path-history
+  private boolean isPathIndependent( MatchedWaypoint startWp, MatchedWaypoint endWp )
+  {
+    if ( routingContext.downhillcostdiv > 0 || routingContext.uphillcostdiv > 0 )
+    {
+      return false;
+    }
+    return !isSameLink( startWp, endWp.node1, endWp.node2 );
+  }
+
+  private boolean isSameLink( MatchedWaypoint wp, OsmNode n1, OsmNode n2 )
+  {
+    long id1 = n1.getIdFromPos();
+    long id2 = n2.getIdFromPos();
+    long wpId1 = wp.node1.getIdFromPos();
+    long wpId2 = wp.node2.getIdFromPos();
+    return ( wpId1 == id1 && wpId2 == id2 ) || ( wpId1 == id2 && wpId2 == id1 );
+  }
+
+  private OsmLink getLink( OsmNode n1, OsmNode n2 )
+  {
+    for( OsmLink link = n1.firstlink; link != null; link = link.next )
+    {
+      if ( link.targetNode == n2 ) return link;
+    }
+    return null;
+  }
+
+  /**
+   * Bidirectional variant of findTrack: a forward search from the start
+   * and a reverse search from the end, meeting at nodes.
+   *
+   * The reverse search evaluates the links in forward direction,
+   * see ReverseInfo for the handling of the cost-items that depend
+   * on the predecessor. The result is a raw track without details,
+   * to be used as a guide-track for re-tracking.
+   */
+  private OsmTrack findTrackBidirectional( String operationName, MatchedWaypoint startWp, MatchedWaypoint endWp, OsmTrack refTrack )
+  {
+    logInfo( "findtrack bidirectional airDistanceCostFactor=" + airDistanceCostFactor );
+
+    matchPath = null;
+    int nodesVisited = 0;
+
+    resetSearch();
+
+    OsmNode start1 = getStartNode( startWp.node1.getIdFromPos() );
+    OsmNode start2 = getStartNode( startWp.node2.getIdFromPos() );
+    OsmNode end1 = getStartNode( endWp.node1.getIdFromPos() );
+    OsmNode end2 = getStartNode( endWp.node2.getIdFromPos() );
+    if ( start1 == null || start2 == null || end1 == null || end2 == null ) return null;
+
+    OsmNode startPos = startWp.crosspoint;
+    OsmNode endPos = endWp.crosspoint;
+
+    int startPath1 = getStartPath( start1, start2, startWp.waypoint, endPos );
+    int startPath2 = getStartPath( start2, start1, startWp.waypoint, endPos );
+    OsmLink endLink = getLink( end1, end2 );
+    int endPath1 = getReverseEndPath( end1, endLink, endWp, refTrack );
+    int endPath2 = getReverseEndPath( end2, endLink == null ? getLink( end2, end1 ) : endLink.counterLink, endWp, refTrack );
+
+    meetingCost = Integer.MAX_VALUE;
+    meetingForward = 0;
+    meetingReverse = 0;
+
+    if ( reverseOpenSet == null )
+    {
+      reverseOpenSet = OpenSet.create( labels );
+    }
+    synchronized( openSet )
+    {
+      openSet.clear();
+      reverseOpenSet.clear();
+      if ( labels.getCost( startPath1 ) >= 0 ) openSet.add( startPath1 );
+      if ( labels.getCost( startPath2 ) >= 0 ) openSet.add( startPath2 );
+      if ( endPath1 != 0 ) reverseOpenSet.add( endPath1 );
+      if ( endPath2 != 0 ) reverseOpenSet.add( endPath2 );
+    }
+    if ( labels.getCost( startPath1 ) >= 0 ) checkForwardMeeting( startPath1 );
+    if ( labels.getCost( startPath2 ) >= 0 ) checkForwardMeeting( startPath2 );
+    if ( endPath1 != 0 ) checkReverseMeeting( endPath1 );
+    if ( endPath2 != 0 ) checkReverseMeeting( endPath2 );
+
+    while(!terminated)
+    {
+      if ( maxRunningTime > 0 && System.currentTimeMillis() - startTime > maxRunningTime )
+      {
+        throw new IllegalArgumentException( operationName + " timeout after " + (maxRunningTime/1000) + " seconds" );
+      }
+      int path;
+      boolean forward;
+      synchronized( openSet )
+      {
+        int fp = openSet.first();
+        int rp = reverseOpenSet.first();
+        if ( fp == 0 || rp == 0 ) break;
+
+        if ( viaCandidates != null )
+        {
+          // collecting via-nodes: both searches up to half the stretch limit
+          long bound = meetingCost == Integer.MAX_VALUE ? Long.MAX_VALUE : (long)( ALTERNATIVE_STRETCH * meetingCost / 2 );
+          if ( labels.getCost( fp ) > bound && labels.getCost( rp ) > bound ) break;
+        }
+        else
+        {
+          // stopping criterion: no better meeting possible
+          if ( labels.getAdjustedCost( fp ) >= meetingCost || labels.getAdjustedCost( rp ) >= meetingCost ) break;
+          if ( airDistanceCostFactor == 0. && (long)labels.getCost( fp ) + labels.getCost( rp ) >= meetingCost ) break;
+        }
+
+        forward = labels.getAdjustedCost( fp ) <= labels.getAdjustedCost( rp );
+        path = forward ? fp : rp;
+        ( forward ? openSet : reverseOpenSet ).remove( path );
+      }
+      nodesVisited++;
+      linksProcessed++;
+      checkMemory( operationName );
+
+      if ( forward )
+      {
+        expandForward( path, startWp, endWp, refTrack );
+      }
+      else
+      {
+        expandReverse( path, startWp, endWp, refTrack );
+      }
+    }
+
+    synchronized( openSet )
+    {
+      reverseOpenSet.clear();
+    }
+
+    if ( meetingForward == 0 )
+    {
+      return null;
+    }
+    logInfo( "found track at cost " + meetingCost +  " nodesVisited = " + nodesVisited );
+
+    OsmTrack track = compileTrack( buildViaElement( meetingForward, meetingReverse, meetingCost ), meetingCost );
+    track.cost = meetingCost;
+    return track;
+  }
+
+  // the forward part up to the meeting node, then follow the reverse chain
+  private OsmPathElement buildViaElement( int forward, int reverse, int cost )
+  {
+    OsmPathElement element = labels.getElement( forward );
+    for( int rp = reverse; rp != 0; rp = labels.getReverseNext( rp ) )
+    {
+      OsmNode n = labels.getLink( rp ).targetNode;
+      element = new OsmPathElement( n.ilon, n.ilat, n.selev, element );
+      int next = labels.getReverseNext( rp );
+      element.cost = cost - ( next == 0 ? 0 : labels.getCost( next ) );
+    }
+    return element;
+  }
+
+  /**
+   * Find a track using a contraction hierarchy, if there is one for
+   * the profile. The result is a raw track to be used as a guide-track
+   * for re-tracking, which adds the costs not covered by the hierarchy.
+   *
+   * @return the track, or null if no hierarchy available
+   */
+  private OsmTrack findTrackHierarchy( MatchedWaypoint startWp, MatchedWaypoint endWp )
+  {
+    HierarchyCache hierarchyCache = new HierarchyCache( segmentDir, routingContext.carMode,
+                           routingContext.expctxWay.lookupVersion, routingContext.profileCrc );
+    long startNodeId1 = startWp.node1.getIdFromPos();
+    long startNodeId2 = startWp.node2.getIdFromPos();
+    long endNodeId1 = endWp.node1.getIdFromPos();
+    long endNodeId2 = endWp.node2.getIdFromPos();
+    if ( hierarchyCache.getTileFor( startNodeId1 ) == null || hierarchyCache.getTileFor( endNodeId1 ) == null )
+    {
+      return null;
+    }
+
+    resetSearch();
+    OsmNode start1 = getStartNode( startNodeId1 );
+    OsmNode start2 = getStartNode( startNodeId2 );
+    OsmNode end1 = getStartNode( endNodeId1 );
+    OsmNode end2 = getStartNode( endNodeId2 );
+    if ( start1 == null || start2 == null || end1 == null || end2 == null ) return null;
+
+    HierarchySearch search = new HierarchySearch( hierarchyCache );
+
+    // the partial start- and end-links
+    int startPath1 = getStartPath( start1, start2, startWp, endWp, false );
+    int startPath2 = getStartPath( start2, start1, startWp, endWp, false );
+    if ( labels.getCost( startPath1 ) >= 0 ) search.addSource( startNodeId2, labels.getCost( startPath1 ) );
+    if ( labels.getCost( startPath2 ) >= 0 ) search.addSource( startNodeId1, labels.getCost( startPath2 ) );
+
+    OsmLink endLink1 = getLink( end1, end2 );
+    OsmLink endLink2 = getLink( end2, end1 );
+    if ( endLink1 != null )
+    {
+      OsmPath endPath1 = getEndPath( end1, endLink1, endWp.crosspoint, endWp.crosspoint );
+      if ( endPath1.cost >= 0 ) search.addTarget( endNodeId1, endPath1.cost );
+    }
+    if ( endLink2 != null )
+    {
+      OsmPath endPath2 = getEndPath( end2, endLink2, endWp.crosspoint, endWp.crosspoint );
+      if ( endPath2.cost >= 0 ) search.addTarget( endNodeId2, endPath2.cost );
+    }
+
+    if ( !search.search() )
+    {
+      return null;
+    }
+    linksProcessed += search.nodesVisited;
+    logInfo( "found hierarchy track at cost " + search.getCost() + " nodesVisited = " + search.nodesVisited );
+
+    // the guide-track starts and ends with the other node of the start/end link
+    LongList ids = search.getPathIds();
+    LongList costs = search.getPathCosts();
+    OsmPathElement element = createElement( ids.get( 0 ) == startNodeId2 ? startNodeId1 : startNodeId2, 0, null );
+    for( int i=0; i<ids.size(); i++ )
+    {
+      element = createElement( ids.get( i ), (int)costs.get( i ), element );
+    }
+    element = createElement( ids.get( ids.size()-1 ) == endNodeId1 ? endNodeId2 : endNodeId1, search.getCost(), element );
+    return compileTrack( element, search.getCost() );
+  }
+
+  private static OsmPathElement createElement( long id, int cost, OsmPathElement origin )
+  {
+    OsmPathElement element = new OsmPathElement( (int)(id >> 32), (int)(id & 0xffffffff), Short.MIN_VALUE, origin );
+    element.cost = cost;
+    return element;
+  }
+
+  private int meetingCost;
+  private int meetingForward;
+  private int meetingReverse;
+
+  // the stretch of the best cost up to which the via-nodes are collected
+  private static final double ALTERNATIVE_STRETCH = 1.3;
+
+  // the via-node candidates, collected by the meetings if not null
+  private HashLongMap<ViaCandidate> viaCandidates;
+
+  private void expandForward( int path, MatchedWaypoint startWp, MatchedWaypoint endWp, OsmTrack refTrack )
+  {
+    OsmLink currentLink = labels.getLink( path );
+    OsmNode currentNode = currentLink.targetNode;
+    OsmNode sourceNode = labels.getSourceNode( path );
+
+    // drop the other paths for that link, they cannot be better
+    removeOtherHolders( currentLink, path, false );
+
+    if ( !currentNode.wasProcessed )
+    {
+      nodesCache.prefetchTowards( currentNode.ilon, currentNode.ilat, endWp.crosspoint.ilon, endWp.crosspoint.ilat );
+      expandHollowLinkTargets( currentNode, true );
+    }
+
+    for( OsmLink link = currentNode.firstlink; link != null; link = link.next )
+    {
+      OsmNode nextNode = link.targetNode;
+
+      if ( nextNode.isHollow() ) continue; // border node?
+      if ( nextNode.firstlink == null ) continue; // don't care about dead ends
+      if ( nextNode == sourceNode ) continue; // no u-turns
+      if ( isSameLink( endWp, currentNode, nextNode ) ) continue; // final link is in the reverse search
+
+      OsmPath bestPath = extendLabel( currentNode, path, link, refTrack, false, null );
+      if ( bestPath.cost < 0 || isDominated( bestPath, link, false ) )
+      {
+        continue;
+      }
+      bestPath.setAirDistanceCostAdjustment( (int)( nextNode.calcDistance( endWp.crosspoint ) * airDistanceCostFactor ) );
+
+      bestPath.treedepth = labels.getTreedepth( path ) + 1;
+      int label = labels.add( bestPath );
+      labels.addLinkHolder( link, label );
+      synchronized( openSet )
+      {
+        openSet.add( label );
+      }
+      checkForwardMeeting( label );
+    }
+  }
+
+  private void expandReverse( int path, MatchedWaypoint startWp, MatchedWaypoint endWp, OsmTrack refTrack )
+  {
+    OsmLink currentLink = labels.getLink( path );
+    OsmNode currentNode = labels.getSourceNode( path );
+    OsmNode nextNode = currentLink.targetNode;
+
+    removeOtherHolders( currentLink, path, true );
+
+    if ( !currentNode.wasProcessed )
+    {
+      nodesCache.prefetchTowards( currentNode.ilon, currentNode.ilat, startWp.crosspoint.ilon, startWp.crosspoint.ilat );
+      expandHollowLinkTargets( currentNode, true );
+    }
+
+    for( OsmLink rlink = currentNode.firstlink; rlink != null; rlink = rlink.next )
+    {
+      OsmNode prevNode = rlink.targetNode;
+
+      if ( prevNode.isHollow() ) continue; // border node?
+      if ( prevNode == nextNode ) continue; // no u-turns
+      if ( isSameLink( startWp, prevNode, currentNode ) ) continue; // start link is in the forward search
+
+      if ( !prevNode.wasProcessed )
+      {
+        expandHollowLinkTargets( prevNode, true );
+      }
+      OsmLink link = rlink.counterLink;
+      if ( link == null ) continue;
+
+      OsmPath bestPath = getReversePath( prevNode, link, path, refTrack );
+      if ( bestPath == null ) continue;
+      bestPath.setAirDistanceCostAdjustment( (int)( prevNode.calcDistance( startWp.crosspoint ) * airDistanceCostFactor ) );
+
+      if ( isDominated( bestPath, link, true ) ) continue;
+
+      bestPath.treedepth = labels.getTreedepth( path ) + 1;
+      int label = labels.add( bestPath );
+      labels.setReverse( label, reverseInfo );
+      labels.addLinkHolder( link, label );
+      synchronized( openSet )
+      {
+        reverseOpenSet.add( label );
+      }
+      checkReverseMeeting( label );
+    }
+  }
+
+  private void removeOtherHolders( OsmLink link, int path, boolean reverse )
+  {
+    for( int otherPath = link.firstlinkholder; otherPath != 0; otherPath = labels.getNextForLink( otherPath ) )
+    {
+      if ( otherPath != path && labels.isReverse( otherPath ) == reverse )
+      {
+        synchronized( openSet )
+        {
+          ( reverse ? reverseOpenSet : openSet ).remove( otherPath );
+        }
+      }
+    }
+  }
+
+  private boolean isDominated( OsmPath path, OsmLink link, boolean reverse )
+  {
+    for( int dominator = link.firstlinkholder; dominator != 0; dominator = labels.getNextForLink( dominator ) )
+    {
+      if ( labels.isReverse( dominator ) == reverse && path.definitlyWorseThan( labels, dominator, routingContext ) )
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // check a new forward path against the reverse paths leaving its target
+  private void checkForwardMeeting( int path )
+  {
+    OsmNode n = labels.getLink( path ).targetNode;
+    OsmNode sourceNode = labels.getSourceNode( path );
+    for( OsmLink link = n.firstlink; link != null; link = link.next )
+    {
+      if ( link.targetNode == sourceNode ) continue; // no u-turns
+      for( int rp = link.firstlinkholder; rp != 0; rp = labels.getNextForLink( rp ) )
+      {
+        if ( labels.isReverse( rp ) )
+        {
+          checkMeeting( path, rp );
+        }
+      }
+    }
+  }
+
+  // check a new reverse path against the forward paths arriving at its origin
+  private void checkReverseMeeting( int rpath )
+  {
+    OsmNode n = labels.getSourceNode( rpath );
+    OsmNode nextNode = labels.getLink( rpath ).targetNode;
+    for( OsmLink rlink = n.firstlink; rlink != null; rlink = rlink.next )
+    {
+      OsmNode prevNode = rlink.targetNode;
+      if ( prevNode.isHollow() ) continue;
+      OsmLink link = rlink.counterLink;
+      if ( link == null ) continue;
+      for( int fp = link.firstlinkholder; fp != 0; fp = labels.getNextForLink( fp ) )
+      {
+        if ( !labels.isReverse( fp ) && labels.getSourceNode( fp ) != nextNode )
+        {
+          checkMeeting( fp, rpath );
+        }
+      }
+    }
+  }
+
+  private void checkMeeting( int fp, int rp )
+  {
+    OsmNode n = labels.getLink( fp ).targetNode;
+    labels.getReverseInfo( rp, joinInfo );
+    long cost = (long)labels.getCost( fp ) + labels.getCost( rp )
+              + joinInfo.joinCost( labels.getOriginLon( fp ), labels.getOriginLat( fp ), n, labels.getLastCostfactor( fp ), routingContext );
+    if ( cost < meetingCost )
+    {
+      meetingCost = (int)cost;
+      meetingForward = fp;
+      meetingReverse = rp;
+    }
+    if ( viaCandidates != null )
+    {
+      long id = n.getIdFromPos();
+      ViaCandidate vc = viaCandidates.get( id );
+      if ( vc == null )
+      {
+        vc = new ViaCandidate();
+        viaCandidates.put( id, vc );
+      }
+      if ( cost < vc.cost )
+      {
+        vc.cost = (int)cost;
+        vc.forward = fp;
+        vc.reverse = rp;
+      }
+    }
+  }
+
+  // the reverse path for the final (partial) link to the end-point
+  private int getReverseEndPath( OsmNode n1, OsmLink link, MatchedWaypoint endWp, OsmTrack refTrack )
+  {
+    if ( link == null ) return 0;
+    try
+    {
+      endWp.crosspoint.radius = 1e-5;
+      routingContext.setWaypoint( endWp.crosspoint, true );
+      OsmPath p = getReversePath( n1, link, 0, refTrack );
+      if ( p == null )
+      {
+        return 0;
+      }
+      p.setAirDistanceCostAdjustment( 0 );
+      p.treedepth = 1;
+      int label = labels.add( p );
+      labels.setReverse( label, reverseInfo );
+      labels.addLinkHolder( link, label );
+      return label;
+    }
+    finally
+    {
+      routingContext.unsetWaypoint();
+    }
+  }
+
+  /**
+   * Calculate a reverse path for the given link, using a neutral
+   * origin so that the cost-items at the link origin are deferred
+   *
+   * The path and its deferred cost-items (reverseInfo) are
+   * valid until the next call, for storing it as a reverse label
+   */
+  private OsmPath getReversePath( OsmNode sourceNode, OsmLink link, int next, OsmTrack refTrack )
+  {
+    reverseOriginLink.targetNode = sourceNode;
+    reverseOrigin.initStart( reverseOriginLink );
+    reverseOrigin.originLon = sourceNode.ilon; // zero angle = no turncost
+    reverseOrigin.originLat = sourceNode.ilat;
+    reverseOrigin.hasOrigin = true;
+
+    OsmPath p = candidatePath1;
+    p.init( sourceNode, reverseOrigin, link, refTrack, false, routingContext );
+    if ( p.cost < 0 ) return null;
+
+    // evaluate the first segment for the deferred cost-items
+    ReverseInfo ri = reverseInfo;
+    TransferNodeCursor transferNodes = routingContext.transferNodes;
+    transferNodes.init( link );
+    long description;
+    if ( !transferNodes.next() )
+    {
+      ri.firstLon = link.targetNode.ilon;
+      ri.firstLat = link.targetNode.ilat;
+      description = link.getDescriptionBitmap();
+    }
+    else
+    {
+      ri.firstLon = transferNodes.ilon;
+      ri.firstLat = transferNodes.ilat;
+      description = transferNodes.descriptionBitmap;
+    }
+    routingContext.messageHandler.setCurrentPos( ri.firstLon, ri.firstLat );
+    routingContext.expctxWay.evaluate( description, routingContext.messageHandler );
+    ri.firstCostfactor = routingContext.expctxWay.getCostfactor();
+    ri.firstTurncost = routingContext.expctxWay.getTurncost();
+    ri.firstInitialcost = (int)routingContext.expctxWay.getInitialcost();
+
+    // the initial cost was charged against the neutral origin, take it out
+    if ( ri.firstCostfactor > 0.0005 || ri.firstCostfactor < -0.0005 )
+    {
+      p.cost -= ri.firstInitialcost;
+    }
+
+    if ( next != 0 )
+    {
+      labels.getReverseInfo( next, joinInfo );
+      p.cost += labels.getCost( next ) + joinInfo.joinCost( p.originLon, p.originLat, link.targetNode, p.lastCostfactor, routingContext );
+    }
+    ri.next = next;
+    return p;
+  }
+
+  // request the inner rings loaded for a waypoint in the background
+  private void prefetchPosition( OsmNode n )
+  {
+    if ( nodesCache == null )
     {
-      c += preloadRing( n, ring++ );
+      resetCache();
     }
+    preloadRing( n, 0, true, null, 0. );
+    preloadRing( n, 1, true, null, 0. );
   }
 
-  private int preloadRing( OsmNode n, int ring )
+  // load (or, if prefetch, request) the segments of a ring around a position,
+  // collecting the links within maxDistance if candidates are given
+  private int preloadRing( OsmNode n, int ring, boolean prefetch, LinkCandidates candidates, double maxDistance )
   {
     int d = 12500;
     int c = 0;
+    int segmentOrder = ring == 0 ? 0 : (2*ring-1)*(2*ring-1); // segments of the inner rings
     for( int idxLat=-ring; idxLat<=ring; idxLat++ )
       for( int idxLon=-ring; idxLon<=ring; idxLon++ )
       {
@@ -812,20 +2470,35 @@ public class RoutingEngine extends Thread
         int absLon = idxLon < 0 ? -idxLon : idxLon;
         int max = absLat > absLon ? absLat : absLon;
         if ( max < ring ) continue;
+        if ( prefetch )
+        {
+          nodesCache.prefetchSegmentFor( n.ilon + d*idxLon , n.ilat +d*idxLat );
+          continue;
+        }
         c += nodesCache.loadSegmentFor( n.ilon + d*idxLon , n.ilat +d*idxLat );
+        if ( candidates != null )
+        {
+          nodesCache.collectLinksNear( n.ilon + d*idxLon , n.ilat +d*idxLat, n.ilon, n.ilat, maxDistance, segmentOrder, candidates );
+        }
+        segmentOrder++;
       }
     return c;
   }
 
-  private OsmTrack compileTrack( OsmPath path, boolean verbose )
+  private OsmTrack compileTrack( int path, boolean verbose )
   {
-    OsmPathElement element = new OsmPathElement( path );
+    OsmPathElement element = labels.getElement( path );
 
     // for final track, cut endnode
     if ( guideTrack != null ) element = element.origin;
 
+    return compileTrack( element, labels.getCost( path ) );
+  }
+
+  private OsmTrack compileTrack( OsmPathElement element, int cost )
+  {
     OsmTrack track = new OsmTrack();
-    track.cost = path.cost;
+    track.cost = cost;
 
     int distance = 0;
     double ascend = 0;
@@ -964,5 +2637,13 @@ public class RoutingEngine extends Thread
   public void terminate()
   {
     terminated = true;
+    RoutingEngine[] legs = legEngines;
+    if ( legs != null )
+    {
+      for( RoutingEngine leg : legs )
+      {
+        leg.terminate();
+      }
+    }
   }
 }
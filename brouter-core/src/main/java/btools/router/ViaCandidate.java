@@ -0,0 +1,18 @@
+/**
+ * A via-node candidate for an alternative route
+ *
+ * The via-path of a node joins the cheapest forward path arriving
+ * there with the reverse path leaving there, as collected from
+ * the meetings of the bidirectional search.
+ *
+ * @author ab
+ */
+package btools.router;
+
+final class ViaCandidate
+{
+  // the labels, see LabelStore
+  public int forward;
+  public int reverse;
+  public int cost = Integer.MAX_VALUE;
+}
@@ -0,0 +1,120 @@
+/**
+ * Cache of the waypoint matches
+ *
+ * Popular positions (stations, trailheads) are matched over and
+ * over again, so the matches are kept process-wide, keyed by the
+ * segment directory, the profile, the nogo set and the waypoint
+ * position, quantized to a grid of "waypointMatchQuantum"
+ * micro-degrees (default 10, about a meter). A waypoint within the
+ * same grid cell gets the match of the first one.
+ *
+ * The size is given by the system property "waypointMatchCacheSize"
+ * (number of entries, default 0 = off), eviction is LRU.
+ * Only the positions are cached, every hit gets a fresh copy,
+ * because the search modifies the crosspoint.
+ *
+ * @author ab
+ */
+package btools.router;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import btools.mapaccess.OsmNode;
+
+public final class WaypointMatchCache
+{
+  private static final int maxSize = Integer.getInteger( "waypointMatchCacheSize", 0 ).intValue();
+  private static final int quantum = Integer.getInteger( "waypointMatchQuantum", 10 ).intValue();
+
+  private static LinkedHashMap<String,MatchedWaypoint> matches = new LinkedHashMap<String,MatchedWaypoint>( 16, 0.75f, true )
+  {
+    protected boolean removeEldestEntry( Map.Entry<String,MatchedWaypoint> eldest )
+    {
+      return size() > maxSize;
+    }
+  };
+
+  private static long hits;
+  private static long misses;
+
+  static boolean isEnabled()
+  {
+    return maxSize > 0;
+  }
+
+  /**
+   * @return the key for matching a waypoint with the given context
+   */
+  static String keyFor( String segmentDir, RoutingContext rc, OsmNodeNamed wp )
+  {
+    StringBuilder sb = new StringBuilder( 128 );
+    sb.append( segmentDir ).append( '|' ).append( rc.localFunction ).append( '|' ).append( rc.profileCrc ).append( '|' );
+    List<OsmNodeNamed> nogos = rc.nogopoints;
+    if ( nogos != null )
+    {
+      for( OsmNodeNamed nogo : nogos )
+      {
+        sb.append( nogo.ilon ).append( ',' ).append( nogo.ilat ).append( ',' ).append( nogo.radius ).append( ';' );
+      }
+    }
+    sb.append( '|' ).append( wp.ilon / quantum ).append( ',' ).append( wp.ilat / quantum );
+    return sb.toString();
+  }
+
+  /**
+   * @return a copy of the cached match for the given waypoint, or null
+   */
+  static MatchedWaypoint get( String key, OsmNodeNamed wp )
+  {
+    MatchedWaypoint mwp;
+    synchronized( WaypointMatchCache.class )
+    {
+      mwp = matches.get( key );
+      if ( mwp == null )
+      {
+        misses++;
+        return null;
+      }
+      hits++;
+    }
+    MatchedWaypoint copy = copyOf( mwp );
+    copy.waypoint = wp;
+    wp.radius = mwp.radius;
+    return copy;
+  }
+
+  static void put( String key, MatchedWaypoint mwp )
+  {
+    MatchedWaypoint copy = copyOf( mwp );
+    synchronized( WaypointMatchCache.class )
+    {
+      matches.put( key, copy );
+    }
+  }
+
+  // copy the positions, not holding on to the graph of the search
+  private static MatchedWaypoint copyOf( MatchedWaypoint mwp )
+  {
+    MatchedWaypoint copy = new MatchedWaypoint();
+    copy.node1 = new OsmNode( mwp.node1.ilon, mwp.node1.ilat );
+    copy.node2 = new OsmNode( mwp.node2.ilon, mwp.node2.ilat );
+    copy.crosspoint = new OsmNodeNamed();
+    copy.crosspoint.ilon = mwp.crosspoint.ilon;
+    copy.crosspoint.ilat = mwp.crosspoint.ilat;
+    copy.radius = mwp.radius;
+    copy.cost = mwp.cost;
+    return copy;
+  }
+
+  /**
+   * @return the counters as a single-line string for logging
+   */
+  public static synchronized String getStatistics()
+  {
+    long total = hits + misses;
+    return "matches=" + matches.size() + " hits=" + hits + " misses=" + misses
+         + " hitrate=" + ( total == 0 ? 0 : 100*hits/total ) + "%";
+  }
+}
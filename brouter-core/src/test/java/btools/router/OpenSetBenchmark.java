@@ -0,0 +1,59 @@
+package btools.router;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Timing of the open sets (LinkedOpenSet, HeapOpenSet), not a unit test:
+ * run manually with the test classpath
+ */
+public class OpenSetBenchmark
+{
+  public static void main( String[] args )
+  {
+    // a frontier-like workload: grows to about 100k, pops in cost order
+    // and removes dominated paths at random positions
+    for( int pass=0; pass<2; pass++ )
+    {
+      LabelStore labels1 = new LabelStore();
+      long t1 = runWorkload( labels1, new LinkedOpenSet( labels1 ) );
+      LabelStore labels2 = new LabelStore();
+      long t2 = runWorkload( labels2, new HeapOpenSet( labels2 ) );
+      System.out.println( "OpenSet benchmark pass " + pass + ": list=" + t1 + "ms heap=" + t2 + "ms" );
+    }
+  }
+
+  private static long runWorkload( LabelStore labels, OpenSet set )
+  {
+    Random rnd = new Random( 4713 );
+    ArrayList<Integer> live = new ArrayList<Integer>();
+    OsmPath np = new OsmPath();
+    long t0 = System.currentTimeMillis();
+    int baseCost = 0;
+    for( int i=0; i<200000; i++ )
+    {
+      int p = set.first();
+      if ( p != 0 && i % 3 == 0 )
+      {
+        set.remove( p );
+        baseCost = labels.getAdjustedCost( p );
+      }
+      for( int j=0; j<2; j++ )
+      {
+        np.adjustedCost = baseCost + rnd.nextInt( 20000 );
+        int label = labels.add( np );
+        set.add( label );
+        live.add( Integer.valueOf( label ) );
+      }
+      if ( i % 4 == 0 && !live.isEmpty() )
+      {
+        int idx = rnd.nextInt( live.size() );
+        int dominated = live.get( idx ).intValue();
+        live.set( idx, live.get( live.size()-1 ) );
+        live.remove( live.size()-1 );
+        set.remove( dominated );
+      }
+    }
+    return System.currentTimeMillis() - t0;
+  }
+}
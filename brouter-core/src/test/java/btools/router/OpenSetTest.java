@@ -0,0 +1,123 @@
+package btools.router;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OpenSetTest
+{
+  @Test
+  public void heapMatchesListTest()
+  {
+    Random rnd = new Random( 4711 );
+    LabelStore labels = new LabelStore();
+    OpenSet list = new LinkedOpenSet( labels );
+    OpenSet heap = new HeapOpenSet( labels );
+    ArrayList<Integer> live = new ArrayList<Integer>();
+
+    for( int i=0; i<200000; i++ )
+    {
+      int op = rnd.nextInt( 10 );
+      if ( op < 5 || live.isEmpty() )
+      {
+        int p = addLabel( labels, rnd.nextInt( 5000 ) ); // plenty of duplicates
+        list.add( p );
+        heap.add( p );
+        live.add( Integer.valueOf( p ) );
+      }
+      else if ( op < 8 )
+      {
+        int p1 = list.first();
+        int p2 = heap.first();
+        Assert.assertEquals( "first() differs at step " + i, p1, p2 );
+        list.remove( p1 );
+        heap.remove( p2 );
+        live.remove( Integer.valueOf( p1 ) );
+      }
+      else
+      {
+        int p = live.remove( rnd.nextInt( live.size() ) ).intValue();
+        list.remove( p );
+        heap.remove( p );
+        heap.remove( p ); // no-op
+      }
+      Assert.assertEquals( "size differs at step " + i, list.size(), heap.size() );
+    }
+    while( list.size() > 0 )
+    {
+      int p = list.first();
+      Assert.assertEquals( "first() differs when draining", p, heap.first() );
+      list.remove( p );
+      heap.remove( p );
+    }
+    Assert.assertEquals( "heap not empty", 0, heap.first() );
+  }
+
+  @Test
+  public void heapUpdateTest()
+  {
+    Random rnd = new Random( 4712 );
+    LabelStore labels = new LabelStore();
+    OpenSet heap = new HeapOpenSet( labels );
+    int[] paths = new int[1000];
+    for( int i=0; i<paths.length; i++ )
+    {
+      paths[i] = addLabel( labels, 1000 + rnd.nextInt( 100000 ) );
+      heap.add( paths[i] );
+    }
+    for( int i=0; i<paths.length; i+= 2 )
+    {
+      labels.setAdjustedCost( paths[i], labels.getAdjustedCost( paths[i] ) - rnd.nextInt( 1000 ) ); // decrease-key
+      heap.update( paths[i] );
+    }
+    int lastCost = Integer.MIN_VALUE;
+    while( heap.size() > 0 )
+    {
+      int p = heap.first();
+      Assert.assertTrue( "heap order violated", labels.getAdjustedCost( p ) >= lastCost );
+      lastCost = labels.getAdjustedCost( p );
+      heap.remove( p );
+    }
+  }
+
+  @Test
+  public void reuseAfterClearTest()
+  {
+    // the label handles are reused by the next search
+    Random rnd = new Random( 4713 );
+    LabelStore labels = new LabelStore();
+    OpenSet list = new LinkedOpenSet( labels );
+    OpenSet heap = new HeapOpenSet( labels );
+    for( int search=0; search<3; search++ )
+    {
+      labels.clear();
+      list.clear();
+      heap.clear();
+      for( int i=0; i<5000; i++ )
+      {
+        int p = addLabel( labels, rnd.nextInt( 2000 ) );
+        list.add( p );
+        heap.add( p );
+      }
+      // leave some labels in the sets for the clear
+      for( int i=0; i<4000; i++ )
+      {
+        int p = list.first();
+        Assert.assertEquals( "first() differs in search " + search, p, heap.first() );
+        list.remove( p );
+        heap.remove( p );
+      }
+      Assert.assertEquals( 1000, list.size() );
+      Assert.assertEquals( 1000, heap.size() );
+    }
+  }
+
+  private static int addLabel( LabelStore labels, int adjustedCost )
+  {
+    OsmPath p = new OsmPath();
+    p.adjustedCost = adjustedCost;
+    return labels.add( p );
+  }
+}
@@ -166,6 +166,152 @@ final class BExpression
     }
   }
 
+  // Mark the lookup names used by the expression and all subexpressions
+  void markLookups( boolean[] used )
+  {
+    if ( typ == LOOKUP_EXP ) used[lookupNameIdx] = true;
+    if ( op1 != null ) op1.markLookups( used );
+    if ( op2 != null ) op2.markLookups( used );
+    if ( op3 != null ) op3.markLookups( used );
+  }
+
+  // Compile the expression, leaving its value on the stack
+  void compile( BExpressionProgram p )
+  {
+    switch( typ )
+    {
+      case OR_EXP:
+      case AND_EXP:
+      case NOT_EXP:
+      case LOOKUP_EXP:
+        int isFalse = p.newLabel();
+        int end = p.newLabel();
+        compileCondition( p, false, isFalse );
+        p.emitNumber( 1.f );
+        p.emitJump( end );
+        p.placeLabel( isFalse );
+        p.emitNumber( 0.f );
+        p.placeLabel( end );
+        break;
+      case ADD_EXP:
+        op1.compile( p );
+        op2.compile( p );
+        p.emitAdd();
+        break;
+      case MULTIPLY_EXP:
+        op1.compile( p );
+        op2.compile( p );
+        p.emitMultiply();
+        break;
+      case MAX_EXP:
+        op1.compile( p );
+        op2.compile( p );
+        p.emitMax();
+        break;
+      case SWITCH_EXP:
+        int elseLabel = p.newLabel();
+        int switchEnd = p.newLabel();
+        op1.compileCondition( p, false, elseLabel );
+        op2.compile( p );
+        p.emitJump( switchEnd );
+        p.placeLabel( elseLabel );
+        op3.compile( p );
+        p.placeLabel( switchEnd );
+        break;
+      case ASSIGN_EXP:
+        op1.compile( p );
+        p.emitAssign( variableIdx );
+        break;
+      case NUMBER_EXP: p.emitNumber( numberValue ); break;
+      case VARIABLE_EXP: p.emitVariable( variableIdx ); break;
+      case DUMPPOS_EXP:
+        p.emitDumppos();
+        op1.compile( p );
+        break;
+      default: throw new IllegalArgumentException( "unknown op-code: " + typ );
+    }
+  }
+
+  // Compile the expression as a condition: jump to the label
+  // if its truth value equals jumpIfTrue, else continue
+  private void compileCondition( BExpressionProgram p, boolean jumpIfTrue, int label )
+  {
+    int nameIdx = getLookupChainName();
+    if ( nameIdx >= 0 )
+    {
+      long[] valueSet = p.newValueSet( nameIdx );
+      addToValueSet( p, valueSet );
+      p.emitLookupJump( jumpIfTrue, nameIdx, valueSet, label );
+      return;
+    }
+    switch( typ )
+    {
+      case OR_EXP:
+        if ( jumpIfTrue )
+        {
+          op1.compileCondition( p, true, label );
+          op2.compileCondition( p, true, label );
+        }
+        else
+        {
+          int isTrue = p.newLabel();
+          op1.compileCondition( p, true, isTrue );
+          op2.compileCondition( p, false, label );
+          p.placeLabel( isTrue );
+        }
+        break;
+      case AND_EXP:
+        if ( jumpIfTrue )
+        {
+          int isFalse = p.newLabel();
+          op1.compileCondition( p, false, isFalse );
+          op2.compileCondition( p, true, label );
+          p.placeLabel( isFalse );
+        }
+        else
+        {
+          op1.compileCondition( p, false, label );
+          op2.compileCondition( p, false, label );
+        }
+        break;
+      case NOT_EXP:
+        op1.compileCondition( p, !jumpIfTrue, label );
+        break;
+      default:
+        compile( p );
+        p.emitJumpIf( jumpIfTrue, label );
+    }
+  }
+
+  // @return the lookup name if this is a lookup-match or an or-chain
+  // of lookup-matches on the same name, else -1
+  private int getLookupChainName()
+  {
+    if ( typ == LOOKUP_EXP )
+    {
+      return lookupNameIdx;
+    }
+    if ( typ == OR_EXP )
+    {
+      int nameIdx = op1.getLookupChainName();
+      return nameIdx >= 0 && op2.getLookupChainName() == nameIdx ? nameIdx : -1;
+    }
+    return -1;
+  }
+
+  private void addToValueSet( BExpressionProgram p, long[] valueSet )
+  {
+    if ( typ == LOOKUP_EXP )
+    {
+      p.addToValueSet( valueSet, lookupNameIdx, lookupValueIdx );
+    }
+    else
+    {
+      op1.addToValueSet( p, valueSet );
+      op2.addToValueSet( p, valueSet );
+    }
+  }
+
   private float max( float v1, float v2 )
   {
     return v1 > v2 ? v1 : v2;
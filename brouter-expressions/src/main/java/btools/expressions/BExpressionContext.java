@@ -22,6 +22,10 @@ public final class BExpressionContext
   private static final String CONTEXT_TAG = "---context:";
   private static final String VERSION_TAG = "---lookupversion:";
 
+  // "tree" selects the tree interpreter instead of the compiled program
+  // (for the contexts parsed afterwards)
+  static boolean useProgram = !"tree".equals( System.getProperty( "expressionMode" ) );
+
   private String context;
   private boolean _inOurContext = false;
   private BufferedReader _br = null;
@@ -38,6 +42,14 @@ public final class BExpressionContext
 
   private int[] lookupData = new int[0];
 
+  // the bit layout of the lookups in the description bitmap, set when frozen
+  private int[] lookupShift;
+  private int[] lookupMask;
+  private boolean[] lookupIsBoolean;
+
+  // the bitmap currently evaluated
+  private long lookupBitmap;
+
   private Map<String,Integer> variableNumbers = new HashMap<String,Integer>();
 
   private float[] variableData;
@@ -46,10 +58,28 @@ public final class BExpressionContext
   // hash-cache for function results
   private long[] _arrayBitmap;
   private int currentHashBucket = -1;
+  private int currentHash;
   private long currentBitmap = 0;
 
+  // optional second-level cache shared with other threads
+  private BExpressionResultCache sharedCache;
+
+  // the bits of the lookups used by the expressions, and a bit
+  // outside of them to mark the masked bitmaps in the hash-cache
+  private long usedBitsMask = -1L;
+  private long cacheMarkerBit = 0L;
+  private int usedLookups;
+
+  private long cacheHits;
+  private long cacheMisses;
+  private long sharedCacheHits;
+
   public List<BExpression> expressionList;
 
+  // the compiled expression list, null if interpreted
+  private BExpressionProgram program;
+  private float[] programStack;
+
   private int minWriteIdx;
 
   // build-in variable indexes for fast access
@@ -90,6 +120,94 @@ public final class BExpressionContext
     _arrayInitialcost = new float[hashSize];
   }
 
+  /**
+   * Create an Expression-Context for evaluation from a template.
+   * It shares the lookup tables and the parsed expressions of the
+   * template, but has its own variables and result cache, so there
+   * should be one per thread.
+   *
+   * @param template  the parsed state of a context
+   * @param hashSize  size of hashmap for result caching
+   */
+  public BExpressionContext( BExpressionTemplate template, int hashSize )
+  {
+    this( template.context, hashSize );
+
+    lookupNumbers = template.lookupNumbers;
+    lookupValues = template.lookupValues;
+    lookupNames = template.lookupNames;
+    lookupHistograms = template.lookupHistograms;
+    lookupDataFrozen = true;
+    lookupShift = template.lookupShift;
+    lookupMask = template.lookupMask;
+    lookupIsBoolean = template.lookupIsBoolean;
+    lookupVersion = template.lookupVersion;
+
+    variableNumbers = template.variableNumbers;
+    expressionList = template.expressionList;
+    minWriteIdx = template.minWriteIdx;
+    costfactorIdx = template.costfactorIdx;
+    turncostIdx = template.turncostIdx;
+    initialcostIdx = template.initialcostIdx;
+
+    usedBitsMask = template.usedBitsMask;
+    cacheMarkerBit = template.cacheMarkerBit;
+    usedLookups = template.usedLookups;
+
+    program = template.program;
+    programStack = program == null ? null : new float[program.getStackSize()];
+    sharedCache = template.sharedCache;
+
+    variableData = template.variableData.clone(); // including the read-only variables
+  }
+
+  /**
+   * Create a template from this context, which must have the metadata
+   * read and the profile parsed. The template shares the lookup tables
+   * and the expressions, so this context must not read metadata or
+   * add lookup values afterwards.
+   *
+   * @param sharedCacheSize  size of a result cache shared by all contexts
+   *                         created from the template, 0 for none
+   */
+  public BExpressionTemplate createTemplate( int sharedCacheSize )
+  {
+    if ( !lookupDataFrozen || expressionList == null )
+    {
+      throw new IllegalArgumentException( "context " + context + " not ready for a template" );
+    }
+    BExpressionTemplate t = new BExpressionTemplate();
+    t.context = context;
+    t.lookupVersion = lookupVersion;
+
+    t.lookupNumbers = lookupNumbers;
+    t.lookupValues = lookupValues;
+    t.lookupNames = lookupNames;
+    t.lookupHistograms = lookupHistograms;
+    t.lookupShift = lookupShift;
+    t.lookupMask = lookupMask;
+    t.lookupIsBoolean = lookupIsBoolean;
+
+    t.usedBitsMask = usedBitsMask;
+    t.cacheMarkerBit = cacheMarkerBit;
+    t.usedLookups = usedLookups;
+
+    t.variableNumbers = variableNumbers;
+    t.variableData = variableData.clone();
+    t.minWriteIdx = minWriteIdx;
+    t.costfactorIdx = costfactorIdx;
+    t.turncostIdx = turncostIdx;
+    t.initialcostIdx = initialcostIdx;
+
+    t.expressionList = expressionList;
+    t.program = program;
+
+    if ( sharedCacheSize > 0 )
+    {
+      t.sharedCache = new BExpressionResultCache( sharedCacheSize );
+    }
+    return t;
+  }
 
   /**
    * encode lookup data to a 64-bit word
@@ -114,6 +232,14 @@ public final class BExpressionContext
    */
   public void decode( int[] ld, long w )
   {
+    if ( lookupShift != null )
+    {
+      for( int inum = 0; inum < lookupShift.length; inum++ )
+      {
+        ld[inum] = getLookupValue( w, inum );
+      }
+      return;
+    }
     for( int inum = lookupValues.size()-1; inum >= 0; inum-- ) // loop over lookup names
     {
       int nv = lookupValues.get(inum).length;
@@ -129,29 +255,83 @@ public final class BExpressionContext
   }
 
   /**
-   * much like decode, but just for counting bits
+   * much like decode, but just for calculating the bit offsets and masks
    */
-  private void countBits()
+  private void calcLookupLayout()
   {
+    int n = lookupValues.size();
+    lookupShift = new int[n];
+    lookupMask = new int[n];
+    lookupIsBoolean = new boolean[n];
     int bits = 0;
-    for( int inum = lookupValues.size()-1; inum >= 0; inum-- ) // loop over lookup names
+    for( int inum = n-1; inum >= 0; inum-- ) // loop over lookup names
     {
       int nv = lookupValues.get(inum).length;
-      int n = nv == 3 ? 1 : nv-1; // 1-bit encoding for booleans
-      while( n != 0 ) { n >>= 1; bits++; }
+      int b = getLookupBits( nv );
+      lookupShift[inum] = bits;
+      lookupMask[inum] = (1 << b) - 1;
+      lookupIsBoolean[inum] = nv == 3;
+      bits += b;
     }
 //    System.out.println( "context=" + context + ",bits=" + bits + " keys=" + lookupValues.size() );
     if ( bits > 64 ) throw new IllegalArgumentException( "lookup table for context " + context + " exceeds 64 bits!" );
   }
 
+  /**
+   * @return the value index of the given lookup, extracted from the bitmap
+   */
+  private int getLookupValue( long bitmap, int nameIdx )
+  {
+    int d = (int)( bitmap >>> lookupShift[nameIdx] ) & lookupMask[nameIdx];
+    return d == 1 && lookupIsBoolean[nameIdx] ? 2 : d; // 1-bit encoding for booleans
+  }
+
+  /**
+   * @return the number of bits used for a lookup with the given number of values
+   */
+  private static int getLookupBits( int nv )
+  {
+    int bits = 0;
+    int n = nv == 3 ? 1 : nv-1; // 1-bit encoding for booleans
+    while( n != 0 ) { n >>= 1; bits++; }
+    return bits;
+  }
+
+  int getLookupCount()
+  {
+    return lookupValues.size();
+  }
+
+  /**
+   * @return the number of values of the given lookup, including "unknown"
+   */
+  int getLookupValueCount( int nameIdx )
+  {
+    return lookupValues.get( nameIdx ).length;
+  }
+
+  int getLookupShift( int nameIdx )
+  {
+    return lookupShift[nameIdx];
+  }
+
+  int getLookupMask( int nameIdx )
+  {
+    return lookupMask[nameIdx];
+  }
+
+  boolean isBooleanLookup( int nameIdx )
+  {
+    return lookupIsBoolean[nameIdx];
+  }
+
   public String getCsvDescription( long bitmap )
   {
      StringBuilder sb = new StringBuilder( 200 );
-     decode( lookupData, bitmap );
      for( int inum = 0; inum < lookupValues.size(); inum++ ) // loop over lookup names
      {
        BExpressionLookupValue[] va = lookupValues.get(inum);
-       sb.append( '\t' ).append( va[lookupData[inum]].toString() );
+       sb.append( '\t' ).append( va[getLookupValue( bitmap, inum )].toString() );
      }
      return sb.toString();
   }
@@ -211,7 +391,7 @@ public final class BExpressionContext
 
     // post-process metadata:
     lookupDataFrozen = true;
-    countBits();
+    calcLookupLayout();
    }
    catch( Exception e )
    {
@@ -219,9 +399,9 @@ public final class BExpressionContext
    }
   }
 
-  private void evaluate( int[] lookupData2 )
+  private void evaluateExpressions( long bitmap )
   {
-    lookupData = lookupData2;
+    lookupBitmap = bitmap;
     for( BExpression exp: expressionList)
     {
       exp.evaluate( this );
@@ -268,6 +448,9 @@ public final class BExpressionContext
   {
      _receiver = receiver;
 
+     // ignore the lookups not used by the expressions
+     bitmap = bitmap & usedBitsMask | cacheMarkerBit;
+
      if ( currentBitmap != bitmap || currentHashBucket < 0 )
      {
        // calc hash bucket from crc
@@ -279,24 +462,53 @@ public final class BExpressionContext
          bm >>= 8;
        }
        int hashSize = _arrayBitmap.length;
-       currentHashBucket =  (crc & 0xfffffff) % hashSize;
+       currentHash = crc & 0xfffffff;
+       currentHashBucket =  currentHash % hashSize;
        currentBitmap = bitmap;
      }
 
      if ( _arrayBitmap[currentHashBucket] == bitmap )
      {
+       cacheHits++;
        return;
      }
 
      _arrayBitmap[currentHashBucket] = bitmap;
 
-     decode( lookupData, bitmap );
-     evaluate( lookupData );
+     if ( sharedCache != null )
+     {
+       BExpressionResultCache.Entry e = sharedCache.get( currentHash, bitmap );
+       if ( e != null )
+       {
+         sharedCacheHits++;
+         _arrayCostfactor[currentHashBucket] = e.costfactor;
+         _arrayTurncost[currentHashBucket] = e.turncost;
+         _arrayInitialcost[currentHashBucket] = e.initialcost;
+         return;
+       }
+     }
+     cacheMisses++;
+
+     if ( program != null )
+     {
+       program.execute( this, bitmap, variableData, programStack );
+     }
+     else
+     {
+       evaluateExpressions( bitmap );
+     }
 
      _arrayCostfactor[currentHashBucket] = variableData[costfactorIdx];
      _arrayTurncost[currentHashBucket] = variableData[turncostIdx];
      _arrayInitialcost[currentHashBucket] = variableData[initialcostIdx];
 
+     // share the result, unless there were warnings
+     if ( sharedCache != null && _arrayBitmap[currentHashBucket] == bitmap )
+     {
+       sharedCache.put( currentHash, new BExpressionResultCache.Entry( bitmap, _arrayCostfactor[currentHashBucket],
+                        _arrayTurncost[currentHashBucket], _arrayInitialcost[currentHashBucket] ) );
+     }
+
      _receiver = null;
   }
 
@@ -444,6 +656,7 @@ public final class BExpressionContext
         String realContext = context;
         context = readOnlyContext;
         expressionList = _parseFile( file );
+        compileExpressions();
         variableData = new float[variableNumbers.size()];
         evaluate( 1L, null );
         context = realContext;
@@ -456,6 +669,7 @@ public final class BExpressionContext
       initialcostIdx = getVariableIdx( "initialcost", true );
 
       expressionList = _parseFile( file );
+      compileExpressions();
       float[] readOnlyData = variableData;
       variableData = new float[variableNumbers.size()];
       for( int i=0; i<minWriteIdx; i++ )
@@ -495,6 +709,92 @@ public final class BExpressionContext
   }
 
 
+  // compile the expression list, unless the lookups are still growing
+  private void compileExpressions()
+  {
+    calcUsedBitsMask();
+    if ( useProgram && lookupDataFrozen )
+    {
+      program = BExpressionProgram.compile( expressionList, this );
+      programStack = new float[program.getStackSize()];
+    }
+    else
+    {
+      program = null;
+      programStack = null;
+    }
+  }
+
+  /**
+   * @return true if the expressions are run as compiled program
+   */
+  boolean isCompiled()
+  {
+    return program != null;
+  }
+
+  private void calcUsedBitsMask()
+  {
+    usedBitsMask = -1L;
+    cacheMarkerBit = 0L;
+    usedLookups = lookupValues.size();
+    if ( !lookupDataFrozen )
+    {
+      return;
+    }
+    boolean[] used = new boolean[lookupValues.size()];
+    for( BExpression exp: expressionList )
+    {
+      exp.markLookups( used );
+    }
+    long mask = 0L;
+    usedLookups = 0;
+    for( int inum = 0; inum < used.length; inum++ )
+    {
+      if ( used[inum] )
+      {
+        mask |= ((long)lookupMask[inum]) << lookupShift[inum];
+        usedLookups++;
+      }
+    }
+    usedBitsMask = mask;
+    cacheMarkerBit = Long.lowestOneBit( ~mask ); // 0 if all bits are used
+  }
+
+  /**
+   * @return the number of bits of the lookups used by the expressions,
+   * so there are at most 2^bits different results
+   */
+  public int getUsedBits()
+  {
+    return Long.bitCount( usedBitsMask );
+  }
+
+  public long getCacheHits()
+  {
+    return cacheHits;
+  }
+
+  public long getSharedCacheHits()
+  {
+    return sharedCacheHits;
+  }
+
+  public long getCacheMisses()
+  {
+    return cacheMisses;
+  }
+
+  /**
+   * @return the used lookups and the hash-cache counters as a single-line string for logging
+   */
+  public String getCacheStatistics()
+  {
+    return context + ": lookups=" + usedLookups + "/" + lookupValues.size() + " bits=" + getUsedBits()
+         + " hits=" + cacheHits + ( sharedCache == null ? "" : " shared-hits=" + sharedCacheHits )
+         + " misses=" + cacheMisses;
+  }
+
   public float getVariableValue( String name, float defaultValue )
   {
     Integer num = variableNumbers.get( name );
@@ -537,7 +837,7 @@ public final class BExpressionContext
 
   public float getLookupMatch( int nameIdx, int valueIdx )
   {
-    return lookupData[nameIdx] == valueIdx ? 1.0f : 0.0f;
+    return getLookupValue( lookupBitmap, nameIdx ) == valueIdx ? 1.0f : 0.0f;
   }
 
   public int getLookupNameIdx( String name )
@@ -0,0 +1,315 @@
+/**
+ * A compiled expression list
+ *
+ * The expression trees are flattened into a postfix instruction
+ * array that is run by a single loop with an operand stack.
+ * Conditions (switch, or, and, not) are compiled into jumps, and
+ * the lookup-matches are resolved directly against the bit fields
+ * of the description bitmap, with all values of an or-chain on
+ * the same lookup name tested at once, so the bitmap need not be
+ * decoded.
+ *
+ * A program is immutable and can be shared by any number of
+ * contexts, the operand stack is supplied by the caller.
+ *
+ * @author ab
+ */
+package btools.expressions;
+
+import java.util.List;
+
+final class BExpressionProgram
+{
+  private static final int NUMBER = 1;
+  private static final int VARIABLE = 2;
+  private static final int ADD = 3;
+  private static final int MULTIPLY = 4;
+  private static final int MAX = 5;
+  private static final int ASSIGN = 6;
+  private static final int JUMP = 7;
+  private static final int JUMP_IF_ZERO = 8;
+  private static final int JUMP_IF_NONZERO = 9;
+  private static final int JUMP_IF_LOOKUP = 10;
+  private static final int JUMP_UNLESS_LOOKUP = 11;
+  private static final int DUMPPOS = 12;
+
+  private int[] code = new int[64];
+  private int codeLength;
+  private float[] constants = new float[16];
+  private int constantCount;
+  private long[][] valueSets = new long[16][];
+  private int valueSetCount;
+  private int stackSize = 1;
+
+  // the jump targets, and the jumps to be patched
+  private int[] labels = new int[16];
+  private int labelCount;
+  private int[] fixups = new int[16];
+  private int fixupCount;
+
+  // the bit layout of the lookups in the description bitmap
+  private int[] lookupShift;
+  private int[] lookupMask;
+  private boolean[] lookupIsBoolean;
+
+  private BExpressionProgram( BExpressionContext ctx )
+  {
+    int n = ctx.getLookupCount();
+    lookupShift = new int[n];
+    lookupMask = new int[n];
+    lookupIsBoolean = new boolean[n];
+    for( int inum = 0; inum < n; inum++ )
+    {
+      lookupShift[inum] = ctx.getLookupShift( inum );
+      lookupMask[inum] = ctx.getLookupMask( inum );
+      lookupIsBoolean[inum] = ctx.isBooleanLookup( inum );
+    }
+  }
+
+  /**
+   * Compile an expression list parsed for the given context
+   */
+  static BExpressionProgram compile( List<BExpression> expressionList, BExpressionContext ctx )
+  {
+    BExpressionProgram p = new BExpressionProgram( ctx );
+    for( BExpression exp : expressionList )
+    {
+      exp.compile( p );
+    }
+    for( int i=0; i<p.fixupCount; i++ )
+    {
+      int pos = p.fixups[i];
+      p.code[pos] = p.labels[p.code[pos]];
+    }
+    return p;
+  }
+
+  int getStackSize()
+  {
+    return stackSize;
+  }
+
+  private void emit( int op )
+  {
+    if ( codeLength + 8 > code.length )
+    {
+      int[] c = new int[2*code.length];
+      System.arraycopy( code, 0, c, 0, codeLength );
+      code = c;
+    }
+    code[codeLength++] = op;
+  }
+
+  private void emitTarget( int label )
+  {
+    if ( fixupCount == fixups.length )
+    {
+      int[] f = new int[2*fixupCount];
+      System.arraycopy( fixups, 0, f, 0, fixupCount );
+      fixups = f;
+    }
+    fixups[fixupCount++] = codeLength;
+    code[codeLength++] = label;
+  }
+
+  void emitNumber( float value )
+  {
+    if ( constantCount == constants.length )
+    {
+      float[] c = new float[2*constantCount];
+      System.arraycopy( constants, 0, c, 0, constantCount );
+      constants = c;
+    }
+    constants[constantCount] = value;
+    emit( NUMBER );
+    code[codeLength++] = constantCount++;
+    stackSize++;
+  }
+
+  void emitVariable( int variableIdx )
+  {
+    emit( VARIABLE );
+    code[codeLength++] = variableIdx;
+    stackSize++;
+  }
+
+  void emitAdd()
+  {
+    emit( ADD );
+  }
+
+  void emitMultiply()
+  {
+    emit( MULTIPLY );
+  }
+
+  void emitMax()
+  {
+    emit( MAX );
+  }
+
+  void emitAssign( int variableIdx )
+  {
+    emit( ASSIGN );
+    code[codeLength++] = variableIdx;
+  }
+
+  void emitDumppos()
+  {
+    emit( DUMPPOS );
+  }
+
+  /**
+   * @return a new label for a jump target
+   */
+  int newLabel()
+  {
+    if ( labelCount == labels.length )
+    {
+      int[] l = new int[2*labelCount];
+      System.arraycopy( labels, 0, l, 0, labelCount );
+      labels = l;
+    }
+    labels[labelCount] = -1;
+    return labelCount++;
+  }
+
+  /**
+   * Set the target of the given label to the current position
+   */
+  void placeLabel( int label )
+  {
+    labels[label] = codeLength;
+  }
+
+  void emitJump( int label )
+  {
+    emit( JUMP );
+    emitTarget( label );
+  }
+
+  /**
+   * Emit a jump on the value on top of the stack, which is removed
+   */
+  void emitJumpIf( boolean jumpIfTrue, int label )
+  {
+    emit( jumpIfTrue ? JUMP_IF_NONZERO : JUMP_IF_ZERO );
+    emitTarget( label );
+  }
+
+  /**
+   * @return an empty set of raw field values for the given lookup
+   */
+  long[] newValueSet( int nameIdx )
+  {
+    return new long[( lookupMask[nameIdx] >> 6 ) + 1];
+  }
+
+  /**
+   * Add the given lookup value to a value set
+   */
+  void addToValueSet( long[] valueSet, int nameIdx, int valueIdx )
+  {
+    // the raw field value matching the value index, see encode/decode
+    int raw = valueIdx;
+    if ( lookupIsBoolean[nameIdx] ) // 1-bit encoding for booleans
+    {
+      if ( valueIdx == 1 ) return; // never matches
+      raw = valueIdx == 2 ? 1 : 0;
+    }
+    valueSet[raw >> 6] |= 1L << raw;
+  }
+
+  /**
+   * Emit a jump on whether the given lookup has one of the values in the set
+   */
+  void emitLookupJump( boolean jumpIfMatch, int nameIdx, long[] valueSet, int label )
+  {
+    if ( valueSetCount == valueSets.length )
+    {
+      long[][] v = new long[2*valueSetCount][];
+      System.arraycopy( valueSets, 0, v, 0, valueSetCount );
+      valueSets = v;
+    }
+    valueSets[valueSetCount] = valueSet;
+    emit( jumpIfMatch ? JUMP_IF_LOOKUP : JUMP_UNLESS_LOOKUP );
+    code[codeLength++] = lookupShift[nameIdx];
+    code[codeLength++] = lookupMask[nameIdx];
+    code[codeLength++] = valueSetCount++;
+    emitTarget( label );
+  }
+
+  /**
+   * Run the program
+   *
+   * @param bitmap  the description bitmap
+   * @param vars  the variable data
+   * @param stack  the operand stack of at least getStackSize()
+   */
+  void execute( BExpressionContext ctx, long bitmap, float[] vars, float[] stack )
+  {
+    int[] code = this.code;
+    int end = codeLength;
+    int pc = 0;
+    int sp = 0;
+    while( pc < end )
+    {
+      switch( code[pc] )
+      {
+        case NUMBER:
+          stack[sp++] = constants[code[pc+1]];
+          pc += 2;
+          break;
+        case VARIABLE:
+          stack[sp++] = vars[code[pc+1]];
+          pc += 2;
+          break;
+        case ADD:
+          sp--;
+          stack[sp-1] = stack[sp-1] + stack[sp];
+          pc++;
+          break;
+        case MULTIPLY:
+          sp--;
+          stack[sp-1] = stack[sp-1] * stack[sp];
+          pc++;
+          break;
+        case MAX:
+          sp--;
+          stack[sp-1] = stack[sp-1] > stack[sp] ? stack[sp-1] : stack[sp];
+          pc++;
+          break;
+        case ASSIGN:
+          vars[code[pc+1]] = stack[--sp];
+          pc += 2;
+          break;
+        case JUMP:
+          pc = code[pc+1];
+          break;
+        case JUMP_IF_ZERO:
+          pc = stack[--sp] == 0.f ? code[pc+1] : pc+2;
+          break;
+        case JUMP_IF_NONZERO:
+          pc = stack[--sp] != 0.f ? code[pc+1] : pc+2;
+          break;
+        case JUMP_IF_LOOKUP:
+          pc = matchesLookup( bitmap, code, pc ) ? code[pc+4] : pc+5;
+          break;
+        case JUMP_UNLESS_LOOKUP:
+          pc = matchesLookup( bitmap, code, pc ) ? pc+5 : code[pc+4];
+          break;
+        case DUMPPOS:
+          ctx.expressionWarning( "INFO" );
+          pc++;
+          break;
+        default: throw new IllegalArgumentException( "unknown op-code: " + code[pc] );
+      }
+    }
+  }
+
+  private boolean matchesLookup( long bitmap, int[] code, int pc )
+  {
+    int raw = (int)( bitmap >>> code[pc+1] ) & code[pc+2];
+    return ( valueSets[code[pc+3]][raw >> 6] & ( 1L << raw ) ) != 0L;
+  }
+}
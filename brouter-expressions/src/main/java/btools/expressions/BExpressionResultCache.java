@@ -0,0 +1,62 @@
+/**
+ * A result cache that is shared by all contexts created from
+ * one template, so that bitmaps evaluated by one thread are
+ * available to all others.
+ *
+ * It is lock-free: the results are stored as immutable entries in
+ * an atomic array and a concurrent put simply overwrites the slot.
+ * It is consulted on misses of the (unsynchronized) per-context
+ * cache only, so the per-context cache still serves the bulk
+ * of the lookups.
+ *
+ * @author ab
+ */
+package btools.expressions;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public final class BExpressionResultCache
+{
+  static final class Entry
+  {
+    final long bitmap;
+    final float costfactor;
+    final float turncost;
+    final float initialcost;
+
+    Entry( long bitmap, float costfactor, float turncost, float initialcost )
+    {
+      this.bitmap = bitmap;
+      this.costfactor = costfactor;
+      this.turncost = turncost;
+      this.initialcost = initialcost;
+    }
+  }
+
+  private AtomicReferenceArray<Entry> entries;
+
+  public BExpressionResultCache( int size )
+  {
+    entries = new AtomicReferenceArray<Entry>( size );
+  }
+
+  /**
+   * @param hash  a non-negative hash of the bitmap
+   * @return the cached result, or null if not cached
+   */
+  Entry get( int hash, long bitmap )
+  {
+    Entry e = entries.get( hash % entries.length() );
+    return e != null && e.bitmap == bitmap ? e : null;
+  }
+
+  void put( int hash, Entry e )
+  {
+    entries.set( hash % entries.length(), e );
+  }
+
+  public int size()
+  {
+    return entries.length();
+  }
+}
@@ -0,0 +1,64 @@
+/**
+ * The parsed state of an expression context
+ *
+ * A template holds the lookup tables, the variable numbering,
+ * the read-only variables and the parsed (and compiled) expression
+ * lists. It is never evaluated and never modified after creation,
+ * so it can be shared by any number of threads, each creating its
+ * own BExpressionContext from it for evaluation.
+ *
+ * @author ab
+ */
+package btools.expressions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public final class BExpressionTemplate
+{
+  String context;
+  short lookupVersion;
+
+  Map<String,Integer> lookupNumbers;
+  ArrayList<BExpressionLookupValue[]> lookupValues;
+  ArrayList<String> lookupNames;
+  ArrayList<int[]> lookupHistograms;
+  int[] lookupShift;
+  int[] lookupMask;
+  boolean[] lookupIsBoolean;
+
+  long usedBitsMask;
+  long cacheMarkerBit;
+  int usedLookups;
+
+  Map<String,Integer> variableNumbers;
+  float[] variableData; // the initial values, including the read-only variables
+  int minWriteIdx;
+  int costfactorIdx;
+  int turncostIdx;
+  int initialcostIdx;
+
+  List<BExpression> expressionList;
+  BExpressionProgram program;
+
+  BExpressionResultCache sharedCache; // null if not shared
+
+  BExpressionTemplate()
+  {
+  }
+
+  public short getLookupVersion()
+  {
+    return lookupVersion;
+  }
+
+  /**
+   * @return the result cache shared by all contexts created
+   * from this template, or null if there is none
+   */
+  public BExpressionResultCache getSharedCache()
+  {
+    return sharedCache;
+  }
+}
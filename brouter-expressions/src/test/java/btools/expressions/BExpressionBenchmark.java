@@ -0,0 +1,92 @@
+package btools.expressions;
+
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Throughput of the expression evaluation, tree interpreter
+ * vs. compiled program, not a unit test: run manually with
+ * the test classpath from the module directory
+ */
+public class BExpressionBenchmark
+{
+  private static final int DESCRIPTIONS = 20000;
+  private static final int ROUNDS = 50;
+
+  public static void main( String[] args ) throws Exception
+  {
+    File projectDir = new File( "." ).getCanonicalFile().getParentFile();
+    File profileDir = new File( projectDir, "misc/profiles2" );
+    File lookupFile = new File( profileDir, "lookups.dat" );
+
+    for( int pass=0; pass<3; pass++ )
+    {
+      for( File profile : profileDir.listFiles() )
+      {
+        if ( !profile.getName().endsWith( ".brf" ) ) continue;
+        BExpressionContext tree = createContext( lookupFile, profile, false );
+        BExpressionContext program = createContext( lookupFile, profile, true );
+        long[] bitmaps = createDescriptions( program );
+        long t1 = runWorkload( tree, bitmaps );
+        long t2 = runWorkload( program, bitmaps );
+        long evals = (long)ROUNDS * bitmaps.length;
+        System.out.println( "BExpression benchmark pass " + pass + " " + profile.getName()
+            + ": tree=" + t1 + "ms (" + evals / Math.max( t1, 1 ) + "/ms)"
+            + " program=" + t2 + "ms (" + evals / Math.max( t2, 1 ) + "/ms)" );
+      }
+    }
+  }
+
+  // random way descriptions, half of them sparse (mostly unknown values)
+  private static long[] createDescriptions( BExpressionContext ctx )
+  {
+    Random rnd = new Random( 4711 );
+    int[] ld = ctx.createNewLookupData();
+    long[] bitmaps = new long[DESCRIPTIONS];
+    for( int i=0; i<DESCRIPTIONS; i++ )
+    {
+      boolean sparse = ( i & 1 ) == 1;
+      for( int inum = 0; inum < ld.length; inum++ )
+      {
+        int nv = ctx.getLookupValueCount( inum );
+        ld[inum] = sparse && rnd.nextInt( 5 ) > 0 ? 0 : rnd.nextInt( nv );
+      }
+      bitmaps[i] = ctx.encode( ld );
+    }
+    return bitmaps;
+  }
+
+  private static long runWorkload( BExpressionContext ctx, long[] bitmaps )
+  {
+    float sum = 0.f;
+    long t0 = System.currentTimeMillis();
+    for( int round=0; round<ROUNDS; round++ )
+    {
+      for( int i=0; i<bitmaps.length; i++ )
+      {
+        ctx.evaluate( bitmaps[i], null );
+        sum += ctx.getCostfactor();
+      }
+    }
+    long t = System.currentTimeMillis() - t0;
+    if ( sum == 42.f ) System.out.println(); // keep the results alive
+    return t;
+  }
+
+  private static BExpressionContext createContext( File lookupFile, File profile, boolean compiled )
+  {
+    boolean useProgram = BExpressionContext.useProgram;
+    try
+    {
+      BExpressionContext.useProgram = compiled;
+      BExpressionContext ctx = new BExpressionContext( "way", 1 ); // evaluate each description
+      ctx.readMetaData( lookupFile );
+      ctx.parseFile( profile, "global" );
+      return ctx;
+    }
+    finally
+    {
+      BExpressionContext.useProgram = useProgram;
+    }
+  }
+}
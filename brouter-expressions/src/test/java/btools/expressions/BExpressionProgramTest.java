@@ -0,0 +1,92 @@
+package btools.expressions;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BExpressionProgramTest
+{
+  private static final int DESCRIPTIONS = 20000;
+
+  @Test
+  public void programMatchesTreeTest() throws Exception
+  {
+    File projectDir = new File( "." ).getCanonicalFile().getParentFile();
+    File profileDir = new File( projectDir, "misc/profiles2" );
+    File lookupFile = new File( profileDir, "lookups.dat" );
+    Assert.assertTrue( "lookups not found: " + lookupFile, lookupFile.isFile() );
+
+    int profiles = 0;
+    for( File profile : profileDir.listFiles() )
+    {
+      if ( !profile.getName().endsWith( ".brf" ) ) continue;
+      checkContext( "way", lookupFile, profile );
+      checkContext( "node", lookupFile, profile );
+      profiles++;
+    }
+    Assert.assertTrue( "no profiles in " + profileDir, profiles > 0 );
+  }
+
+  // evaluate random descriptions with both the tree interpreter and the program
+  private void checkContext( String context, File lookupFile, File profile )
+  {
+    BExpressionContext tree = createContext( context, lookupFile, profile, false );
+    BExpressionContext program = createContext( context, lookupFile, profile, true );
+    Assert.assertFalse( "tree context compiled", tree.isCompiled() );
+    Assert.assertTrue( "program context not compiled", program.isCompiled() );
+
+    Random rnd = new Random( 4711 );
+    int[] ld = program.createNewLookupData();
+    for( int i=0; i<DESCRIPTIONS; i++ )
+    {
+      // alternate fully random and sparse descriptions (mostly unknown values)
+      boolean sparse = ( i & 1 ) == 1;
+      for( int inum = 0; inum < ld.length; inum++ )
+      {
+        int nv = program.getLookupValueCount( inum );
+        ld[inum] = sparse && rnd.nextInt( 5 ) > 0 ? 0 : rnd.nextInt( nv );
+      }
+      long bitmap = program.encode( ld );
+
+      tree.evaluate( bitmap, null );
+      program.evaluate( bitmap, null );
+
+      if ( !sameValue( tree.getCostfactor(), program.getCostfactor() )
+        || !sameValue( tree.getTurncost(), program.getTurncost() )
+        || !sameValue( tree.getInitialcost(), program.getInitialcost() ) )
+      {
+        String key = profile.getName() + " " + context + " " + program.getCsvDescription( bitmap );
+        Assert.assertEquals( key + " (costfactor turncost initialcost)", getResults( tree ), getResults( program ) );
+      }
+    }
+  }
+
+  private static boolean sameValue( float v1, float v2 )
+  {
+    return Float.floatToIntBits( v1 ) == Float.floatToIntBits( v2 );
+  }
+
+  private static String getResults( BExpressionContext ctx )
+  {
+    return ctx.getCostfactor() + " " + ctx.getTurncost() + " " + ctx.getInitialcost();
+  }
+
+  private BExpressionContext createContext( String context, File lookupFile, File profile, boolean compiled )
+  {
+    boolean useProgram = BExpressionContext.useProgram;
+    try
+    {
+      BExpressionContext.useProgram = compiled;
+      BExpressionContext ctx = new BExpressionContext( context, 1 ); // evaluate each description
+      ctx.readMetaData( lookupFile );
+      ctx.parseFile( profile, "global" );
+      return ctx;
+    }
+    finally
+    {
+      BExpressionContext.useProgram = useProgram;
+    }
+  }
+}
@@ -0,0 +1,276 @@
+package btools.mapcreator;
+
+import java.io.*;
+import java.util.*;
+
+import btools.mapaccess.HierarchyTile;
+import btools.mapaccess.SidecarFile;
+
+/**
+ * HierarchyBuilder computes a contraction hierarchy for
+ * a fixed profile from the datafiles written by WayLinker
+ * and writes a sidecar file (.ch5) for each 5*5 tile
+ *
+ * The edge costs are the distance-costs of the links plus
+ * the initial costs of their target nodes. The hierarchy is
+ * node-based, so it cannot represent turn-costs and way
+ * initial-costs, and profiles using them are refused.
+ * Elevation costs are not part of the hierarchy, the router
+ * does not use it for profiles with elevation costs.
+ *
+ * @author ab
+ */
+public class HierarchyBuilder extends ProfileGraphBuilder
+{
+  private static final int MAX_SETTLED = 500; // limit for the witness search
+  private static final int PRIO_OFFSET = 1 << 20;
+
+  private int[] rank;
+  private int[] contractedNeighbors;
+
+  // witness search state
+  private int[] dist;
+  private int[] touched = new int[1024];
+  private int touchedCount;
+
+  public static void main(String[] args) throws Exception
+  {
+    System.out.println("*** HierarchyBuilder: compute a contraction hierarchy for a fixed profile");
+    if (args.length != 4)
+    {
+      System.out.println("usage: java HierarchyBuilder <lookup-file> <profile-file> <data-tiles-dir> <data-tiles-suffix> ");
+      return;
+    }
+    new HierarchyBuilder().process( new File( args[0] ), new File( args[1] ), new File( args[2] ), args[3] );
+  }
+
+  public void process( File lookupFile, File profileFile, File dataTilesDir, String dataTilesSuffix ) throws Exception
+  {
+    loadGraph( lookupFile, profileFile, dataTilesDir, dataTilesSuffix );
+    if ( hasWayCosts )
+    {
+      throw new IllegalArgumentException( "profile " + profileFile + " has turncost or initialcost for ways, no hierarchy possible" );
+    }
+    contract();
+    System.out.println( "edges incl. shortcuts=" + edgeCount );
+
+    writeTiles( SidecarFile.calcProfileCrc( profileFile ) );
+  }
+
+  private void contract()
+  {
+    rank = new int[nodeCount];
+    Arrays.fill( rank, -1 );
+    contractedNeighbors = new int[nodeCount];
+    dist = new int[nodeCount];
+    Arrays.fill( dist, Integer.MAX_VALUE );
+
+    PriorityQueue<Long> queue = new PriorityQueue<Long>( Math.max( nodeCount, 1 ) );
+    for( int v=0; v<nodeCount; v++ )
+    {
+      queue.add( Long.valueOf( queueKey( calcPriority( v ), v ) ) );
+    }
+
+    int nextRank = 0;
+    while( !queue.isEmpty() )
+    {
+      int v = (int)( queue.poll().longValue() & 0xffffffffL );
+      if ( rank[v] >= 0 ) continue;
+
+      // lazy update: re-insert if no longer the minimum
+      int prio = calcPriority( v );
+      if ( !queue.isEmpty() && queueKey( prio, v ) > queue.peek().longValue() )
+      {
+        queue.add( Long.valueOf( queueKey( prio, v ) ) );
+        continue;
+      }
+
+      processNode( v, false );
+      rank[v] = nextRank++;
+      for( int i=0; i<outCount[v]; i++ ) contractedNeighbors[edgeTo[outEdges[v][i]]]++;
+      for( int i=0; i<inCount[v]; i++ ) contractedNeighbors[edgeFrom[inEdges[v][i]]]++;
+    }
+  }
+
+  private static long queueKey( int prio, int v )
+  {
+    return ((long)( prio + PRIO_OFFSET )) << 32 | v;
+  }
+
+  // the edge difference plus the number of contracted neighbors
+  private int calcPriority( int v )
+  {
+    int degree = 0;
+    for( int i=0; i<outCount[v]; i++ ) if ( rank[edgeTo[outEdges[v][i]]] < 0 ) degree++;
+    for( int i=0; i<inCount[v]; i++ ) if ( rank[edgeFrom[inEdges[v][i]]] < 0 ) degree++;
+    return processNode( v, true ) - degree + contractedNeighbors[v];
+  }
+
+  /**
+   * contract a node, adding shortcuts for all neighbor pairs
+   * without a witness path
+   *
+   * @param simulate if true, just count the shortcuts
+   * @return the number of shortcuts
+   */
+  private int processNode( int v, boolean simulate )
+  {
+    int shortcuts = 0;
+    for( int i=0; i<inCount[v]; i++ )
+    {
+      int e1 = inEdges[v][i];
+      int u = edgeFrom[e1];
+      if ( rank[u] >= 0 || u == v ) continue;
+
+      int maxCost = -1;
+      for( int k=0; k<outCount[v]; k++ )
+      {
+        int e2 = outEdges[v][k];
+        int w = edgeTo[e2];
+        if ( rank[w] >= 0 || w == u || w == v ) continue;
+        maxCost = Math.max( maxCost, edgeCost[e1] + edgeCost[e2] );
+      }
+      if ( maxCost < 0 ) continue;
+
+      witnessSearch( u, v, maxCost );
+      for( int k=0; k<outCount[v]; k++ )
+      {
+        int e2 = outEdges[v][k];
+        int w = edgeTo[e2];
+        if ( rank[w] >= 0 || w == u || w == v ) continue;
+        int cost = edgeCost[e1] + edgeCost[e2];
+        if ( dist[w] <= cost ) continue; // witness found
+        shortcuts++;
+        if ( !simulate )
+        {
+          addShortcut( u, w, cost, v );
+          setDist( w, cost ); // no duplicates via parallel links
+        }
+      }
+      resetDist();
+    }
+    return shortcuts;
+  }
+
+  private void addShortcut( int u, int w, int cost, int middle )
+  {
+    for( int i=0; i<outCount[u]; i++ )
+    {
+      int e = outEdges[u][i];
+      if ( edgeTo[e] == w )
+      {
+        if ( edgeCost[e] > cost )
+        {
+          edgeCost[e] = cost;
+          edgeMiddle[e] = middle;
+        }
+        return;
+      }
+    }
+    addAdjacency( addEdge( u, w, cost, middle ) );
+  }
+
+  // limited dijkstra from source over the uncontracted nodes, avoiding "excluded"
+  private void witnessSearch( int source, int excluded, int maxCost )
+  {
+    PriorityQueue<Long> queue = new PriorityQueue<Long>();
+    setDist( source, 0 );
+    queue.add( Long.valueOf( source ) );
+    int settled = 0;
+    while( !queue.isEmpty() )
+    {
+      long key = queue.poll().longValue();
+      int cost = (int)( key >>> 32 );
+      int n = (int)( key & 0xffffffffL );
+      if ( cost > dist[n] ) continue;
+      if ( cost > maxCost || ++settled > MAX_SETTLED ) break;
+
+      for( int i=0; i<outCount[n]; i++ )
+      {
+        int e = outEdges[n][i];
+        int w = edgeTo[e];
+        if ( rank[w] >= 0 || w == excluded ) continue;
+        int c = cost + edgeCost[e];
+        if ( c < dist[w] )
+        {
+          setDist( w, c );
+          queue.add( Long.valueOf( ((long)c) << 32 | w ) );
+        }
+      }
+    }
+  }
+
+  private void setDist( int n, int cost )
+  {
+    if ( dist[n] == Integer.MAX_VALUE )
+    {
+      if ( touchedCount == touched.length ) touched = Arrays.copyOf( touched, 2*touchedCount );
+      touched[touchedCount++] = n;
+    }
+    dist[n] = cost;
+  }
+
+  private void resetDist()
+  {
+    for( int i=0; i<touchedCount; i++ ) dist[touched[i]] = Integer.MAX_VALUE;
+    touchedCount = 0;
+  }
+
+  private void writeTiles( int profileCrc ) throws Exception
+  {
+    // every edge is stored at its lower-ranked node
+    int[] upCount = new int[nodeCount];
+    for( int e=0; e<edgeCount; e++ )
+    {
+      if ( edgeCost[e] >= 0 ) upCount[ lowerNode( e ) ]++;
+    }
+
+    Map<String,List<Integer>> tiles = groupByTile();
+
+    int[][] upEdges = new int[nodeCount][];
+    int[] upFill = new int[nodeCount];
+    for( int e=0; e<edgeCount; e++ )
+    {
+      if ( edgeCost[e] < 0 ) continue; // into a blocked node
+      int n = lowerNode( e );
+      if ( upEdges[n] == null ) upEdges[n] = new int[upCount[n]];
+      upEdges[n][upFill[n]++] = e;
+    }
+
+    for( Map.Entry<String,List<Integer>> entry : tiles.entrySet() )
+    {
+      List<Integer> nodes = entry.getValue();
+      int tileEdges = 0;
+      for( Integer i : nodes ) tileEdges += upCount[i.intValue()];
+
+      DataOutputStream os = createOutStream( new File( dataTilesDir, entry.getKey() + ".ch5" ) );
+      os.writeShort( lookupVersion );
+      os.writeInt( profileCrc );
+      os.writeInt( nodes.size() );
+      os.writeInt( tileEdges );
+      for( Integer ii : nodes )
+      {
+        int i = ii.intValue();
+        os.writeLong( nodeIds[i] );
+        os.writeInt( upCount[i] );
+        for( int k=0; k<upCount[i]; k++ )
+        {
+          int e = upEdges[i][k];
+          boolean up = edgeFrom[e] == i;
+          os.writeByte( up ? HierarchyTile.EDGE_UP : HierarchyTile.EDGE_DOWN );
+          os.writeLong( nodeIds[ up ? edgeTo[e] : edgeFrom[e] ] );
+          os.writeInt( edgeCost[e] );
+          os.writeLong( edgeMiddle[e] < 0 ? HierarchyTile.NO_MIDDLE : nodeIds[edgeMiddle[e]] );
+        }
+      }
+      os.close();
+    }
+  }
+
+  private int lowerNode( int e )
+  {
+    int from = edgeFrom[e];
+    int to = edgeTo[e];
+    return rank[from] < rank[to] ? from : to;
+  }
+}
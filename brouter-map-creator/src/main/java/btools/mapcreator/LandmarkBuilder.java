@@ -0,0 +1,172 @@
+package btools.mapcreator;
+
+import java.io.*;
+import java.util.*;
+
+import btools.mapaccess.SidecarFile;
+
+/**
+ * LandmarkBuilder selects a set of landmark nodes for a fixed
+ * profile and writes the costs from and to every landmark
+ * for each node into a sidecar file (.lm5) per 5*5 tile
+ *
+ * The router uses these costs for a lower bound of the
+ * remaining cost via the triangle inequality (ALT heuristic).
+ * The landmarks are selected by farthest-selection, which
+ * tends to put them at the border of the network.
+ *
+ * @author ab
+ */
+public class LandmarkBuilder extends ProfileGraphBuilder
+{
+  public static final int DEFAULT_LANDMARK_COUNT = 16;
+
+  private int[] landmarks;
+  private int landmarkCount;
+
+  // cost from/to landmark k for node i at [i*landmarkCount + k], -1 = unreachable
+  private int[] costFrom;
+  private int[] costTo;
+
+  public static void main(String[] args) throws Exception
+  {
+    System.out.println("*** LandmarkBuilder: compute landmark costs for a fixed profile");
+    if (args.length != 4 && args.length != 5)
+    {
+      System.out.println("usage: java LandmarkBuilder <lookup-file> <profile-file> <data-tiles-dir> <data-tiles-suffix> [<landmark-count>]");
+      return;
+    }
+    int landmarkCount = args.length == 5 ? Integer.parseInt( args[4] ) : DEFAULT_LANDMARK_COUNT;
+    new LandmarkBuilder().process( new File( args[0] ), new File( args[1] ), new File( args[2] ), args[3], landmarkCount );
+  }
+
+  public void process( File lookupFile, File profileFile, File dataTilesDir, String dataTilesSuffix, int maxLandmarks ) throws Exception
+  {
+    loadGraph( lookupFile, profileFile, dataTilesDir, dataTilesSuffix );
+    if ( nodeCount == 0 ) return;
+
+    selectLandmarks( maxLandmarks );
+    System.out.println( "landmarks=" + landmarkCount );
+
+    writeTiles( SidecarFile.calcProfileCrc( profileFile ) );
+  }
+
+  private void selectLandmarks( int maxLandmarks )
+  {
+    landmarks = new int[maxLandmarks];
+    costFrom = new int[nodeCount*maxLandmarks];
+    costTo = new int[nodeCount*maxLandmarks];
+
+    // start with the best-connected node, which is most likely
+    // part of the main network and not of a small island
+    int start = 0;
+    for( int i=1; i<nodeCount; i++ )
+    {
+      if ( outCount[i] + inCount[i] > outCount[start] + inCount[start] ) start = i;
+    }
+
+    // the minimum cost from the selected landmarks
+    int[] minCost = new int[nodeCount];
+    int[] dist = new int[nodeCount];
+    dijkstra( start, true, dist );
+    System.arraycopy( dist, 0, minCost, 0, nodeCount );
+
+    while( landmarkCount < maxLandmarks )
+    {
+      int next = -1;
+      for( int i=0; i<nodeCount; i++ )
+      {
+        int c = minCost[i];
+        if ( c > 0 && c < Integer.MAX_VALUE && ( next < 0 || c > minCost[next] ) ) next = i;
+      }
+      if ( next < 0 ) break; // every reachable node is a landmark
+
+      int k = landmarkCount++;
+      landmarks[k] = next;
+      dijkstra( next, true, dist );
+      for( int i=0; i<nodeCount; i++ )
+      {
+        costFrom[i*maxLandmarks + k] = dist[i] == Integer.MAX_VALUE ? -1 : dist[i];
+        if ( dist[i] < minCost[i] ) minCost[i] = dist[i];
+      }
+      dijkstra( next, false, dist );
+      for( int i=0; i<nodeCount; i++ )
+      {
+        costTo[i*maxLandmarks + k] = dist[i] == Integer.MAX_VALUE ? -1 : dist[i];
+      }
+    }
+
+    // compact to the selected number of landmarks
+    if ( landmarkCount < maxLandmarks )
+    {
+      costFrom = compact( costFrom, maxLandmarks );
+      costTo = compact( costTo, maxLandmarks );
+    }
+  }
+
+  private int[] compact( int[] costs, int stride )
+  {
+    int[] a = new int[nodeCount*landmarkCount];
+    for( int i=0; i<nodeCount; i++ )
+    {
+      System.arraycopy( costs, i*stride, a, i*landmarkCount, landmarkCount );
+    }
+    return a;
+  }
+
+  // full dijkstra from (forward) or to (!forward) the given node
+  private void dijkstra( int source, boolean forward, int[] dist )
+  {
+    Arrays.fill( dist, Integer.MAX_VALUE );
+    PriorityQueue<Long> queue = new PriorityQueue<Long>();
+    dist[source] = 0;
+    queue.add( Long.valueOf( source ) );
+    while( !queue.isEmpty() )
+    {
+      long key = queue.poll().longValue();
+      int cost = (int)( key >>> 32 );
+      int n = (int)( key & 0xffffffffL );
+      if ( cost > dist[n] ) continue;
+
+      int cnt = forward ? outCount[n] : inCount[n];
+      int[] edges = forward ? outEdges[n] : inEdges[n];
+      for( int i=0; i<cnt; i++ )
+      {
+        int e = edges[i];
+        int w = forward ? edgeTo[e] : edgeFrom[e];
+        long c = (long)cost + edgeCost[e];
+        if ( c < dist[w] && c < Integer.MAX_VALUE )
+        {
+          dist[w] = (int)c;
+          queue.add( Long.valueOf( c << 32 | w ) );
+        }
+      }
+    }
+  }
+
+  private void writeTiles( int profileCrc ) throws Exception
+  {
+    for( Map.Entry<String,List<Integer>> entry : groupByTile().entrySet() )
+    {
+      List<Integer> nodes = entry.getValue();
+
+      DataOutputStream os = createOutStream( new File( dataTilesDir, entry.getKey() + ".lm5" ) );
+      os.writeShort( lookupVersion );
+      os.writeInt( profileCrc );
+      os.writeInt( landmarkCount );
+      for( int k=0; k<landmarkCount; k++ )
+      {
+        os.writeLong( nodeIds[landmarks[k]] );
+      }
+      os.writeInt( nodes.size() );
+      for( Integer ii : nodes )
+      {
+        int i = ii.intValue();
+        os.writeLong( nodeIds[i] );
+        for( int k=0; k<landmarkCount; k++ ) os.writeInt( costFrom[i*landmarkCount + k] );
+        for( int k=0; k<landmarkCount; k++ ) os.writeInt( costTo[i*landmarkCount + k] );
+      }
+      os.close();
+    }
+  }
+}
@@ -0,0 +1,318 @@
+package btools.mapcreator;
+
+import java.io.*;
+import java.util.*;
+
+import btools.expressions.BExpressionContext;
+import btools.mapaccess.NodesCache;
+import btools.mapaccess.OsmLink;
+import btools.mapaccess.OsmNode;
+import btools.mapaccess.OsmNodesMap;
+import btools.mapaccess.SidecarFile;
+import btools.mapaccess.TransferNodeCursor;
+
+/**
+ * ProfileGraphBuilder is the common base of the preprocessors
+ * that work on the routing graph of a fixed profile
+ *
+ * It reads the datafiles written by WayLinker into a compact
+ * graph with the distance-costs of the links plus the initial
+ * costs of their target nodes as edge costs. Turn-costs, way
+ * initial-costs and elevation are not part of these costs,
+ * so they are a lower bound of the costs in OsmPath. Whether
+ * the profile uses turn- or way initial-costs at all is
+ * recorded in hasWayCosts.
+ *
+ * @author ab
+ */
+public abstract class ProfileGraphBuilder extends MapCreatorBase
+{
+  protected File dataTilesDir;
+  protected String dataTilesSuffix;
+  protected short lookupVersion;
+
+  private BExpressionContext expctxWay;
+  private BExpressionContext expctxNode;
+  private TransferNodeCursor transferNodes = new TransferNodeCursor();
+
+  // the nodes, sorted by id
+  protected long[] nodeIds;
+  protected int nodeCount;
+  protected int[] nodeCost;
+
+  // the edges, a cost of -1 means not passable
+  protected int edgeCount;
+  protected int[] edgeFrom = new int[1024];
+  protected int[] edgeTo = new int[1024];
+  protected int[] edgeCost = new int[1024];
+  protected int[] edgeMiddle = new int[1024];
+
+  protected int[][] outEdges;
+  protected int[] outCount;
+  protected int[][] inEdges;
+  protected int[] inCount;
+
+  // true if a passable link has a turncost or way initialcost
+  protected boolean hasWayCosts;
+
+  protected void loadGraph( File lookupFile, File profileFile, File dataTilesDir, String dataTilesSuffix ) throws Exception
+  {
+    this.dataTilesDir = dataTilesDir;
+    this.dataTilesSuffix = dataTilesSuffix;
+
+    expctxWay = new BExpressionContext("way");
+    expctxWay.readMetaData( lookupFile );
+    lookupVersion = expctxWay.lookupVersion;
+    expctxWay.parseFile( profileFile, "global" );
+
+    expctxNode = new BExpressionContext("node");
+    expctxNode.readMetaData( lookupFile );
+    expctxNode.parseFile( profileFile, "global" );
+
+    File[] files = dataTilesDir.listFiles();
+    List<File> dataFiles = new ArrayList<File>();
+    for( File f : files )
+    {
+      if ( f.getName().endsWith( "." + dataTilesSuffix ) ) dataFiles.add( f );
+    }
+
+    // first pass: collect the node ids
+    long[] ids = new long[1024];
+    int n = 0;
+    for( File f : dataFiles )
+    {
+      for( OsmNode node : readNodes( f, new OsmNodesMap(), false ) )
+      {
+        if ( n == ids.length ) ids = Arrays.copyOf( ids, 2*n );
+        ids[n++] = node.getIdFromPos();
+      }
+    }
+    nodeIds = Arrays.copyOf( ids, n );
+    Arrays.sort( nodeIds );
+    nodeCount = n;
+    nodeCost = new int[n];
+
+    // second pass: decode the nodes and calculate the link costs
+    for( File f : dataFiles )
+    {
+      for( OsmNode node : readNodes( f, new OsmNodesMap(), true ) )
+      {
+        if ( !node.isHollow() ) addNode( node );
+      }
+    }
+    System.out.println( "nodes=" + nodeCount + " links=" + edgeCount );
+
+    buildAdjacency();
+  }
+
+  /**
+   * @return the node indices grouped by the base filename of their 5*5 tile
+   */
+  protected Map<String,List<Integer>> groupByTile()
+  {
+    HashMap<String,List<Integer>> tiles = new HashMap<String,List<Integer>>();
+    for( int i=0; i<nodeCount; i++ )
+    {
+      long id = nodeIds[i];
+      String tileBase = SidecarFile.getTileBase( (int)(id >> 32), (int)(id & 0xffffffff) );
+      List<Integer> nodes = tiles.get( tileBase );
+      if ( nodes == null )
+      {
+        nodes = new ArrayList<Integer>();
+        tiles.put( tileBase, nodes );
+      }
+      nodes.add( Integer.valueOf( i ) );
+    }
+    return tiles;
+  }
+
+  // read all nodes of a datafile, optionally decoding their links
+  private List<OsmNode> readNodes( File f, OsmNodesMap nodesMap, boolean decode ) throws Exception
+  {
+    boolean carMode = "cd5".equals( dataTilesSuffix );
+    String segmentDir = carMode ? dataTilesDir.getParent() : dataTilesDir.getPath();
+    NodesCache nodesCache = new NodesCache( segmentDir, nodesMap, lookupVersion, carMode, null );
+
+    // filename is e.g. E5_N45.rd5
+    String name = f.getName();
+    int idx = name.indexOf( '_' );
+    int lon = Integer.parseInt( name.substring( 1, idx ) );
+    int lat = Integer.parseInt( name.substring( idx+2, name.length()-4 ) );
+    if ( name.charAt( 0 ) == 'W' ) lon = -lon;
+    if ( name.charAt( idx+1 ) == 'S' ) lat = -lat;
+    int ilonBase = ( lon + 180 ) * 1000000;
+    int ilatBase = ( lat + 90 ) * 1000000;
+
+    for( int lonIdx = 0; lonIdx < 400; lonIdx++ )
+    {
+      for( int latIdx = 0; latIdx < 400; latIdx++ )
+      {
+        nodesCache.loadSegmentFor( ilonBase + lonIdx*12500 + 6250, ilatBase + latIdx*12500 + 6250 );
+      }
+    }
+    List<OsmNode> nodes = nodesCache.getAllNodes();
+    if ( decode )
+    {
+      for( OsmNode node : nodes )
+      {
+        nodesCache.obtainNonHollowNode( node );
+      }
+    }
+    nodesCache.close();
+    return nodes;
+  }
+
+  private void addNode( OsmNode node )
+  {
+    int idx = indexOf( node.getIdFromPos() );
+
+    if ( node.nodeDescription != 0L )
+    {
+      expctxNode.evaluate( node.nodeDescription, null );
+      float initialcost = expctxNode.getInitialcost();
+      nodeCost[idx] = initialcost >= 1000000. ? -1 : (int)initialcost;
+    }
+
+    // links written in full detail at this node
+    for( OsmLink link = node.firstlink; link != null; link = link.next )
+    {
+      if ( link.counterLinkWritten ) continue;
+      int targetIdx = indexOf( link.targetNode.getIdFromPos() );
+      if ( targetIdx < 0 ) continue;
+      int cost = calcLinkCost( node.ilon, node.ilat, link );
+      if ( cost >= 0 ) addEdge( idx, targetIdx, cost, -1 );
+    }
+
+    // and their counter-direction, read in reverse
+    OsmLink rlink = new OsmLink();
+    rlink.targetNode = node;
+    for( OsmLink link = node.firstlink; link != null; link = link.next )
+    {
+      if ( link.counterLinkWritten ) continue;
+      int originIdx = indexOf( link.targetNode.getIdFromPos() );
+      if ( originIdx < 0 ) continue;
+      rlink.setDetailsReversedFrom( link );
+      int cost = calcLinkCost( link.targetNode.ilon, link.targetNode.ilat, rlink );
+      if ( cost >= 0 ) addEdge( originIdx, idx, cost, -1 );
+    }
+  }
+
+  // the distance-cost of a link as calculated in OsmPath, -1 if not passable
+  private int calcLinkCost( int lon1, int lat1, OsmLink link )
+  {
+    int cost = 0;
+    transferNodes.init( link );
+    for(;;)
+    {
+      int lon2;
+      int lat2;
+      long description;
+      boolean isTransfer = transferNodes.next();
+      if ( !isTransfer )
+      {
+        lon2 = link.targetNode.ilon;
+        lat2 = link.targetNode.ilat;
+        description = link.getDescriptionBitmap();
+      }
+      else
+      {
+        lon2 = transferNodes.ilon;
+        lat2 = transferNodes.ilat;
+        description = transferNodes.descriptionBitmap;
+      }
+      expctxWay.evaluate( description, null );
+      float costfactor = expctxWay.getCostfactor();
+      float fcost = calcDistance( lon1, lat1, lon2, lat2 ) * costfactor + 0.5f;
+      if ( costfactor >= 10000. || fcost + cost >= 2000000000. )
+      {
+        return -1;
+      }
+      if ( expctxWay.getTurncost() != 0.f || expctxWay.getInitialcost() != 0.f )
+      {
+        hasWayCosts = true;
+      }
+      cost += (int)fcost;
+      if ( !isTransfer )
+      {
+        return cost;
+      }
+      lon1 = lon2;
+      lat1 = lat2;
+    }
+  }
+
+  private static int calcDistance( int lon1, int lat1, int lon2, int lat2 )
+  {
+    double l = (lat2 - 90000000) * 0.00000001234134;
+    double l2 = l*l;
+    double l4 = l2*l2;
+    double coslat = 1.- l2 + l4 / 6.;
+    double coslat6 = coslat*0.000001;
+
+    double dx = (lon2 - lon1 ) * coslat6;
+    double dy = (lat2 - lat1 ) * 0.000001;
+    double d = Math.sqrt( dy*dy + dx*dx );
+    double dd = d * 111894.7368; //  6378000. / 57.;
+    return (int)(dd + 1.0 );
+  }
+
+  protected int indexOf( long id )
+  {
+    int idx = Arrays.binarySearch( nodeIds, id );
+    return idx < 0 ? -1 : idx;
+  }
+
+  protected int addEdge( int from, int to, int cost, int middle )
+  {
+    if ( edgeCount == edgeFrom.length )
+    {
+      int n = 2*edgeCount;
+      edgeFrom = Arrays.copyOf( edgeFrom, n );
+      edgeTo = Arrays.copyOf( edgeTo, n );
+      edgeCost = Arrays.copyOf( edgeCost, n );
+      edgeMiddle = Arrays.copyOf( edgeMiddle, n );
+    }
+    edgeFrom[edgeCount] = from;
+    edgeTo[edgeCount] = to;
+    edgeCost[edgeCount] = cost;
+    edgeMiddle[edgeCount] = middle;
+    return edgeCount++;
+  }
+
+  private void buildAdjacency()
+  {
+    outEdges = new int[nodeCount][];
+    outCount = new int[nodeCount];
+    inEdges = new int[nodeCount][];
+    inCount = new int[nodeCount];
+
+    // add the node costs and drop the links into blocked nodes
+    for( int e=0; e<edgeCount; e++ )
+    {
+      int toCost = nodeCost[edgeTo[e]];
+      if ( toCost < 0 )
+      {
+        edgeCost[e] = -1;
+        continue;
+      }
+      edgeCost[e] += toCost;
+      addAdjacency( e );
+    }
+  }
+
+  protected void addAdjacency( int e )
+  {
+    int from = edgeFrom[e];
+    int to = edgeTo[e];
+    outEdges[from] = addToList( outEdges[from], outCount[from]++, e );
+    inEdges[to] = addToList( inEdges[to], inCount[to]++, e );
+  }
+
+  private static int[] addToList( int[] list, int size, int e )
+  {
+    if ( list == null ) list = new int[4];
+    else if ( size == list.length ) list = Arrays.copyOf( list, 2*size );
+    list[size] = e;
+    return list;
+  }
+}
@@ -0,0 +1,65 @@
+package btools.mapcreator;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import btools.router.OsmNodeNamed;
+import btools.router.OsmTrack;
+import btools.router.RoutingContext;
+import btools.router.RoutingEngine;
+
+public class BidirectionalSearchTest
+{
+  private static final double[][][] routes =
+  {
+    { { 8.7024591, 50.0082013 }, { 8.7235414, 50.0018304 } },
+    { { 8.7091886, 50.0099326 }, { 8.723658, 49.997510 } },
+    { { 8.7024591, 50.0082013 }, { 8.720897, 50.002515 }, { 8.7091886, 50.0099326 }, { 8.723658, 49.997510 } },
+    { { 8.7150, 50.0030 }, { 8.7152, 50.0031 } },
+  };
+
+  private static final String[] profiles = { "trekking", "car-test", "shortest", "fastbike" };
+
+  @Test
+  public void bidirectionalCostTest() throws Exception
+  {
+    File segmentDir = TestSegments.getSegmentDir();
+
+    int found = 0;
+    for( String profile : profiles )
+    {
+      for( int ri=0; ri<routes.length; ri++ )
+      {
+        String key = profile + " route " + ri;
+        OsmTrack track = route( segmentDir, profile, routes[ri], false );
+        OsmTrack biTrack = route( segmentDir, profile, routes[ri], true );
+        Assert.assertEquals( key + " found", track != null, biTrack != null );
+        if ( track != null )
+        {
+          Assert.assertEquals( key + " cost", track.cost, biTrack.cost );
+          found++;
+        }
+      }
+    }
+    Assert.assertTrue( "no routes found", found > 0 );
+  }
+
+  private OsmTrack route( File segmentDir, String profile, double[][] positions, boolean bidirectional ) throws Exception
+  {
+    List<OsmNodeNamed> wps = new ArrayList<OsmNodeNamed>();
+    for( int i=0; i<positions.length; i++ )
+    {
+      wps.add( TestSegments.createPosition( "wp" + i, positions[i][0], positions[i][1] ) );
+    }
+    RoutingContext rc = TestSegments.createContext( profile );
+    RoutingEngine re = new RoutingEngine( null, null, segmentDir.getPath(), wps, rc );
+    rc.bidirectional = bidirectional; // after the profile is parsed
+    re.quite = true;
+    re.doRun( 0 );
+    return re.getFoundTrack();
+  }
+}
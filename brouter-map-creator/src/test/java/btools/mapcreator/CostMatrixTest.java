@@ -0,0 +1,84 @@
+package btools.mapcreator;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import btools.router.CostMatrix;
+import btools.router.OsmNodeNamed;
+import btools.router.OsmTrack;
+import btools.router.RoutingEngine;
+
+public class CostMatrixTest
+{
+  private static final double[][] positions =
+  {
+    { 8.7024591, 50.0082013 },
+    { 8.7091886, 50.0099326 },
+    { 8.7235414, 50.0018304 },
+    { 8.720897, 50.002515 },
+    { 8.723658, 49.997510 },
+  };
+
+  @Test
+  public void costMatrixTest() throws Exception
+  {
+    File segmentDir = TestSegments.getSegmentDir();
+    File profileDir = TestSegments.getProfileDir();
+
+    checkMatrix( segmentDir, new File( profileDir, "trekking.brf" ) );
+    checkMatrix( segmentDir, new File( profileDir, "car-test.brf" ) );
+  }
+
+  // each matrix entry must be the cost of the single route
+  private void checkMatrix( File segmentDir, File profile )
+  {
+    List<OsmNodeNamed> wps = new ArrayList<OsmNodeNamed>();
+    for( int i=0; i<positions.length; i++ )
+    {
+      wps.add( createPosition( "p" + i, positions[i] ) );
+    }
+    RoutingEngine re = new RoutingEngine( null, null, segmentDir.getPath(), null, TestSegments.createContext( profile ) );
+    CostMatrix matrix = re.calcCostMatrix( wps, wps, 0 );
+
+    int found = 0;
+    for( int i=0; i<positions.length; i++ )
+    {
+      for( int j=0; j<positions.length; j++ )
+      {
+        String key = profile.getName() + " " + i + "->" + j;
+        if ( i == j )
+        {
+          if ( matrix.getCost( i, j ) >= 0 )
+          {
+            Assert.assertEquals( key, 0, matrix.getCost( i, j ) );
+            Assert.assertEquals( key, 0, matrix.getDistance( i, j ) );
+          }
+          continue;
+        }
+        List<OsmNodeNamed> routeWps = new ArrayList<OsmNodeNamed>();
+        routeWps.add( createPosition( "from", positions[i] ) );
+        routeWps.add( createPosition( "to", positions[j] ) );
+        RoutingEngine routeEngine = new RoutingEngine( null, null, segmentDir.getPath(), routeWps, TestSegments.createContext( profile ) );
+        routeEngine.quite = true;
+        routeEngine.doRun( 0 );
+        OsmTrack track = routeEngine.getFoundTrack();
+
+        Assert.assertEquals( key, track == null ? -1 : track.cost, matrix.getCost( i, j ) );
+        if ( track != null )
+        {
+          found++;
+        }
+      }
+    }
+    Assert.assertTrue( "no routes found for " + profile.getName(), found > 0 );
+  }
+
+  private OsmNodeNamed createPosition( String name, double[] pos )
+  {
+    return TestSegments.createPosition( name, pos[0], pos[1] );
+  }
+}
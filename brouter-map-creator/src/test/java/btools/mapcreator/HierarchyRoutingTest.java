@@ -0,0 +1,90 @@
+package btools.mapcreator;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import btools.mapaccess.HierarchyCache;
+import btools.router.OsmNodeNamed;
+import btools.router.OsmTrack;
+import btools.router.RoutingContext;
+import btools.router.RoutingEngine;
+
+public class HierarchyRoutingTest
+{
+  private static final double[][] positions =
+  {
+    { 8.7024591, 50.0082013 },
+    { 8.7091886, 50.0099326 },
+    { 8.7235414, 50.0018304 },
+    { 8.720897, 50.002515 },
+    { 8.723658, 49.997510 },
+  };
+
+  @Test
+  public void hierarchyCostTest() throws Exception
+  {
+    File segmentDir = TestSegments.getSegmentDir();
+    File profile = new File( TestSegments.getWorkingDir(), "car-plain.brf" );
+
+    int found = 0;
+    for( int i=0; i<positions.length; i++ )
+    {
+      for( int j=0; j<positions.length; j++ )
+      {
+        if ( i == j ) continue;
+        String key = "route " + i + "->" + j;
+        OsmTrack track = route( segmentDir, profile, positions[i], positions[j], false );
+        OsmTrack chTrack = route( segmentDir, profile, positions[i], positions[j], true );
+        Assert.assertEquals( key + " found", track != null, chTrack != null );
+        if ( track != null )
+        {
+          Assert.assertEquals( key + " cost", track.cost, chTrack.cost );
+          found++;
+        }
+      }
+    }
+    Assert.assertTrue( "no routes found", found > 0 );
+  }
+
+  @Test
+  public void turnCostProfileRefusedTest() throws Exception
+  {
+    File segmentDir = TestSegments.getSegmentDir();
+    File workingDir = TestSegments.getWorkingDir();
+
+    boolean refused = false;
+    try
+    {
+      new HierarchyBuilder().process( new File( workingDir, "lookups.dat" ), new File( workingDir, "car-test.brf" ),
+                                      new File( segmentDir, "carsubset" ), "cd5" );
+    }
+    catch( IllegalArgumentException iae )
+    {
+      refused = true;
+    }
+    Assert.assertTrue( "hierarchy built for a profile with turn costs", refused );
+  }
+
+  private OsmTrack route( File segmentDir, File profile, double[] from, double[] to, boolean useHierarchy )
+  {
+    List<OsmNodeNamed> wps = new ArrayList<OsmNodeNamed>();
+    wps.add( TestSegments.createPosition( "from", from[0], from[1] ) );
+    wps.add( TestSegments.createPosition( "to", to[0], to[1] ) );
+    RoutingContext rc = TestSegments.createContext( profile );
+    RoutingEngine re = new RoutingEngine( null, null, segmentDir.getPath(), wps, rc );
+    if ( useHierarchy )
+    {
+      // the sidecar must match the profile, else this compares the plain search with itself
+      HierarchyCache hierarchyCache = new HierarchyCache( segmentDir.getPath(), rc.carMode, rc.expctxWay.lookupVersion, rc.profileCrc );
+      Assert.assertNotNull( "no hierarchy for " + profile, hierarchyCache.getTileFor( wps.get( 0 ).getIdFromPos() ) );
+    }
+    rc.useHierarchy = useHierarchy; // after the profile is parsed
+    re.quite = true;
+    re.doRun( 0 );
+    return re.getFoundTrack();
+  }
+}
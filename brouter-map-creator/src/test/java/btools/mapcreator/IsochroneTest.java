@@ -0,0 +1,143 @@
+package btools.mapcreator;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import btools.router.CostMatrix;
+import btools.router.Isochrone;
+import btools.router.OsmNodeNamed;
+import btools.router.OsmPathElement;
+import btools.router.OsmTrack;
+import btools.router.RoutingEngine;
+
+public class IsochroneTest
+{
+  private static final double[][] positions =
+  {
+    { 8.7024591, 50.0082013 },
+    { 8.7091886, 50.0099326 },
+    { 8.7235414, 50.0018304 },
+    { 8.720897, 50.002515 },
+    { 8.723658, 49.997510 },
+  };
+
+  @Test
+  public void isochroneTest() throws Exception
+  {
+    File segmentDir = TestSegments.getSegmentDir();
+
+    // with turn costs, a route to the position of a node may have to take a
+    // costlier approach than the cheapest arrival, so the nodes are routed
+    // to only with the profile without turn and initial costs
+    checkIsochrone( segmentDir, new File( TestSegments.getProfileDir(), "trekking.brf" ), false );
+    checkIsochrone( segmentDir, new File( TestSegments.getWorkingDir(), "car-plain.brf" ), true );
+  }
+
+  // the isochrone of the first position, with the limit between the matrix costs to the others
+  private void checkIsochrone( File segmentDir, File profile, boolean routeNodes )
+  {
+    String key = profile.getName();
+    OsmNodeNamed origin = createPosition( "origin", positions[0] );
+    List<OsmNodeNamed> origins = new ArrayList<OsmNodeNamed>();
+    origins.add( origin );
+    List<OsmNodeNamed> targets = new ArrayList<OsmNodeNamed>();
+    for( int i=1; i<positions.length; i++ )
+    {
+      targets.add( createPosition( "p" + i, positions[i] ) );
+    }
+    RoutingEngine matrixEngine = new RoutingEngine( null, null, segmentDir.getPath(), null, TestSegments.createContext( profile ) );
+    CostMatrix matrix = matrixEngine.calcCostMatrix( origins, targets, 0 );
+
+    int minCost = Integer.MAX_VALUE;
+    int maxCost = -1;
+    for( int j=0; j<targets.size(); j++ )
+    {
+      int cost = matrix.getCost( 0, j );
+      if ( cost < 0 ) continue;
+      minCost = Math.min( minCost, cost );
+      maxCost = Math.max( maxCost, cost );
+    }
+    Assert.assertTrue( key + " no matrix target reached", maxCost > 0 );
+    int limit = ( minCost + maxCost ) / 2;
+
+    RoutingEngine isoEngine = new RoutingEngine( null, null, segmentDir.getPath(), null, TestSegments.createContext( profile ) );
+    Isochrone isochrone = isoEngine.calcIsochrone( origin, limit, 0 );
+    Assert.assertTrue( key + " isochrone empty", isochrone.getNodeCount() > 0 );
+
+    HashMap<Long,Integer> nodeCosts = new HashMap<Long,Integer>();
+    for( int i=0; i<isochrone.getNodeCount(); i++ )
+    {
+      int nodeCost = isochrone.getNodeCost( i );
+      Assert.assertTrue( key + " node " + i + " cost " + nodeCost + " above the limit " + limit, nodeCost <= limit );
+      nodeCosts.put( Long.valueOf( getId( isochrone.getNodeLon( i ), isochrone.getNodeLat( i ) ) ), Integer.valueOf( nodeCost ) );
+
+      if ( routeNodes )
+      {
+        OsmNodeNamed node = new OsmNodeNamed();
+        node.name = "node" + i;
+        node.ilon = isochrone.getNodeLon( i );
+        node.ilat = isochrone.getNodeLat( i );
+        OsmTrack track = route( segmentDir, profile, origin, node );
+        Assert.assertNotNull( key + " no route to node " + i, track );
+        OsmPathElement reached = getElement( track, node.ilon, node.ilat );
+        Assert.assertNotNull( key + " route to node " + i + " misses the node", reached );
+        Assert.assertTrue( key + " route reaches node " + i + " at " + reached.cost + ", isochrone " + nodeCost, reached.cost <= nodeCost );
+      }
+    }
+
+    // the matrix targets within the limit: the last node of their route is in the isochrone
+    int inside = 0;
+    for( int j=0; j<targets.size(); j++ )
+    {
+      int cost = matrix.getCost( 0, j );
+      if ( cost < 0 || cost > limit ) continue;
+      OsmTrack track = route( segmentDir, profile, origin, targets.get( j ) );
+      Assert.assertNotNull( key + " no route to target " + j, track );
+      OsmPathElement last = track.nodes.get( track.nodes.size()-2 );
+      Integer nodeCost = nodeCosts.get( Long.valueOf( getId( last.getILon(), last.getILat() ) ) );
+      Assert.assertNotNull( key + " target " + j + " (cost " + cost + ") not reached", nodeCost );
+      Assert.assertTrue( key + " target " + j + " reached at " + nodeCost + ", routed " + last.cost, nodeCost.intValue() <= last.cost );
+      inside++;
+    }
+    Assert.assertTrue( key + " no matrix target within the limit " + limit, inside > 0 );
+  }
+
+  private OsmTrack route( File segmentDir, File profile, OsmNodeNamed from, OsmNodeNamed to )
+  {
+    List<OsmNodeNamed> wps = new ArrayList<OsmNodeNamed>();
+    wps.add( from );
+    wps.add( to );
+    RoutingEngine re = new RoutingEngine( null, null, segmentDir.getPath(), wps, TestSegments.createContext( profile ) );
+    re.quite = true;
+    re.doRun( 0 );
+    return re.getFoundTrack();
+  }
+
+  // the first track element at the given position, the end of the track is snapped to a way
+  private static OsmPathElement getElement( OsmTrack track, int ilon, int ilat )
+  {
+    for( OsmPathElement e : track.nodes )
+    {
+      if ( e.getILon() == ilon && e.getILat() == ilat )
+      {
+        return e;
+      }
+    }
+    return null;
+  }
+
+  private static long getId( int ilon, int ilat )
+  {
+    return ((long)ilon) << 32 | ilat;
+  }
+
+  private OsmNodeNamed createPosition( String name, double[] pos )
+  {
+    return TestSegments.createPosition( name, pos[0], pos[1] );
+  }
+}
@@ -0,0 +1,101 @@
+package btools.mapcreator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import btools.router.OsmNodeNamed;
+import btools.router.OsmTrack;
+import btools.router.RoutingEngine;
+
+public class LandmarkRoutingTest
+{
+  private static final double[][] positions =
+  {
+    { 8.7024591, 50.0082013 },
+    { 8.7091886, 50.0099326 },
+    { 8.7235414, 50.0018304 },
+    { 8.720897, 50.002515 },
+    { 8.723658, 49.997510 },
+  };
+
+  private int linksProcessed;
+
+  @Test
+  public void landmarkCostTest() throws Exception
+  {
+    File segmentDir = TestSegments.getSegmentDir();
+    File workingDir = TestSegments.getWorkingDir();
+    File profile = new File( workingDir, "car-test.brf" );
+
+    // the same profile with another checksum has no landmarks
+    File plainProfile = new File( workingDir, "car-test-nolandmarks.brf" );
+    copyWithComment( profile, plainProfile );
+
+    int found = 0;
+    int plainLinks = 0;
+    int landmarkLinks = 0;
+    for( int i=0; i<positions.length; i++ )
+    {
+      for( int j=0; j<positions.length; j++ )
+      {
+        if ( i == j ) continue;
+        String key = "route " + i + "->" + j;
+        OsmTrack track = route( segmentDir, plainProfile, positions[i], positions[j] );
+        plainLinks += linksProcessed;
+        OsmTrack lmTrack = route( segmentDir, profile, positions[i], positions[j] );
+        landmarkLinks += linksProcessed;
+        Assert.assertEquals( key + " found", track != null, lmTrack != null );
+        if ( track != null )
+        {
+          Assert.assertEquals( key + " cost", track.cost, lmTrack.cost );
+          found++;
+        }
+      }
+    }
+    Assert.assertTrue( "no routes found", found > 0 );
+    Assert.assertTrue( "landmarks not used: links " + landmarkLinks + " vs " + plainLinks, landmarkLinks < plainLinks );
+  }
+
+  private OsmTrack route( File segmentDir, File profile, double[] from, double[] to )
+  {
+    List<OsmNodeNamed> wps = new ArrayList<OsmNodeNamed>();
+    wps.add( TestSegments.createPosition( "from", from[0], from[1] ) );
+    wps.add( TestSegments.createPosition( "to", to[0], to[1] ) );
+    RoutingEngine re = new RoutingEngine( null, null, segmentDir.getPath(), wps, TestSegments.createContext( profile ) );
+    re.quite = true;
+    re.doRun( 0 );
+    linksProcessed = re.getLinksProcessed();
+    return re.getFoundTrack();
+  }
+
+  private static void copyWithComment( File from, File to ) throws IOException
+  {
+    InputStream is = new FileInputStream( from );
+    OutputStream os = new FileOutputStream( to );
+    try
+    {
+      byte[] buf = new byte[4096];
+      for(;;)
+      {
+        int len = is.read( buf );
+        if ( len < 0 ) break;
+        os.write( buf, 0, len );
+      }
+      os.write( "\n# copy without landmarks\n".getBytes( "UTF-8" ) );
+    }
+    finally
+    {
+      is.close();
+      os.close();
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package btools.mapcreator;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import btools.router.OsmNodeNamed;
+import btools.router.OsmPathElement;
+import btools.router.OsmTrack;
+import btools.router.RoutingEngine;
+
+public class ParallelLegsTest
+{
+  private static final double[][] positions =
+  {
+    { 8.7024591, 50.0082013 },
+    { 8.720897, 50.002515 },
+    { 8.7091886, 50.0099326 },
+    { 8.7235414, 50.0018304 },
+    { 8.723658, 49.997510 },
+  };
+
+  @Test
+  public void parallelLegsTest() throws Exception
+  {
+    File segmentDir = TestSegments.getSegmentDir();
+    checkLegs( segmentDir, "trekking" );
+    checkLegs( segmentDir, "car-test" );
+  }
+
+  // the parallel legs must give the same track as the serial legs
+  private void checkLegs( File segmentDir, String profile ) throws Exception
+  {
+    OsmTrack serial = route( segmentDir, profile, "1" );
+    OsmTrack parallel = route( segmentDir, profile, "4" );
+    Assert.assertNotNull( profile + " serial track", serial );
+    Assert.assertNotNull( profile + " parallel track", parallel );
+
+    Assert.assertEquals( profile + " cost", serial.cost, parallel.cost );
+    Assert.assertEquals( profile + " node count", serial.nodes.size(), parallel.nodes.size() );
+    for( int i=0; i<serial.nodes.size(); i++ )
+    {
+      OsmPathElement n1 = serial.nodes.get( i );
+      OsmPathElement n2 = parallel.nodes.get( i );
+      Assert.assertEquals( profile + " node " + i, n1.getIdFromPos(), n2.getIdFromPos() );
+      Assert.assertEquals( profile + " node cost " + i, n1.cost, n2.cost );
+    }
+  }
+
+  private OsmTrack route( File segmentDir, String profile, String legThreads ) throws Exception
+  {
+    List<OsmNodeNamed> wps = new ArrayList<OsmNodeNamed>();
+    for( int i=0; i<positions.length; i++ )
+    {
+      wps.add( TestSegments.createPosition( "wp" + i, positions[i][0], positions[i][1] ) );
+    }
+    String oldLegThreads = System.getProperty( "legThreads" );
+    try
+    {
+      System.setProperty( "legThreads", legThreads );
+      RoutingEngine re = new RoutingEngine( null, null, segmentDir.getPath(), wps, TestSegments.createContext( profile ) );
+      re.quite = true;
+      re.doRun( 0 );
+      return re.getFoundTrack();
+    }
+    finally
+    {
+      if ( oldLegThreads == null )
+      {
+        System.clearProperty( "legThreads" );
+      }
+      else
+      {
+        System.setProperty( "legThreads", oldLegThreads );
+      }
+    }
+  }
+}
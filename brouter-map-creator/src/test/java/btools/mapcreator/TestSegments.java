@@ -0,0 +1,137 @@
+package btools.mapcreator;
+
+import java.io.File;
+import java.net.URL;
+
+import org.junit.Assert;
+
+import btools.router.OsmNodeNamed;
+import btools.router.RoutingContext;
+
+/**
+ * The segments of the dreieich test map, created once per test run
+ * by the whole map-creator pipeline and shared by the routing tests.
+ *
+ * @author ab
+ */
+public final class TestSegments
+{
+  private static File segmentDir;
+
+  private TestSegments()
+  {
+  }
+
+  public static synchronized File getSegmentDir() throws Exception
+  {
+    if ( segmentDir == null )
+    {
+      segmentDir = createSegments();
+    }
+    return segmentDir;
+  }
+
+  /**
+   * @return the directory of the test map and of the profiles
+   * the segments and the sidecar files were created with
+   */
+  public static File getWorkingDir()
+  {
+    URL mapurl = TestSegments.class.getResource( "/dreieich.osm.gz" );
+    Assert.assertTrue( "test-osm-map dreieich.osm not found", mapurl != null );
+    return new File( mapurl.getFile() ).getParentFile();
+  }
+
+  public static File getProfileDir() throws Exception
+  {
+    File projectDir = new File( "." ).getCanonicalFile().getParentFile();
+    File profileDir = new File( projectDir, "misc/profiles2" );
+    Assert.assertTrue( "profiles not found: " + profileDir, profileDir.isDirectory() );
+    return profileDir;
+  }
+
+  public static RoutingContext createContext( String profileName ) throws Exception
+  {
+    return createContext( new File( getProfileDir(), profileName + ".brf" ) );
+  }
+
+  public static RoutingContext createContext( File profileFile )
+  {
+    RoutingContext rc = new RoutingContext();
+    rc.localFunction = profileFile.getPath();
+    return rc;
+  }
+
+  public static OsmNodeNamed createPosition( String name, double lon, double lat )
+  {
+    OsmNodeNamed n = new OsmNodeNamed();
+    n.name = name;
+    n.ilon = (int)( ( lon + 180. ) * 1000000. + 0.5 );
+    n.ilat = (int)( ( lat + 90. ) * 1000000. + 0.5 );
+    return n;
+  }
+
+  private static File createSegments() throws Exception
+  {
+    File workingDir = getWorkingDir();
+    File mapfile = new File( workingDir, "dreieich.osm.gz" );
+    File tmpdir = new File( workingDir, "tmp" );
+    tmpdir.mkdir();
+
+    // run OsmCutter
+    File nodetiles = new File( tmpdir, "nodetiles" );
+    nodetiles.mkdir();
+    File lookupFile = new File( workingDir, "lookups.dat" );
+    File wayFile = new File( tmpdir, "ways.dat" );
+    File relFile = new File( tmpdir, "cycleways.dat" );
+    new OsmCutter().process( lookupFile, nodetiles, wayFile, relFile, mapfile );
+
+    // run NodeFilter
+    File ftiles = new File( tmpdir, "ftiles" );
+    ftiles.mkdir();
+    new NodeFilter().process( nodetiles, wayFile, ftiles );
+
+    // run WayCutter
+    File waytiles = new File( tmpdir, "waytiles" );
+    waytiles.mkdir();
+    new WayCutter().process( ftiles, wayFile, waytiles, relFile );
+
+    // run WayCutter5
+    File waytiles55 = new File( tmpdir, "waytiles55" );
+    File bordernids = new File( tmpdir, "bordernids.dat" );
+    waytiles55.mkdir();
+    new WayCutter5().process( ftiles, waytiles, waytiles55, bordernids );
+
+    // run NodeCutter
+    File nodes55 = new File( tmpdir, "nodes55" );
+    nodes55.mkdir();
+    new NodeCutter().process( ftiles, nodes55 );
+
+    // run PosUnifier
+    File unodes55 = new File( tmpdir, "unodes55" );
+    File bordernodes = new File( tmpdir, "bordernodes.dat" );
+    unodes55.mkdir();
+    new PosUnifier().process( nodes55, unodes55, bordernids, bordernodes, "/private-backup/srtm" );
+
+    // run WayLinker
+    File segments = new File( tmpdir, "segments" );
+    segments.mkdir();
+    File profileAllFile = new File( workingDir, "all.brf" );
+    new WayLinker().process( unodes55, waytiles55, bordernodes, lookupFile, profileAllFile, segments, "rd5" );
+
+    // run WayLinker, car subset
+    File carsubset = new File( segments, "carsubset" );
+    carsubset.mkdir();
+    File profileCarFile = new File( workingDir, "car-test.brf" );
+    new WayLinker().process( unodes55, waytiles55, bordernodes, lookupFile, profileCarFile, carsubset, "cd5" );
+
+    // run HierarchyBuilder, car subset (car-test has turn costs)
+    File profileCarPlainFile = new File( workingDir, "car-plain.brf" );
+    new HierarchyBuilder().process( lookupFile, profileCarPlainFile, carsubset, "cd5" );
+
+    // run LandmarkBuilder, car subset
+    new LandmarkBuilder().process( lookupFile, profileCarFile, carsubset, "cd5", LandmarkBuilder.DEFAULT_LANDMARK_COUNT );
+
+    return segments;
+  }
+}
@@ -12,5 +12,5 @@ public interface DistanceChecker
    * known to the distance checker
    * @return true if close enough
    */
-  boolean isWithinRadius( int ilon0, int ilat0, OsmTransferNode firstTransfer, int ilon1, int ilat1 );
+  boolean isWithinRadius( int ilon0, int ilat0, TransferNodeCursor transferNodes, int ilon1, int ilat1 );
 }
@@ -0,0 +1,113 @@
+/**
+ * Access to the contraction-hierarchy sidecar files (.ch5)
+ *
+ * A hierarchy is computed for a fixed profile and belongs to
+ * the datafile it was computed from, so it is searched next to
+ * the file that NodesCache uses (carsubset/*.cd5 or *.rd5) and
+ * it is only used if lookup-version and profile-checksum match.
+ *
+ * The tiles are read-only, so they are kept in a process-wide
+ * cache shared by all routing threads. A file that was replaced
+ * (by modification time or size) is read again.
+ *
+ * @author ab
+ */
+package btools.mapaccess;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+public final class HierarchyCache
+{
+  // a tile read from a file, null if there is no such file
+  private static final class Entry
+  {
+    long modified;
+    long length;
+    HierarchyTile tile;
+  }
+
+  private static HashMap<String,Entry> tileCache = new HashMap<String,Entry>();
+
+  // the tiles resolved by this instance, including null for "not available"
+  private HashMap<Integer,HierarchyTile> tiles = new HashMap<Integer,HierarchyTile>();
+
+  private String segmentDir;
+  private boolean carMode;
+  private int lookupVersion;
+  private int profileCrc;
+
+  public HierarchyCache( String segmentDir, boolean carMode, int lookupVersion, int profileCrc )
+  {
+    this.segmentDir = segmentDir;
+    this.carMode = carMode;
+    this.lookupVersion = lookupVersion;
+    this.profileCrc = profileCrc;
+  }
+
+  /**
+   * @return the tile containing the given node, or null
+   * if there is no hierarchy for the profile at that position
+   */
+  public HierarchyTile getTileFor( long id )
+  {
+    Integer key = Integer.valueOf( SidecarFile.getTileKey( id ) );
+    if ( tiles.containsKey( key ) )
+    {
+      return tiles.get( key );
+    }
+    HierarchyTile tile = resolveTile( SidecarFile.getTileBase( (int)(id >> 32), (int)(id & 0xffffffff) ) );
+    tiles.put( key, tile );
+    return tile;
+  }
+
+  private HierarchyTile resolveTile( String filenameBase )
+  {
+    HierarchyTile tile = getTile( SidecarFile.getFile( segmentDir, carMode, filenameBase, "ch5" ) );
+    if ( tile == null || tile.lookupVersion != lookupVersion || tile.profileCrc != profileCrc )
+    {
+      return null;
+    }
+    return tile;
+  }
+
+  private static synchronized HierarchyTile getTile( File f )
+  {
+    String key = f.getPath();
+    long modified = f.lastModified();
+    long length = f.length();
+    Entry e = tileCache.get( key );
+    if ( e != null && e.modified == modified && e.length == length )
+    {
+      return e.tile;
+    }
+    HierarchyTile tile = null;
+    if ( f.exists() )
+    {
+      DataInputStream dis = null;
+      try
+      {
+        dis = new DataInputStream( new BufferedInputStream( new FileInputStream( f ) ) );
+        tile = new HierarchyTile( dis );
+      }
+      catch( IOException ioe )
+      {
+        throw new RuntimeException( "error reading hierarchy file " + f + ": " + ioe );
+      }
+      finally
+      {
+        if ( dis != null ) try { dis.close(); } catch( IOException ioe ) {}
+      }
+    }
+    e = new Entry();
+    e.modified = modified;
+    e.length = length;
+    e.tile = tile;
+    tileCache.put( key, e );
+    return tile;
+  }
+}
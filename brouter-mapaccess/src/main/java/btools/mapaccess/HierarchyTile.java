@@ -0,0 +1,85 @@
+/**
+ * The contraction-hierarchy data of a 5*5 tile
+ *
+ * For every node the edges to higher-ranked nodes are
+ * stored, either in forward direction (EDGE_UP: node->other)
+ * or in reverse direction (EDGE_DOWN: other->node), so the
+ * edges from all nodes give the complete hierarchy
+ *
+ * @author ab
+ */
+package btools.mapaccess;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+public final class HierarchyTile
+{
+  public static final byte EDGE_UP = 1;
+  public static final byte EDGE_DOWN = 2;
+
+  public static final long NO_MIDDLE = -1L;
+
+  public short lookupVersion;
+  public int profileCrc;
+
+  // the nodes, sorted by id
+  public long[] nodeIds;
+
+  // the edges of node i are in [edgeStart[i],edgeStart[i+1])
+  public int[] edgeStart;
+  public byte[] edgeDir;
+  public long[] edgeOther;
+  public int[] edgeCost;
+  public long[] edgeMiddle; // the contracted node for shortcuts, else NO_MIDDLE
+
+  public HierarchyTile( DataInputStream dis ) throws IOException
+  {
+    lookupVersion = dis.readShort();
+    profileCrc = dis.readInt();
+    int nodeCount = dis.readInt();
+    int edgeCount = dis.readInt();
+
+    nodeIds = new long[nodeCount];
+    edgeStart = new int[nodeCount+1];
+    edgeDir = new byte[edgeCount];
+    edgeOther = new long[edgeCount];
+    edgeCost = new int[edgeCount];
+    edgeMiddle = new long[edgeCount];
+
+    int e = 0;
+    for( int i=0; i<nodeCount; i++ )
+    {
+      nodeIds[i] = dis.readLong();
+      edgeStart[i] = e;
+      int n = dis.readInt();
+      for( int k=0; k<n; k++ )
+      {
+        edgeDir[e] = dis.readByte();
+        edgeOther[e] = dis.readLong();
+        edgeCost[e] = dis.readInt();
+        edgeMiddle[e] = dis.readLong();
+        e++;
+      }
+    }
+    edgeStart[nodeCount] = e;
+  }
+
+  /**
+   * @return the index of the given node, or -1 if not contained
+   */
+  public int indexOf( long id )
+  {
+    int lo = 0;
+    int hi = nodeIds.length - 1;
+    while( lo <= hi )
+    {
+      int mid = ( lo + hi ) >>> 1;
+      long mid_id = nodeIds[mid];
+      if ( mid_id < id ) lo = mid + 1;
+      else if ( mid_id > id ) hi = mid - 1;
+      else return mid;
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,123 @@
+/**
+ * Access to the landmark sidecar files (.lm5)
+ *
+ * Like the hierarchy, the landmark costs are computed for a
+ * fixed profile, so they are searched next to the datafile
+ * that NodesCache uses and only used if lookup-version and
+ * profile-checksum match. In addition, all tiles used by one
+ * instance must refer to the same set of landmarks.
+ *
+ * The tiles are kept process-wide, a file that was replaced (by
+ * modification time or size) is read again.
+ *
+ * @author ab
+ */
+package btools.mapaccess;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+public final class LandmarkCache
+{
+  // a tile read from a file, null if there is no such file
+  private static final class Entry
+  {
+    long modified;
+    long length;
+    LandmarkTile tile;
+  }
+
+  private static HashMap<String,Entry> tileCache = new HashMap<String,Entry>();
+
+  // the tiles resolved by this instance, including null for "not available"
+  private HashMap<Integer,LandmarkTile> tiles = new HashMap<Integer,LandmarkTile>();
+
+  private String segmentDir;
+  private boolean carMode;
+  private int lookupVersion;
+  private int profileCrc;
+  private long[] landmarkIds;
+
+  public LandmarkCache( String segmentDir, boolean carMode, int lookupVersion, int profileCrc )
+  {
+    this.segmentDir = segmentDir;
+    this.carMode = carMode;
+    this.lookupVersion = lookupVersion;
+    this.profileCrc = profileCrc;
+  }
+
+  /**
+   * @return the tile containing the given node, or null
+   * if there are no landmarks for the profile at that position
+   */
+  public LandmarkTile getTileFor( long id )
+  {
+    Integer key = Integer.valueOf( SidecarFile.getTileKey( id ) );
+    if ( tiles.containsKey( key ) )
+    {
+      return tiles.get( key );
+    }
+    LandmarkTile tile = resolveTile( SidecarFile.getTileBase( (int)(id >> 32), (int)(id & 0xffffffff) ) );
+    tiles.put( key, tile );
+    return tile;
+  }
+
+  private LandmarkTile resolveTile( String filenameBase )
+  {
+    LandmarkTile tile = getTile( SidecarFile.getFile( segmentDir, carMode, filenameBase, "lm5" ) );
+    if ( tile == null || tile.lookupVersion != lookupVersion || tile.profileCrc != profileCrc )
+    {
+      return null;
+    }
+    if ( landmarkIds == null )
+    {
+      landmarkIds = tile.landmarkIds;
+    }
+    else if ( !Arrays.equals( landmarkIds, tile.landmarkIds ) )
+    {
+      return null; // from a different run
+    }
+    return tile;
+  }
+
+  private static synchronized LandmarkTile getTile( File f )
+  {
+    String key = f.getPath();
+    long modified = f.lastModified();
+    long length = f.length();
+    Entry e = tileCache.get( key );
+    if ( e != null && e.modified == modified && e.length == length )
+    {
+      return e.tile;
+    }
+    LandmarkTile tile = null;
+    if ( f.exists() )
+    {
+      DataInputStream dis = null;
+      try
+      {
+        dis = new DataInputStream( new BufferedInputStream( new FileInputStream( f ) ) );
+        tile = new LandmarkTile( dis );
+      }
+      catch( IOException ioe )
+      {
+        throw new RuntimeException( "error reading landmark file " + f + ": " + ioe );
+      }
+      finally
+      {
+        if ( dis != null ) try { dis.close(); } catch( IOException ioe ) {}
+      }
+    }
+    e = new Entry();
+    e.modified = modified;
+    e.length = length;
+    e.tile = tile;
+    tileCache.put( key, e );
+    return tile;
+  }
+}
@@ -0,0 +1,68 @@
+/**
+ * The landmark data of a 5*5 tile: for every node the costs
+ * from and to each of the landmarks, -1 if not reachable
+ *
+ * @author ab
+ */
+package btools.mapaccess;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+public final class LandmarkTile
+{
+  public short lookupVersion;
+  public int profileCrc;
+
+  public long[] landmarkIds;
+
+  // the nodes, sorted by id
+  public long[] nodeIds;
+
+  // the costs of node i for landmark k are at [i*landmarkIds.length + k]
+  public int[] costFrom;
+  public int[] costTo;
+
+  public LandmarkTile( DataInputStream dis ) throws IOException
+  {
+    lookupVersion = dis.readShort();
+    profileCrc = dis.readInt();
+    int landmarkCount = dis.readInt();
+    landmarkIds = new long[landmarkCount];
+    for( int k=0; k<landmarkCount; k++ )
+    {
+      landmarkIds[k] = dis.readLong();
+    }
+    int nodeCount = dis.readInt();
+
+    nodeIds = new long[nodeCount];
+    costFrom = new int[nodeCount*landmarkCount];
+    costTo = new int[nodeCount*landmarkCount];
+
+    for( int i=0; i<nodeCount; i++ )
+    {
+      nodeIds[i] = dis.readLong();
+      int base = i*landmarkCount;
+      for( int k=0; k<landmarkCount; k++ ) costFrom[base+k] = dis.readInt();
+      for( int k=0; k<landmarkCount; k++ ) costTo[base+k] = dis.readInt();
+    }
+  }
+
+  /**
+   * @return the index of the given node, or -1 if not contained
+   */
+  public int indexOf( long id )
+  {
+    int lo = 0;
+    int hi = nodeIds.length - 1;
+    while( lo <= hi )
+    {
+      int mid = ( lo + hi ) >>> 1;
+      long mid_id = nodeIds[mid];
+      if ( mid_id < id ) lo = mid + 1;
+      else if ( mid_id > id ) hi = mid - 1;
+      else return mid;
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,125 @@
+/**
+ * The links found near a position by the spatial index of the segments
+ *
+ * A link is given by the id of its origin node and its position
+ * among the links of that node. Its distance is the one of its
+ * bounding box, a lower bound of the distance of the link itself.
+ * The order key gives an order of the links independent of the
+ * distance: the order the segments were queried in, then the node
+ * and link order within the segment.
+ *
+ * @author ab
+ */
+package btools.mapaccess;
+
+import java.util.Arrays;
+
+public final class LinkCandidates
+{
+  private long[] nodeIds = new long[64];
+  private int[] linkPositions = new int[64];
+  private double[] distances = new double[64];
+  private long[] orderKeys = new long[64];
+  private int size;
+
+  // the buffers for sorting, kept for the next sort
+  private long[] packed = new long[0];
+  private long[] sortedIds = new long[0];
+  private int[] sortedPositions = new int[0];
+  private double[] sortedDistances = new double[0];
+  private long[] sortedKeys = new long[0];
+
+  void add( long nodeId, int linkPosition, double distance, long orderKey )
+  {
+    if ( size == nodeIds.length )
+    {
+      nodeIds = Arrays.copyOf( nodeIds, 2*size );
+      linkPositions = Arrays.copyOf( linkPositions, 2*size );
+      distances = Arrays.copyOf( distances, 2*size );
+      orderKeys = Arrays.copyOf( orderKeys, 2*size );
+    }
+    nodeIds[size] = nodeId;
+    linkPositions[size] = linkPosition;
+    distances[size] = distance;
+    orderKeys[size] = orderKey;
+    size++;
+  }
+
+  public int size()
+  {
+    return size;
+  }
+
+  public void clear()
+  {
+    size = 0;
+  }
+
+  public long getNodeId( int i )
+  {
+    return nodeIds[i];
+  }
+
+  public int getLinkPosition( int i )
+  {
+    return linkPositions[i];
+  }
+
+  public double getDistance( int i )
+  {
+    return distances[i];
+  }
+
+  public long getOrderKey( int i )
+  {
+    return orderKeys[i];
+  }
+
+  /**
+   * Sort the candidates by ascending distance
+   */
+  public void sortByDistance()
+  {
+    // sort (distance,index) pairs packed into longs, the float bits
+    // of a non-negative distance sort like the distance itself
+    if ( packed.length < size )
+    {
+      packed = new long[nodeIds.length];
+    }
+    for( int i=0; i<size; i++ )
+    {
+      packed[i] = ((long)Float.floatToIntBits( (float)distances[i] )) << 32 | i;
+    }
+    Arrays.sort( packed, 0, size );
+
+    if ( sortedIds.length != nodeIds.length )
+    {
+      sortedIds = new long[nodeIds.length];
+      sortedPositions = new int[nodeIds.length];
+      sortedDistances = new double[nodeIds.length];
+      sortedKeys = new long[nodeIds.length];
+    }
+    for( int i=0; i<size; i++ )
+    {
+      int j = (int)( packed[i] & 0xffffffffL );
+      sortedIds[i] = nodeIds[j];
+      sortedPositions[i] = linkPositions[j];
+      sortedDistances[i] = distances[j];
+      sortedKeys[i] = orderKeys[j];
+    }
+
+    // swap, the unsorted arrays are the buffers of the next sort
+    long[] ids = nodeIds;
+    nodeIds = sortedIds;
+    sortedIds = ids;
+    int[] positions = linkPositions;
+    linkPositions = sortedPositions;
+    sortedPositions = positions;
+    double[] dists = distances;
+    distances = sortedDistances;
+    sortedDistances = dists;
+    long[] keys = orderKeys;
+    orderKeys = sortedKeys;
+    sortedKeys = keys;
+  }
+}
@@ -1,26 +1,78 @@
 /**
  * cache for a single square
  *
+ * The node bodies are decoded once, when the segment is loaded,
+ * into a graph of primitive arrays: the nodes, their links in
+ * compressed-row layout (the links of node i are linkStart[i]
+ * up to linkStart[i+1]) and the transfer-nodes of the links in
+ * the same layout. Descriptions are held as indexes into a table
+ * of the distinct description bitmaps of the segment.
+ *
+ * The arrays are never modified after loading, so a segment can
+ * be shared between threads without locking. The OsmNode/OsmLink
+ * objects of a search are created from it on demand. They carry
+ * the state of the search, the links read their description and
+ * transfer-nodes from the arrays, they do not copy them. A link
+ * written without details reads those of its counterpart in
+ * reverse, there are no separate reverse links.
+ *
+ * For waypoint-matching, a spatial index of the links is built
+ * on first use, a grid over the segment with the bounding boxes
+ * of the links. It is kept with the segment, so it is built
+ * once per process as well.
+ *
  * @author ab
  */
 package btools.mapaccess;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+
+import btools.util.HashLongMap;
 
 final class MicroCache
 {
+  // the nodes, sorted by id
   private long[] faid;
-  private int[] fapos;
+  private short[] nodeElev;
+  private int[] nodeDesc;
   private int size = 0;
-  private int delcount = 0;
-  private int delbytes = 0;
   private int p2size; // next power of 2 of size
 
-  // the object parsing position and length
+  // the links of the nodes
+  private int[] linkStart;
+  private int[] linkLon;
+  private int[] linkLat;
+  private int[] linkDesc;
+  private boolean[] linkSkipDetails;
+
+  // the transfer-nodes of the links
+  private int[] geometryStart;
+  private int[] geometryLon;
+  private int[] geometryLat;
+  private short[] geometryElev;
+  private int[] geometryDesc;
+
+  // the distinct description bitmaps, index 0 is the empty description
+  private long[] descriptions;
+  private int descCount;
+  private HashLongMap<Integer> descIndex; // while decoding only
+
+  // the spatial index of the links, built on first use
+  private static final int GRID = 8; // cells per side
+  private int lonBase;
+  private int latBase;
+  private volatile int[] cellStart; // set last, when the index is complete
+  private int[] cellLinks;
+  private int maxLinkWidth;
+  private int maxLinkHeight;
+  private int[] crossLinks; // skip-detail links to other segments
+
+  // the parsing position, within the io-buffer or the mapped datafile
   private byte[] ab;
+  private ByteBuffer mb;
   private int aboffset;
-  private int ablength;
 
   public MicroCache( OsmFile segfile, int lonIdx80, int latIdx80, byte[] iobuffer ) throws Exception
   {
@@ -32,72 +84,220 @@ final class MicroCache
 
      int subIdx = (latIdx80-80*latDegree)*80 + (lonIdx80-80*lonDegree);
 
+     lonBase = lonIdx80*12500;
+     latBase = latIdx80*12500;
+
      try
      {
-       ab = iobuffer;
-       int asize = segfile.getDataInputForSubIdx(subIdx, ab);
-       if ( asize == 0 )
+       int asize;
+       ByteBuffer buffer = segfile.getMappedBuffer();
+       if ( buffer != null )
        {
-         return;
+         asize = segfile.getSizeForSubIdx( subIdx );
+         if ( asize == 0 )
+         {
+           return;
+         }
+         mb = buffer;
+         aboffset = segfile.getOffsetForSubIdx( subIdx );
        }
-       if ( asize > iobuffer.length )
+       else
        {
-         ab = new byte[asize];
+         ab = iobuffer;
          asize = segfile.getDataInputForSubIdx(subIdx, ab);
+         if ( asize == 0 )
+         {
+           ab = null;
+           return;
+         }
+         if ( asize > iobuffer.length )
+         {
+           ab = new byte[asize];
+           asize = segfile.getDataInputForSubIdx(subIdx, ab);
+         }
+         aboffset = 0;
        }
-       aboffset = 0;
-       size = readInt();
-
-       // new array with only net data
-       byte[] nab = new byte[asize - 4 - size*8];
-       int noffset = 0;
-       faid = new long[size];
-       fapos = new int[size];
-       p2size = 0x40000000;
-       while( p2size > size ) p2size >>= 1;
-       
-       for(int i = 0; i<size; i++)
-       {
-         int ilon = readShort();
-         int ilat = readShort();
-         ilon += lonIdxBase;
-         ilat += latIdxBase;
-         long nodeId = ((long)ilon)<<32 | ilat;
-
-         faid[i] = nodeId;
-         int bodySize = readInt();
-         fapos[i] = noffset;
-         System.arraycopy( ab, aboffset, nab, noffset, bodySize );
-         aboffset += bodySize;
-         noffset += bodySize;
-       }
-       ab = nab;
+       decodeBodies( asize, lonIdxBase, latIdxBase );
      }
      catch( EOFException eof )
      {
      }
+     finally
+     {
+       ab = null;
+       mb = null;
+       descIndex = null;
+     }
+  }
+
+  // decode all node bodies into the arrays
+  private void decodeBodies( int asize, int lonIdxBase, int latIdxBase )
+  {
+    int aboffsetEnd = aboffset + asize;
+    size = readInt();
+    faid = new long[size];
+    nodeElev = new short[size];
+    nodeDesc = new int[size];
+    linkStart = new int[size+1];
+    p2size = 0x40000000;
+    while( p2size > size ) p2size >>= 1;
+
+    // upper bounds from the minimum record sizes, trimmed at the end
+    int bodyBytes = asize - 4 - size*8;
+    linkLon = new int[bodyBytes/5];
+    linkLat = new int[bodyBytes/5];
+    linkDesc = new int[bodyBytes/5];
+    linkSkipDetails = new boolean[bodyBytes/5];
+    geometryStart = new int[bodyBytes/5 + 1];
+    geometryLon = new int[bodyBytes/7];
+    geometryLat = new int[bodyBytes/7];
+    geometryElev = new short[bodyBytes/7];
+    geometryDesc = new int[bodyBytes/7];
+
+    descIndex = new HashLongMap<Integer>( 64 );
+    descriptions = new long[16];
+    descCount = 1;
+
+    int nLinks = 0;
+    int nGeometry = 0;
+    for(int i = 0; i<size; i++)
+    {
+      int ilon = readShort() + lonIdxBase;
+      int ilat = readShort() + latIdxBase;
+      faid[i] = ((long)ilon)<<32 | ilat;
+      int bodyEnd = readInt();
+      bodyEnd += aboffset;
+
+      nodeElev[i] = readShort();
+      while( aboffset < bodyEnd )
+      {
+        long description = 0L;
+        int linklon;
+        int linklat;
+        boolean skipDetails = false;
+        int geometryBegin = nGeometry;
+        for(;;)
+        {
+          int bitField = readByte();
+          if ( (bitField & OsmNode.EXTERNAL_BITMASK) != 0 )
+          {
+            // full position for external target
+            linklon = readInt();
+            linklat = readInt();
+          }
+          else
+          {
+            // reduced position for internal target
+            linklon = readShort() + lonIdxBase;
+            linklat = readShort() + latIdxBase;
+          }
+          if ( (bitField & OsmNode.WRITEDESC_BITMASK ) != 0 )
+          {
+            description = readLong();
+          }
+          if ( (bitField & OsmNode.NODEDESC_BITMASK ) != 0 )
+          {
+            nodeDesc[i] = descriptionIndex( readLong() );
+          }
+          if ( (bitField & OsmNode.SKIPDETAILS_BITMASK ) != 0 )
+          {
+            skipDetails = true;
+          }
+          int descIdx = descriptionIndex( description );
+          if ( (bitField & OsmNode.TRANSFERNODE_BITMASK ) == 0 )
+          {
+            linkDesc[nLinks] = descIdx;
+            break;
+          }
+          geometryLon[nGeometry] = linklon;
+          geometryLat[nGeometry] = linklat;
+          geometryElev[nGeometry] = readShort();
+          geometryDesc[nGeometry] = descIdx;
+          nGeometry++;
+        }
+
+        if ( linklon == ilon && linklat == ilat )
+        {
+          nGeometry = geometryBegin;
+          continue; // skip self-ref
+        }
+        linkLon[nLinks] = linklon;
+        linkLat[nLinks] = linklat;
+        linkSkipDetails[nLinks] = skipDetails;
+        geometryStart[nLinks] = geometryBegin;
+        nLinks++;
+      }
+      linkStart[i+1] = nLinks;
+    }
+    geometryStart[nLinks] = nGeometry;
+
+    if ( aboffset != aboffsetEnd ) throw new IllegalArgumentException( "segment size mismatch" );
+
+    linkLon = Arrays.copyOf( linkLon, nLinks );
+    linkLat = Arrays.copyOf( linkLat, nLinks );
+    linkDesc = Arrays.copyOf( linkDesc, nLinks );
+    linkSkipDetails = Arrays.copyOf( linkSkipDetails, nLinks );
+    geometryStart = Arrays.copyOf( geometryStart, nLinks+1 );
+    geometryLon = Arrays.copyOf( geometryLon, nGeometry );
+    geometryLat = Arrays.copyOf( geometryLat, nGeometry );
+    geometryElev = Arrays.copyOf( geometryElev, nGeometry );
+    geometryDesc = Arrays.copyOf( geometryDesc, nGeometry );
+    descriptions = Arrays.copyOf( descriptions, descCount );
+  }
+
+  // the index of a description in the table, adding it if not yet contained
+  private int descriptionIndex( long description )
+  {
+    if ( description == 0L )
+    {
+      return 0;
+    }
+    Integer idx = descIndex.get( description );
+    if ( idx != null )
+    {
+      return idx.intValue();
+    }
+    descIndex.put( description, Integer.valueOf( descCount ) );
+    if ( descCount == descriptions.length )
+    {
+      descriptions = Arrays.copyOf( descriptions, 2*descCount );
+    }
+    descriptions[descCount] = description;
+    return descCount++;
   }
 
   public int getSize()
   {
     return size;
   }
-  
+
   /**
-   * @return the value for "id",
-   * Throw an exception if not contained in the map.
+   * @return the approximate memory used by this segment. The spatial
+   * index is counted from the start, so the size does not change
+   * while the segment is cached.
    */
-  private boolean getAndClear( long id )
+  public int getMemorySize()
   {
     if ( size == 0 )
     {
-      return false;
+      return 64;
+    }
+    return 64 + size*18 + linkLon.length*(17+4) + geometryLon.length*14 + descriptions.length*8 + GRID*GRID*4;
+  }
+
+  /**
+   * @return the index of node "id", or -1 if not contained
+   */
+  private int indexOf( long id )
+  {
+    if ( size == 0 )
+    {
+      return -1;
     }
     long[] a = faid;
     int offset = p2size;
     int n = 0;
 
-    
     while ( offset> 0 )
     {
       int nn = n + offset;
@@ -107,72 +307,357 @@ final class MicroCache
       }
       offset >>= 1;
     }
-    if ( a[n] == id )
+    return a[n] == id ? n : -1;
+  }
+
+  /**
+   * Fill a hollow node with its elevation and its links.
+   * The target nodes are created as hollow nodes in the
+   * given nodes-map, if not yet contained.
+   *
+   * @param transferNodes  the cursor used for the distance-checker
+   */
+  public void fillNode( OsmNode node, OsmNodesMap nodesMap, DistanceChecker dc, TransferNodeCursor transferNodes )
+  {
+    int n = indexOf( node.getIdFromPos() );
+    if ( n < 0 )
+    {
+      return;
+    }
+    node.selev = nodeElev[n];
+    node.nodeDescription = descriptions[nodeDesc[n]];
+
+    OsmLink lastlink = null;
+    for( int li = linkStart[n]; li < linkStart[n+1]; li++ )
     {
-      if ( ( fapos[n] & 0x80000000 ) == 0 )
+      int linklon = linkLon[li];
+      int linklat = linkLat[li];
+
+      // performance shortcut: ignore link if out of reach
+      if ( dc != null && !linkSkipDetails[li] )
+      {
+        transferNodes.init( this, li, false );
+        if ( !dc.isWithinRadius( node.ilon, node.ilat, transferNodes, linklon, linklat ) )
+        {
+          continue;
+        }
+      }
+
+      OsmLink link = new OsmLink();
+      link.counterLinkWritten = linkSkipDetails[li];
+      link.source = this;
+      link.sourceLink = li;
+      if ( lastlink == null )
       {
-        aboffset = fapos[n];
-        ablength = ( n+1 < size ? fapos[n+1] & 0x7fffffff : ab.length ) - aboffset;
-        fapos[n] |= 0x80000000; // mark deleted
-        delbytes+= ablength;
-        delcount++;
-        return true;
+        node.firstlink = link;
       }
       else
       {
-        throw new RuntimeException( "MicroCache: node already consumed: id=" + id );
+        lastlink.next = link;
+      }
+      lastlink = link;
+
+      long targetNodeId = ((long)linklon)<<32 | linklat;
+      OsmNode tn = nodesMap.get( targetNodeId ); // target node
+      if ( tn == null )
+      {
+        // node not yet known, create a hollow proxy
+        tn = new OsmNode(linklon, linklat);
+        tn.setHollow();
+        nodesMap.put( targetNodeId, tn );
       }
+      link.targetNode = tn;
     }
-    return false;
   }
 
-  public void fillNode( OsmNode node, OsmNodesMap nodesMap, DistanceChecker dc )
+  /**
+   * Get the description of a link. In reverse direction, that is the
+   * reversed description of its first section in forward direction.
+   */
+  long getLinkDescription( int li, boolean reversed )
   {
-    long id = node.getIdFromPos();
-    if ( getAndClear( id ) )
+    if ( !reversed )
     {
-      node.parseNodeBody( this, ablength, nodesMap, dc );
+      return descriptions[linkDesc[li]];
     }
+    int gi = geometryStart[li];
+    return descriptions[gi < geometryStart[li+1] ? geometryDesc[gi] : linkDesc[li]] ^ 1L;
+  }
 
-    if ( delcount > size / 2 ) // garbage collection
+  int getTransferNodeCount( int li )
+  {
+    return geometryStart[li+1] - geometryStart[li];
+  }
+
+  /**
+   * Read the k-th transfer-node of the given link into the cursor.
+   * In reverse direction, a transfer-node carries the reversed
+   * description of the section that follows it in forward direction.
+   */
+  void readTransferNode( int li, int k, boolean reversed, TransferNodeCursor c )
+  {
+    int gi = reversed ? geometryStart[li+1] - 1 - k : geometryStart[li] + k;
+    c.ilon = geometryLon[gi];
+    c.ilat = geometryLat[gi];
+    c.selev = geometryElev[gi];
+    if ( reversed )
+    {
+      c.descriptionBitmap = descriptions[gi+1 < geometryStart[li+1] ? geometryDesc[gi+1] : linkDesc[li]] ^ 1L;
+    }
+    else
+    {
+      c.descriptionBitmap = descriptions[geometryDesc[gi]];
+    }
+  }
+
+  /**
+   * Collect the links whose bounding box is within the given distance
+   * of a position. The box distance is a lower bound of the distance of
+   * the link itself. Distances are in degrees, with the longitudes scaled
+   * by the cosine of the latitude, as for the radius of a waypoint.
+   *
+   * Links written in detail at a target node in another segment are
+   * resolved by the bounding box of that counterpart, loading the
+   * other segment through the nodes-cache.
+   *
+   * @param tag  the order of this segment among the segments queried
+   */
+  void collectLinksNear( int ilon, int ilat, double maxDistance, int tag, NodesCache nodesCache, LinkCandidates candidates )
+  {
+    if ( size == 0 )
+    {
+      return;
+    }
+    if ( cellStart == null )
     {
-      int nsize = size - delcount;
-      if ( nsize == 0 )
+      buildIndex();
+    }
+    int[] cells = cellStart;
+
+    double l = (ilat - 90000000) * 0.00000001234134;
+    double l2 = l*l;
+    double coslat6 = ( 1.- l2 + l2*l2 / 6. ) * 0.000001;
+
+    // the query range, anything beyond a segment covers it all
+    int dLat = maxDistance < 0.1 ? (int)( maxDistance * 1000000. ) + 1 : 100000;
+    int dLon = maxDistance < 100000 * coslat6 ? (int)( maxDistance / coslat6 ) + 1 : 100000;
+    int lonMin = cellOf( ilon - dLon - maxLinkWidth - lonBase );
+    int lonMax = cellOf( ilon + dLon - lonBase );
+    int latMin = cellOf( ilat - dLat - maxLinkHeight - latBase );
+    int latMax = cellOf( ilat + dLat - latBase );
+
+    int[] box = new int[8];
+    for( int cy = latMin; cy <= latMax; cy++ )
+    {
+      for( int cx = lonMin; cx <= lonMax; cx++ )
+      {
+        int c = cy*GRID + cx;
+        for( int j = cells[c]; j < cells[c+1]; j++ )
+        {
+          int li = cellLinks[j];
+          int n = nodeOfLink( li );
+          getIndexBox( n, li, box );
+          double d = boxDistance( box, 0, ilon, ilat, coslat6 );
+          if ( d <= maxDistance )
+          {
+            addCandidate( n, li, d, tag, candidates );
+          }
+        }
+      }
+    }
+
+    for( int li : crossLinks )
+    {
+      int n = nodeOfLink( li );
+      MicroCache target = nodesCache.getSegmentFor( linkLon[li], linkLat[li] );
+      if ( target == null || !target.getCounterpartBox( target.indexOf( ((long)linkLon[li])<<32 | linkLat[li] ), faid[n], box, 0 ) )
+      {
+        continue; // reverse link not found, not routable
+      }
+      double d = boxDistance( box, 0, ilon, ilat, coslat6 );
+      if ( d <= maxDistance )
+      {
+        addCandidate( n, li, d, tag, candidates );
+      }
+    }
+  }
+
+  private void addCandidate( int n, int li, double distance, int tag, LinkCandidates candidates )
+  {
+    int k = li - linkStart[n];
+    candidates.add( faid[n], k, distance, ((long)tag)<<40 | ((long)n)<<16 | k );
+  }
+
+  // the node of a link, by a binary search of the link starts
+  private int nodeOfLink( int li )
+  {
+    int lo = 0;
+    int hi = size - 1;
+    while( lo < hi )
+    {
+      int mid = ( lo + hi + 1 ) >>> 1;
+      if ( linkStart[mid] <= li )
       {
-        faid = null;
-        fapos = null;
+        lo = mid;
       }
       else
       {
-        long[] nfaid = new long[nsize];
-        int[] nfapos = new int[nsize];
-        int idx = 0;
+        hi = mid - 1;
+      }
+    }
+    return lo;
+  }
+
+  private static double boxDistance( int[] box, int b, int ilon, int ilat, double coslat6 )
+  {
+    int dLon = ilon < box[b] ? box[b] - ilon : ( ilon > box[b+2] ? ilon - box[b+2] : 0 );
+    int dLat = ilat < box[b+1] ? box[b+1] - ilat : ( ilat > box[b+3] ? ilat - box[b+3] : 0 );
+    double dx = dLon * coslat6;
+    double dy = dLat * 0.000001;
+    return Math.sqrt( dx*dx + dy*dy );
+  }
+
+  // the cell for an offset within the segment, clamped to the grid
+  private static int cellOf( int offset )
+  {
+    int c = offset < 0 ? 0 : offset / ( 12500 / GRID );
+    return c < GRID ? c : GRID-1;
+  }
+
+  // the bounding box of a link of node n, with its transfer-nodes
+  private void getLinkBox( int n, int li, int[] box, int b )
+  {
+    box[b] = box[b+2] = (int)(faid[n] >> 32);
+    box[b+1] = box[b+3] = (int)(faid[n] & 0xffffffffL);
+    extendBoxByLink( li, box, b );
+  }
 
-        byte[] nab = new byte[ab.length - delbytes];
-        int nab_off = 0;
-        for( int i=0; i<size; i++ )
+  private void extendBoxByLink( int li, int[] box, int b )
+  {
+    extendBox( box, b, linkLon[li], linkLat[li] );
+    for( int gi = geometryStart[li]; gi < geometryStart[li+1]; gi++ )
+    {
+      extendBox( box, b, geometryLon[gi], geometryLat[gi] );
+    }
+  }
+
+  // The box of a link within the index. A skip-detail link takes
+  // the box of its counterpart written in detail, if that is in
+  // this segment. The box is put at 0, 4 more entries are used
+  // as temporary space.
+  private void getIndexBox( int n, int li, int[] box )
+  {
+    getLinkBox( n, li, box, 0 );
+    if ( linkSkipDetails[li] && getCounterpartBox( indexOf( ((long)linkLon[li])<<32 | linkLat[li] ), faid[n], box, 4 ) )
+    {
+      extendBox( box, 0, box[4], box[5] );
+      extendBox( box, 0, box[6], box[7] );
+    }
+  }
+
+  /**
+   * Get the bounding box of the links written in detail from
+   * node t to the given origin, which is the geometry of the
+   * skip-detail link in the other direction
+   *
+   * @return false if there is no such link
+   */
+  private boolean getCounterpartBox( int t, long origin, int[] box, int b )
+  {
+    if ( t < 0 )
+    {
+      return false;
+    }
+    boolean found = false;
+    for( int ti = linkStart[t]; ti < linkStart[t+1]; ti++ )
+    {
+      if ( linkSkipDetails[ti] || ( ((long)linkLon[ti])<<32 | linkLat[ti] ) != origin )
+      {
+        continue;
+      }
+      if ( !found )
+      {
+        getLinkBox( t, ti, box, b );
+        found = true;
+      }
+      else
+      {
+        extendBoxByLink( ti, box, b );
+      }
+    }
+    return found;
+  }
+
+  private static void extendBox( int[] box, int b, int ilon, int ilat )
+  {
+    if ( ilon < box[b] ) box[b] = ilon;
+    if ( ilat < box[b+1] ) box[b+1] = ilat;
+    if ( ilon > box[b+2] ) box[b+2] = ilon;
+    if ( ilat > box[b+3] ) box[b+3] = ilat;
+  }
+
+  // Build the spatial index. Each link is registered in the cell of
+  // the lower left corner of its bounding box, so a query extends its
+  // range to the lower left by the largest link extent. The boxes are
+  // not kept, a query computes them again for the links of its cells.
+  // A skip-detail link with its counterpart in another segment is kept
+  // aside as a cross-link.
+  private synchronized void buildIndex()
+  {
+    if ( cellStart != null )
+    {
+      return;
+    }
+    int nLinks = linkLon.length;
+    int[] cell = new int[nLinks];
+    int[] starts = new int[GRID*GRID+1];
+    int[] box = new int[8];
+    int nCross = 0;
+    int maxWidth = 0;
+    int maxHeight = 0;
+    for( int i=0; i<size; i++ )
+    {
+      for( int li = linkStart[i]; li < linkStart[i+1]; li++ )
+      {
+        if ( linkSkipDetails[li] && indexOf( ((long)linkLon[li])<<32 | linkLat[li] ) < 0 )
         {
-      	  int pos = fapos[i];
-          if ( ( pos & 0x80000000 ) == 0 )
-          {
-            ablength = ( i+1 < size ? fapos[i+1] & 0x7fffffff : ab.length ) - pos;
-            System.arraycopy( ab, pos, nab, nab_off, ablength );
-            nfaid[idx] = faid[i];
-            nfapos[idx] = nab_off;
-            nab_off += ablength;
-            idx++;
-          }
+          cell[li] = -1;
+          nCross++;
+          continue;
         }
-        faid = nfaid;
-        fapos = nfapos;
-        ab = nab;
+        getIndexBox( i, li, box );
+        maxWidth = Math.max( maxWidth, box[2] - box[0] );
+        maxHeight = Math.max( maxHeight, box[3] - box[1] );
+        cell[li] = cellOf( box[1] - latBase ) * GRID + cellOf( box[0] - lonBase );
+        starts[cell[li]+1]++;
+      }
+    }
+
+    for( int c = 0; c < GRID*GRID; c++ )
+    {
+      starts[c+1] += starts[c];
+    }
+    int[] links = new int[nLinks - nCross];
+    int[] cross = new int[nCross];
+    int[] fill = Arrays.copyOf( starts, GRID*GRID );
+    nCross = 0;
+    for( int li = 0; li < nLinks; li++ )
+    {
+      if ( cell[li] < 0 )
+      {
+        cross[nCross++] = li;
+      }
+      else
+      {
+        links[fill[cell[li]]++] = li;
       }
-      size = nsize;
-      delcount = 0;
-      delbytes = 0;
-      p2size = 0x40000000;
-      while( p2size > size ) p2size >>= 1;
     }
+
+    cellLinks = links;
+    crossLinks = cross;
+    maxLinkWidth = maxWidth;
+    maxLinkHeight = maxHeight;
+    cellStart = starts;
   }
 
   public List<OsmNode> getPositions( OsmNodesMap nodesMap )
@@ -189,8 +674,14 @@ final class MicroCache
     return positions;
   }
 
-  public int readInt()
+  private int readInt()
   {
+      if ( mb != null )
+      {
+        int i = mb.getInt( aboffset );
+        aboffset += 4;
+        return i;
+      }
       int i3 = ab[aboffset++]& 0xff;
       int i2 = ab[aboffset++]& 0xff;
       int i1 = ab[aboffset++]& 0xff;
@@ -198,8 +689,14 @@ final class MicroCache
       return (i3 << 24) + (i2 << 16) + (i1 << 8) + i0;
   }
 
-  public long readLong()
+  private long readLong()
   {
+      if ( mb != null )
+      {
+        long l = mb.getLong( aboffset );
+        aboffset += 8;
+        return l;
+      }
       long i7 = ab[aboffset++]& 0xff;
       long i6 = ab[aboffset++]& 0xff;
       long i5 = ab[aboffset++]& 0xff;
@@ -211,20 +708,24 @@ final class MicroCache
       return (i7 << 56) + (i6 << 48) + (i5 << 40) + (i4 << 32) + (i3 << 24) + (i2 << 16) + (i1 << 8) + i0;
   }
 
-  public boolean readBoolean()
-  {
-      int i0 = ab[aboffset++]& 0xff;
-      return i0 != 0;
-  }
-
-  public byte readByte()
+  private byte readByte()
   {
+      if ( mb != null )
+      {
+        return mb.get( aboffset++ );
+      }
       int i0 = ab[aboffset++] & 0xff;
       return (byte)(i0);
   }
 
-  public short readShort()
+  private short readShort()
   {
+      if ( mb != null )
+      {
+        short s = mb.getShort( aboffset );
+        aboffset += 2;
+        return s;
+      }
       int i1 = ab[aboffset++] & 0xff;
       int i0 = ab[aboffset++] & 0xff;
       return (short)( (i1 << 8) | i0);
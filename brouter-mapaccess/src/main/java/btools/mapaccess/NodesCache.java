@@ -8,6 +8,8 @@ package btools.mapaccess;
 import java.util.*;
 import java.io.*;
 
+import btools.util.CompactLongSet;
+
 public final class NodesCache
 {
   private String segmentDir;
@@ -16,14 +18,18 @@ public final class NodesCache
   private boolean carMode;
   private String currentFileName;
 
-  private HashMap<String,RandomAccessFile> fileCache;
-  private HashMap<String,long[]> indexCache;
   private byte[] iobuffer;
   
   private OsmFile[][] fileRows = new OsmFile[180][];
   private ArrayList<MicroCache> segmentList = new ArrayList<MicroCache>();
+  private long segmentBytes; // the memory size of the segments in segmentList
 
   public DistanceChecker distanceChecker;
+  private TransferNodeCursor transferNodes = new TransferNodeCursor();
+
+  private SegmentPrefetcher prefetcher; // null if prefetching is off
+  private int lastPrefetchLonIdx80 = -1;
+  private int lastPrefetchLatIdx80 = -1;
   
   public boolean oom_carsubset_hint = false;
 
@@ -34,21 +40,32 @@ public final class NodesCache
     this.lookupVersion = lookupVersion;
     this.carMode = carMode;
 
+    // the datafiles and the decoded segments are shared process-wide (SegmentCache)
     if ( oldCache != null )
     {
-      fileCache = oldCache.fileCache;
-      indexCache = oldCache.indexCache;
       iobuffer = oldCache.iobuffer;
       oom_carsubset_hint = oldCache.oom_carsubset_hint;
+      prefetcher = oldCache.prefetcher;
     }
     else
     {
-      fileCache = new HashMap<String,RandomAccessFile>(4);
-      indexCache = new HashMap<String,long[]>(4);
       iobuffer = new byte[65636];
+      prefetcher = SegmentPrefetcher.create();
     }
   }
 
+  /**
+   * Create a cache for use in another thread, with its own io-buffer
+   */
+  public NodesCache( NodesCache oldCache )
+  {
+    this.segmentDir = oldCache.segmentDir;
+    this.lookupVersion = oldCache.lookupVersion;
+    this.carMode = oldCache.carMode;
+    iobuffer = new byte[65636];
+    prefetcher = SegmentPrefetcher.create();
+  }
+
   public int loadSegmentFor( int ilon, int ilat )
   {
     MicroCache mc = getSegmentFor( ilon, ilat );
@@ -63,28 +80,7 @@ public final class NodesCache
         int latIdx80 = ilat/12500;
         int lonDegree = lonIdx80/80;
         int latDegree = latIdx80/80;
-        OsmFile osmf = null;
-        OsmFile[] fileRow = fileRows[latDegree];
-        int ndegrees = fileRow == null ? 0 : fileRow.length;
-        for( int i=0; i<ndegrees; i++ )
-        {
-          if ( fileRow[i].lonDegree == lonDegree )
-          {
-            osmf = fileRow[i];
-            break;
-          }
-        }
-        if ( osmf == null )
-        {
-          osmf = fileForSegment( lonDegree, latDegree );
-          OsmFile[] newFileRow = new OsmFile[ndegrees+1];
-          for( int i=0; i<ndegrees; i++ )
-          {
-            newFileRow[i] = fileRow[i];
-          }
-          newFileRow[ndegrees] = osmf;
-          fileRows[latDegree] = newFileRow;
-        }
+        OsmFile osmf = getFileFor( lonDegree, latDegree );
         currentFileName = osmf.filename;
         if ( osmf.microCaches == null )
         {
@@ -94,11 +90,17 @@ public final class NodesCache
         MicroCache segment = osmf.microCaches[subIdx];
         if ( segment == null )
         {
-          // nodesMap.removeCompleteNodes();
-
-          segment = new MicroCache( osmf, lonIdx80, latIdx80, iobuffer );
+          if ( prefetcher != null )
+          {
+            segment = prefetcher.take( osmf, subIdx );
+          }
+          if ( segment == null )
+          {
+            segment = SegmentCache.getSegment( osmf, lonIdx80, latIdx80, subIdx, iobuffer );
+          }
           osmf.microCaches[subIdx] = segment;
           segmentList.add( segment );
+          segmentBytes += segment.getMemorySize();
         }
         return segment;
     }
@@ -113,6 +115,193 @@ public final class NodesCache
   }
 
 
+  private OsmFile getFileFor( int lonDegree, int latDegree ) throws Exception
+  {
+    OsmFile[] fileRow = fileRows[latDegree];
+    int ndegrees = fileRow == null ? 0 : fileRow.length;
+    for( int i=0; i<ndegrees; i++ )
+    {
+      if ( fileRow[i].lonDegree == lonDegree )
+      {
+        OsmFile osmf = fileRow[i];
+        if ( !osmf.acquired )
+        {
+          SegmentCache.acquireDataFile( osmf.dataFile );
+          osmf.acquired = true;
+        }
+        return osmf;
+      }
+    }
+    OsmFile osmf = fileForSegment( lonDegree, latDegree );
+    OsmFile[] newFileRow = new OsmFile[ndegrees+1];
+    for( int i=0; i<ndegrees; i++ )
+    {
+      newFileRow[i] = fileRow[i];
+    }
+    newFileRow[ndegrees] = osmf;
+    fileRows[latDegree] = newFileRow;
+    return osmf;
+  }
+
+  /**
+   * Request the segment at the given position to be loaded
+   * in the background, if prefetching is enabled
+   */
+  public void prefetchSegmentFor( int ilon, int ilat )
+  {
+    if ( prefetcher == null )
+    {
+      return;
+    }
+    try
+    {
+      int lonIdx80 = ilon/12500;
+      int latIdx80 = ilat/12500;
+      int lonDegree = lonIdx80/80;
+      int latDegree = latIdx80/80;
+      OsmFile osmf = getFileFor( lonDegree, latDegree );
+      if ( osmf.microCaches == null )
+      {
+        return;
+      }
+      int subIdx = (latIdx80-80*latDegree)*80 + (lonIdx80-80*lonDegree);
+      if ( osmf.microCaches[subIdx] == null )
+      {
+        prefetcher.request( osmf, lonIdx80, latIdx80, subIdx );
+      }
+    }
+    catch( Exception e )
+    {
+      // the synchronous load reports the error
+    }
+  }
+
+  /**
+   * Request the segments next to the given position in the
+   * direction of the target, once per segment the search enters
+   */
+  public void prefetchTowards( int ilon, int ilat, int targetLon, int targetLat )
+  {
+    int lonIdx80 = ilon/12500;
+    int latIdx80 = ilat/12500;
+    if ( prefetcher == null || ( lonIdx80 == lastPrefetchLonIdx80 && latIdx80 == lastPrefetchLatIdx80 ) )
+    {
+      return;
+    }
+    lastPrefetchLonIdx80 = lonIdx80;
+    lastPrefetchLatIdx80 = latIdx80;
+    int dLon = Integer.signum( targetLon/12500 - lonIdx80 ) * 12500;
+    int dLat = Integer.signum( targetLat/12500 - latIdx80 ) * 12500;
+    if ( dLon != 0 ) prefetchSegmentFor( ilon + dLon, ilat );
+    if ( dLat != 0 ) prefetchSegmentFor( ilon, ilat + dLat );
+    if ( dLon != 0 && dLat != 0 ) prefetchSegmentFor( ilon + dLon, ilat + dLat );
+  }
+
+  /**
+   * Drop the outstanding prefetch requests, at the end of a search
+   */
+  public void cancelPrefetch()
+  {
+    if ( prefetcher != null )
+    {
+      prefetcher.cancel();
+    }
+  }
+
+  /**
+   * Release the datafiles, at the end of a search or when the
+   * cache is dropped, so that a replaced datafile can be closed.
+   * The cache stays usable, a later access holds the files again
+   */
+  public void releaseFiles()
+  {
+    for( OsmFile[] fileRow : fileRows )
+    {
+      if ( fileRow == null ) continue;
+      for( OsmFile osmf : fileRow )
+      {
+        if ( osmf.acquired )
+        {
+          SegmentCache.releaseDataFile( osmf.dataFile );
+          osmf.acquired = false;
+        }
+      }
+    }
+  }
+
+  /**
+   * Collect the links near a position from the spatial index of
+   * the segment at the given segment position
+   *
+   * @param maxDistance  the distance limit, in degrees as for the radius of a waypoint
+   * @param segmentOrder  the order of this segment among the segments queried
+   */
+  public void collectLinksNear( int segmentLon, int segmentLat, int ilon, int ilat, double maxDistance, int segmentOrder, LinkCandidates candidates )
+  {
+    MicroCache segment = getSegmentFor( segmentLon, segmentLat );
+    if ( segment != null )
+    {
+      segment.collectLinksNear( ilon, ilat, maxDistance, segmentOrder, this, candidates );
+    }
+  }
+
+  /**
+   * @return the approximate memory used by the segments decoded
+   * for (or taken from the shared cache by) this cache
+   */
+  public long getSegmentBytes()
+  {
+    return segmentBytes;
+  }
+
+  /**
+   * Drop the segments that are completed, i.e. hold no hollow node
+   * of the nodes-map, so that they can be garbage collected (unless
+   * in the shared cache). A segment that is needed again is decoded
+   * again.
+   *
+   * @return the number of segments dropped
+   */
+  public int evictCompletedSegments()
+  {
+    CompactLongSet needed = new CompactLongSet();
+    nodesMap.collectHollowSegments( needed );
+
+    int evicted = 0;
+    segmentList.clear();
+    for( OsmFile[] fileRow : fileRows )
+    {
+      if ( fileRow == null ) continue;
+      for( OsmFile osmf : fileRow )
+      {
+        if ( osmf.microCaches == null ) continue;
+        for( int subIdx=0; subIdx<6400; subIdx++ )
+        {
+          MicroCache segment = osmf.microCaches[subIdx];
+          if ( segment == null ) continue;
+          int lonIdx80 = osmf.lonDegree*80 + subIdx%80;
+          int latIdx80 = osmf.latDegree*80 + subIdx/80;
+          if ( !needed.contains( segmentKey( lonIdx80, latIdx80 ) ) )
+          {
+            osmf.microCaches[subIdx] = null;
+            segmentBytes -= segment.getMemorySize();
+            evicted++;
+          }
+          else
+          {
+            segmentList.add( segment );
+          }
+        }
+      }
+    }
+    return evicted;
+  }
+
+  static long segmentKey( int lonIdx80, int latIdx80 )
+  {
+    return ((long)lonIdx80) << 32 | latIdx80;
+  }
+
   public boolean obtainNonHollowNode( OsmNode node )
   {
     if ( !node.isHollow() ) return true;
@@ -122,7 +311,7 @@ public final class NodesCache
     {
       return false;
     }
-    segment.fillNode( node, nodesMap, distanceChecker );
+    segment.fillNode( node, nodesMap, distanceChecker, transferNodes );
     return !node.isHollow();
   }
 
@@ -144,50 +333,24 @@ public final class NodesCache
 
     currentFileName = filenameBase + ".rd5/cd5";
 
-    if ( !fileCache.containsKey( filenameBase ) )
+    SegmentCache.DataFile df = SegmentCache.getDataFile( segmentDir, filenameBase, lookupVersion, carMode, iobuffer );
+    if ( df.isCarsubsetFallback ) oom_carsubset_hint = true;
+    long startPos = 0L;
+    if ( df.ra != null )
     {
-      File f = null;
-      if ( carMode )
-      {
-        File carFile = new File( new File( base, "carsubset" ), filenameBase + ".cd5" );
-    	if ( carFile.exists() ) f = carFile;
-      }
-      if ( f == null )
-      {
-        File fullFile = new File( base, filenameBase + ".rd5" );
-        if ( fullFile.exists() ) f = fullFile;
-        if ( carMode && f != null ) oom_carsubset_hint = true;
-      }
-      RandomAccessFile ra = f != null ? new RandomAccessFile( f, "r" ) : null;
-      fileCache.put( filenameBase, ra );
-      if ( ra != null )
-      {
-        long[] fileIndex = new long[25];
-        ra.readFully( iobuffer, 0, 200 );
-        ByteDataReader dis = new ByteDataReader( iobuffer );
-        for( int i=0; i<25; i++ )
-        {
-          long lv = dis.readLong();
-          short readVersion = (short)(lv >> 48);
-          if ( readVersion != lookupVersion )
-          {
-            throw new IllegalArgumentException( "lookup version mismatch (old rd5?) lookups.dat="
-                     + lookupVersion + " " + f. getAbsolutePath() + "=" + readVersion );
-          }
-          fileIndex[i] = lv & 0xffffffffffffL;
-        }
-        indexCache.put( filenameBase, fileIndex );
-      }
+      startPos = tileIndex > 0 ? df.index[ tileIndex-1 ] : 200L;
+      if ( startPos == df.index[ tileIndex] ) startPos = 0L;
     }
-    RandomAccessFile ra = fileCache.get( filenameBase );
-    long startPos = 0L;
-    if ( ra != null )
+    OsmFile osmf;
+    try
+    {
+      osmf = new OsmFile( df, tileIndex, startPos, iobuffer );
+    }
+    catch( Exception e )
     {
-      long[] index = indexCache.get( filenameBase );
-      startPos = tileIndex > 0 ? index[ tileIndex-1 ] : 200L;
-      if ( startPos == index[ tileIndex] ) ra = null;
+      SegmentCache.releaseDataFile( df );
+      throw e;
     }
-    OsmFile osmf = new OsmFile( ra, startPos, iobuffer );
     osmf.lonDegree = lonDegree;
     osmf.latDegree = latDegree;
     osmf.filename = currentFileName;
@@ -206,18 +369,12 @@ public final class NodesCache
   }
 
 
+  /**
+   * Close the datafiles of the segment directory. They are
+   * shared process-wide, so this is for batch tools only.
+   */
   public void close()
   {
-    for( RandomAccessFile f: fileCache.values() )
-    {
-      try
-      {
-        f.close();
-      }
-      catch( IOException ioe )
-      {
-        // ignore
-      }
-    }
+    SegmentCache.close( segmentDir );
   }
 }
@@ -1,14 +0,0 @@
-/**
- * Container for link between two Osm nodes
- *
- * @author ab
- */
-package btools.mapaccess;
-
-import java.util.*;
-
-final class NodesList
-{
-  public OsmNode node;
-  public NodesList next;
-}
@@ -7,6 +7,7 @@ package btools.mapaccess;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 
 final class OsmFile
 {
@@ -16,26 +17,25 @@ final class OsmFile
   private int[] posIdx;
   public MicroCache[] microCaches;
 
+  public SegmentCache.DataFile dataFile;
+  public boolean acquired = true; // holding dataFile, see SegmentCache
+  public int tileIndex;
+
   public int lonDegree;
   public int latDegree;
 
   public String filename;
 
-  public OsmFile( RandomAccessFile rafile, long startPos, byte[] iobuffer ) throws Exception
+  public OsmFile( SegmentCache.DataFile df, int tileIndex, long startPos, byte[] iobuffer ) throws Exception
   {
+    dataFile = df;
+    this.tileIndex = tileIndex;
     fileOffset = startPos;
-    if ( rafile != null )
+    if ( startPos > 0L )
     {
-      is = rafile;
-      posIdx = new int[6400];
+      is = df.ra;
+      posIdx = SegmentCache.getPosIdx( df, tileIndex, startPos, iobuffer );
       microCaches = new MicroCache[6400];
-      is.seek( fileOffset );
-      is.readFully( iobuffer, 0, 25600 );
-      ByteDataReader dis = new ByteDataReader( iobuffer );
-      for( int i=0; i<6400; i++ )
-      {
-        posIdx[i] = dis.readInt();
-      }
     }
   }
 
@@ -44,17 +44,35 @@ final class OsmFile
     return  idx == -1 ? 25600 : posIdx[idx];
   }
 
+  /**
+   * @return the memory-mapped datafile, or null if accessed via RandomAccessFile
+   */
+  public ByteBuffer getMappedBuffer()
+  {
+    return dataFile == null ? null : dataFile.buffer;
+  }
+
+  public int getOffsetForSubIdx( int subIdx )
+  {
+    return (int)( fileOffset + getPosIdx(subIdx-1) );
+  }
+
+  public int getSizeForSubIdx( int subIdx )
+  {
+    return getPosIdx(subIdx) - getPosIdx(subIdx-1);
+  }
+
   public int getDataInputForSubIdx( int subIdx, byte[] iobuffer ) throws Exception
   {
      int startPos = getPosIdx(subIdx-1);
      int endPos = getPosIdx(subIdx);
      int size = endPos-startPos;
-     if ( size > 0 )
+     if ( size > 0 && size <= iobuffer.length )
      {
-       is.seek( fileOffset + startPos );
-       if ( size <= iobuffer.length )
+       synchronized( is )
        {
-         is.readFully( iobuffer );
+         is.seek( fileOffset + startPos );
+         is.readFully( iobuffer, 0, size );
        }
      }
      return size;
@@ -5,49 +5,55 @@
  */
 package btools.mapaccess;
 
-import java.util.*;
-
 public final class OsmLink
 {
- /**
-   * The description bitmap is mainly the way description
-   * used to calculate the costfactor
-   */
-  public long descriptionBitmap;
-
  /**
    * The target is either the next link or the target node
    */
   public OsmNode targetNode;
 
+  public OsmLink next;
+
   /**
-   * The origin position
+   * The link in counter-direction (from the target back to
+   * the origin), set by the router when it processes the
+   * origin node, null if not yet known
    */
-  public int ilatOrigin;
-  public int ilonOrigin;
-
-  public OsmLink next;
+  public OsmLink counterLink;
 
-  public byte[] firsttransferBytes;
+  // the details (description and transfer-nodes) are not copied,
+  // but read from the link within the arrays of a segment, possibly
+  // in reverse direction. The transfer-nodes are read with a
+  // TransferNodeCursor
+  MicroCache source;
+  int sourceLink;
+  boolean reversed;
 
-  public OsmTransferNode decodeFirsttransfer()
+ /**
+   * The description bitmap is mainly the way description
+   * used to calculate the costfactor
+   */
+  public long getDescriptionBitmap()
   {
-    return firsttransferBytes == null ? null : OsmTransferNode.decode( firsttransferBytes );
+    return source == null ? 0L : source.getLinkDescription( sourceLink, reversed );
   }
 
-  public void encodeFirsttransfer( OsmTransferNode firsttransfer )
+  /**
+   * Take the details from the link in counter-direction,
+   * reading them in reverse
+   */
+  public void setDetailsReversedFrom( OsmLink link )
   {
-    if ( firsttransfer == null ) firsttransferBytes = null;
-    else firsttransferBytes = OsmTransferNode.encode( firsttransfer );
+    source = link.source;
+    sourceLink = link.sourceLink;
+    reversed = !link.reversed;
   }
 
   public boolean counterLinkWritten;
 
-   public OsmLinkHolder firstlinkholder = null;
-
-   public void addLinkHolder( OsmLinkHolder holder )
-   {
-     if ( firstlinkholder != null ) { holder.setNextForLink( firstlinkholder ); }
-     firstlinkholder = holder;
-   }
+  /**
+   * The first search label on this link, a handle of
+   * the labels of the router (0 = none)
+   */
+  public int firstlinkholder;
 }
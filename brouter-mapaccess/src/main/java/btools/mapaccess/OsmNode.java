@@ -81,11 +81,6 @@ public class OsmNode implements OsmPos, Comparable
    */
     public OsmLink firstlink = null;
 
-    public OsmLink firstreverse = null;
-
-   // whether this node is completed and registerd for map-removal
-   public boolean completed;
-
    public boolean wasProcessed;
    public int maxcost; // maximum cost to consider for that node
 
@@ -109,174 +104,6 @@ public class OsmNode implements OsmPos, Comparable
   }
 
 
-   public void parseNodeBody( MicroCache is, int bodySize, OsmNodesMap hollowNodes, DistanceChecker dc )
-   {
-     selev = is.readShort();
-     bodySize -= 2;
-
-     OsmLink lastlink = null;
-
-     int lonIdx = ilon/62500;
-     int latIdx = ilat/62500;
-
-     while( bodySize > 0 )
-     {
-       OsmLink link = new OsmLink();
-       OsmTransferNode firstTransferNode = null;
-       OsmTransferNode lastTransferNode = null;
-       int linklon;
-       int linklat;
-       long description = 0L;
-       for(;;)
-       {
-         int bitField = is.readByte();
-         bodySize -= 1;
-         if ( (bitField & EXTERNAL_BITMASK) != 0 )
-         {
-           // full position for external target
-           bodySize -= 8;
-           linklon = is.readInt();
-           linklat = is.readInt();
-         }
-         else
-         {
-           // reduced position for internal target
-           bodySize -= 4;
-           linklon = is.readShort();
-           linklat = is.readShort();
-           linklon += lonIdx*62500 + 31250;
-           linklat += latIdx*62500 + 31250;
-         }
-         if ( (bitField & WRITEDESC_BITMASK ) != 0 )
-         {
-             description = is.readLong();
-             bodySize -= 8;
-         }
-         if ( (bitField & NODEDESC_BITMASK ) != 0 )
-         {
-             nodeDescription = is.readLong();
-             bodySize -= 8;
-         }
-         if ( (bitField & SKIPDETAILS_BITMASK ) != 0 )
-         {
-           link.counterLinkWritten = true;
-         }
-         boolean isTransfer = (bitField & TRANSFERNODE_BITMASK ) != 0;
-         if ( isTransfer )
-         {
-           OsmTransferNode trans = new OsmTransferNode();
-           trans.ilon = linklon;
-           trans.ilat = linklat;
-           trans.descriptionBitmap = description;
-           bodySize -= 2;
-           trans.selev = is.readShort();
-           if ( lastTransferNode == null )
-           {
-             firstTransferNode = trans;
-           }
-           else
-           {
-             lastTransferNode.next = trans;
-           }
-           lastTransferNode = trans;
-         }
-         else
-         {
-           link.descriptionBitmap = description;
-           break;
-         }
-       }
-
-       // performance shortcut: ignore link if out of reach
-       if ( dc != null && !link.counterLinkWritten )
-       {
-           if ( !dc.isWithinRadius( ilon, ilat, firstTransferNode, linklon, linklat ) )
-           {
-               continue;
-           }
-       }
-
-       if ( linklon == ilon && linklat == ilat )
-       {
-          continue; // skip self-ref
-       }
-
-       if ( lastlink == null )
-       {
-         firstlink = link;
-       }
-       else
-       {
-         lastlink.next = link;
-       }
-       lastlink = link;
-
-
-       long targetNodeId = ((long)linklon)<<32 | linklat;
-       OsmNode tn = hollowNodes.get( targetNodeId ); // target node
-
-       if ( tn == null )
-       {
-         // node not yet known, create a hollow proxy
-         tn = new OsmNode(linklon, linklat);
-         tn.setHollow();
-         hollowNodes.put( targetNodeId, tn );
-       }
-       else
-       {
-         if ( !( tn.isHollow() || tn.hasHollowLinks() ) )
-         {
-           hollowNodes.registerCompletedNode( tn );
-         }
-       }
-       link.targetNode = tn;
-
-       link.encodeFirsttransfer(firstTransferNode);
-
-       // compute the reverse link
-       if ( !link.counterLinkWritten )
-       {
-           OsmLink rlink = new OsmLink();
-           long rerverseLinkBitmap =  link.descriptionBitmap ^ 1L;
-
-           rlink.ilonOrigin = tn.ilon;
-           rlink.ilatOrigin = tn.ilat;
-           rlink.targetNode = this;
-           rlink.descriptionBitmap = rerverseLinkBitmap; // default for no transfer-nodes
-           OsmTransferNode previous = null;
-           OsmTransferNode rtrans = null;
-           for( OsmTransferNode trans = firstTransferNode; trans != null; trans = trans.next )
-           {
-             long rerverseTransBitmap =  trans.descriptionBitmap ^ 1L;
-             if ( previous == null )
-             {
-                 rlink.descriptionBitmap = rerverseTransBitmap;
-             }
-             else
-             {
-                 previous.descriptionBitmap = rerverseTransBitmap;
-             }
-             rtrans = new OsmTransferNode();
-             rtrans.ilon = trans.ilon;
-             rtrans.ilat = trans.ilat;
-             rtrans.selev = trans.selev;
-             rtrans.next = previous;
-             rtrans.descriptionBitmap = rerverseLinkBitmap;
-             previous = rtrans;
-           }
-           rlink.encodeFirsttransfer(rtrans);
-           rlink.next = firstreverse;
-           firstreverse = rlink;
-       }
-
-     }
-
-     if ( !hasHollowLinks() )
-     {
-       hollowNodes.registerCompletedNode( this );
-     }
-   }
-
   public boolean isHollow()
   {
     return selev == -12345;
@@ -364,34 +191,31 @@ public class OsmNode implements OsmPos, Comparable
      }
    }
 
-   public OsmLink getReverseLink( int lon, int lat )
-   {
-     for( OsmLink rlink = firstreverse; rlink != null; rlink = rlink.next )
-     {
-       if ( rlink.ilonOrigin == lon && rlink.ilatOrigin == lat )
-       {
-         unlinkRLink( rlink );
-         return rlink;
-       }
-     }
-     return null;
-   }
-
-   public void unlinkRLink( OsmLink rlink )
+  /**
+   * Take the details of a link of this node that was written without
+   * details from its counterpart at the target node, which must be
+   * filled. Parallel links are paired by their order.
+   *
+   * @return false if there is no counterpart
+   */
+   public boolean resolveLink( OsmLink link )
    {
-     if ( rlink == firstreverse )
+     // a link already resolved reads its counterpart reversed
+     int k = 0;
+     for( OsmLink l = firstlink; l != link; l = l.next )
      {
-       firstreverse = rlink.next;
-       return;
+       if ( l.targetNode == link.targetNode && ( l.counterLinkWritten || l.reversed ) ) k++;
      }
-     for( OsmLink l = firstreverse; l != null; l = l.next )
+     for( OsmLink l = link.targetNode.firstlink; l != null; l = l.next )
      {
-       if ( l.next == rlink )
+       if ( l.targetNode == this && !l.counterLinkWritten && !l.reversed && k-- == 0 )
        {
-         l.next = rlink.next;
-         return;
+         link.setDetailsReversedFrom( l );
+         link.counterLinkWritten = false;
+         return true;
        }
      }
+     return false;
    }
 
 }
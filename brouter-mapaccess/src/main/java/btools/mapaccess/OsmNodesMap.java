@@ -7,11 +7,18 @@ package btools.mapaccess;
 
 import java.util.*;
 
+import btools.util.CompactLongSet;
+import btools.util.HashLongMap;
+import btools.util.LongList;
+
 public final class OsmNodesMap
 {
-  private HashMap<Long,OsmNode> hmap = new HashMap<Long,OsmNode>();
+  private HashLongMap<OsmNode> hmap = new HashLongMap<OsmNode>( 4096 );
 
-  private NodesList completedNodes = null;
+  // the links removed during the current search, with their predecessors
+  private ArrayList<OsmNode> unlinkedNodes = new ArrayList<OsmNode>();
+  private ArrayList<OsmLink> unlinkedLinks = new ArrayList<OsmLink>();
+  private ArrayList<OsmLink> unlinkedPredecessors = new ArrayList<OsmLink>();
 
   /**
    * Get a node from the map
@@ -19,32 +26,71 @@ public final class OsmNodesMap
    */
   public OsmNode get( long id )
   {
-    return hmap.get( new Long( id  ) );
+    return hmap.get( id );
   }
 
 
   public void remove( long id )
   {
-    hmap.remove( new Long( id  ) );
+    hmap.remove( id );
   }
 
-  public void removeCompletedNodes()
+  /**
+   * Remove a link from a node for the rest of the current search
+   */
+  public void unlinkLink( OsmNode n, OsmLink link )
   {
-    for( NodesList le = completedNodes; le != null; le = le.next )
+    OsmLink predecessor = null;
+    for( OsmLink l = n.firstlink; l != link; l = l.next )
     {
-      remove( le.node.getIdFromPos() );
+      if ( l == null ) return; // not linked
+      predecessor = l;
     }
-    completedNodes = null;
+    if ( predecessor == null ) n.firstlink = link.next;
+    else predecessor.next = link.next;
+
+    unlinkedNodes.add( n );
+    unlinkedLinks.add( link );
+    unlinkedPredecessors.add( predecessor );
   }
 
-  public void registerCompletedNode( OsmNode n )
+  /**
+   * Reset the state of the current search (removed links and
+   * link-holders), so that the next search can start on
+   * the already decoded nodes
+   */
+  public void clearSearchState()
   {
-      if ( n.completed ) return;
-      n.completed = true;
-      NodesList le = new NodesList();
-      le.node = n;
-      if ( completedNodes != null ) le.next = completedNodes;
-      completedNodes = le;
+    // re-insert in reverse order to restore the original link order
+    for( int i = unlinkedLinks.size()-1; i >= 0; i-- )
+    {
+      OsmNode n = unlinkedNodes.get( i );
+      OsmLink link = unlinkedLinks.get( i );
+      OsmLink predecessor = unlinkedPredecessors.get( i );
+      if ( predecessor == null )
+      {
+        link.next = n.firstlink;
+        n.firstlink = link;
+      }
+      else
+      {
+        link.next = predecessor.next;
+        predecessor.next = link;
+      }
+    }
+    unlinkedNodes.clear();
+    unlinkedLinks.clear();
+    unlinkedPredecessors.clear();
+
+    for( int i = 0; i < hmap.capacity(); i++ )
+    {
+      OsmNode n = hmap.valueAt( i );
+      if ( n == null ) continue;
+      for( OsmLink link = n.firstlink; link != null; link = link.next )
+      {
+        link.firstlinkholder = 0;
+      }
+    }
   }
 
   /**
@@ -53,17 +99,39 @@ public final class OsmNodesMap
    */
   public OsmNode put( long id, OsmNode node )
   {
-    return hmap.put( new Long( id  ), node );
+    return hmap.put( id, node );
   }
 
   /**
-   * Return the internal list.
-   * A reference is returned, not a copy-
+   * Return a list of the nodes.
+   * A copy is returned, not a reference
    * @return the nodes list
    */
-  public Collection<OsmNode> nodes()
+  public List<OsmNode> nodes()
   {
-    return hmap.values();
+    List<OsmNode> nodes = new ArrayList<OsmNode>( hmap.size() );
+    for( int i = 0; i < hmap.capacity(); i++ )
+    {
+      OsmNode n = hmap.valueAt( i );
+      if ( n != null ) nodes.add( n );
+    }
+    return nodes;
+  }
+
+  /**
+   * Collect the segments (by their position, see NodesCache) of
+   * the hollow nodes, the segments still needed to fill them
+   */
+  void collectHollowSegments( CompactLongSet segments )
+  {
+    for( int i = 0; i < hmap.capacity(); i++ )
+    {
+      OsmNode n = hmap.valueAt( i );
+      if ( n != null && n.isHollow() )
+      {
+        segments.add( NodesCache.segmentKey( n.ilon/12500, n.ilat/12500 ) );
+      }
+    }
   }
 
   /**
@@ -86,24 +154,22 @@ public final class OsmNodesMap
    if ( ++dontCareCount < 5 ) return;
    dontCareCount = 0;
 
-   ArrayList<OsmNode> delNodes = new ArrayList<OsmNode>();
-
-    for( OsmNode n : hmap.values() )
+    // collect first, removal shifts the entries
+    LongList delIds = new LongList( 1024 );
+    for( int i = 0; i < hmap.capacity(); i++ )
     {
-      if ( n.isHollow() || n.hasHollowLinks() )
+      OsmNode n = hmap.valueAt( i );
+      if ( n == null || n.isHollow() || n.hasHollowLinks() )
       {
         continue;
       }
-      delNodes.add( n );
+      delIds.add( hmap.keyAt( i ) );
     }
 
-    if ( delNodes.size() > 0 )
+//  System.out.println( "removing " + delIds.size() + " nodes" );
+    for( int i = 0; i < delIds.size(); i++ )
     {
-//      System.out.println( "removing " + delNodes.size() + " nodes" );
-      for( OsmNode n : delNodes )
-      {
-        hmap.remove( new Long( n.getIdFromPos() ) );
-      }
+      hmap.remove( delIds.get( i ) );
     }
   }
 }
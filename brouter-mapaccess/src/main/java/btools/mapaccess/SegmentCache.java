@@ -0,0 +1,361 @@
+/**
+ * Process-wide cache of the open datafiles, their indexes and
+ * the decoded segments (MicroCache), shared by all NodesCache
+ * instances, so that repeated requests for the same region
+ * do not touch the disk again.
+ *
+ * The segments are kept within a memory budget with LRU
+ * eviction. The budget is given by the system property
+ * "segmentCacheSize" in MB (default 32, 0 = no caching).
+ *
+ * The datafiles are memory-mapped, so the node bodies are
+ * decoded directly from the OS page cache. Setting the system
+ * property "segmentAccess" to "file" uses RandomAccessFile
+ * reads instead, which is also the fallback if mapping fails.
+ *
+ * A datafile that was replaced (by modification time or size)
+ * is opened again, and its segments are dropped. The datafiles
+ * are reference-counted by the NodesCache instances using them,
+ * so the old file is closed when the last of them releases it,
+ * and requests still reading it are not affected.
+ *
+ * @author ab
+ */
+package btools.mapaccess;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class SegmentCache
+{
+  /**
+   * An open datafile (a 5*5 tile)
+   */
+  static final class DataFile
+  {
+    int id;
+    String segmentDir;
+    File file; // null if not available
+    long modified;
+    long length;
+    RandomAccessFile ra; // null if not available
+    ByteBuffer buffer; // the mapped file, null if not mapped
+    boolean isCarsubsetFallback; // full file used in car-mode
+    long[] index;
+    int[][] posIdx = new int[25][];
+    int users; // the NodesCache instances holding the file
+    boolean replaced; // no longer in the cache, close with the last user
+  }
+
+  private static final int DEFAULT_SIZE_MB = 32;
+
+  private static HashMap<String,DataFile> files = new HashMap<String,DataFile>();
+  private static int nextFileId;
+
+  // the segments by file-id and position, in access order
+  private static LinkedHashMap<Long,MicroCache> segments = new LinkedHashMap<Long,MicroCache>( 1024, 0.75f, true );
+
+  private static boolean useMemoryMap = !"file".equals( System.getProperty( "segmentAccess" ) );
+
+  private static long maxBytes = getDefaultMaxBytes();
+  private static long currentBytes;
+
+  private static long hits;
+  private static long misses;
+  private static long evictions;
+
+  private static long getDefaultMaxBytes()
+  {
+    String s = System.getProperty( "segmentCacheSize" );
+    long mb = s == null ? DEFAULT_SIZE_MB : Long.parseLong( s );
+    return mb * 1024L * 1024L;
+  }
+
+  /**
+   * Set the memory budget for the decoded segments
+   */
+  public static synchronized void setMaxBytes( long bytes )
+  {
+    maxBytes = bytes;
+    evict();
+  }
+
+  /**
+   * @return the counters as a single-line string for logging
+   */
+  public static synchronized String getStatistics()
+  {
+    return "segments=" + segments.size() + " bytes=" + currentBytes + "/" + maxBytes
+         + " hits=" + hits + " misses=" + misses + " evictions=" + evictions;
+  }
+
+  public static synchronized long getHits()
+  {
+    return hits;
+  }
+
+  public static synchronized long getMisses()
+  {
+    return misses;
+  }
+
+  /**
+   * Get the datafile for a 5*5 tile, opening it if not yet open
+   * or replaced since opened. The caller holds the file until
+   * it calls releaseDataFile
+   */
+  static synchronized DataFile getDataFile( String segmentDir, String filenameBase, int lookupVersion, boolean carMode, byte[] iobuffer ) throws IOException
+  {
+    File base = new File( segmentDir );
+    File f = null;
+    if ( carMode )
+    {
+      File carFile = new File( new File( base, "carsubset" ), filenameBase + ".cd5" );
+      if ( carFile.exists() ) f = carFile;
+    }
+    if ( f == null )
+    {
+      File fullFile = new File( base, filenameBase + ".rd5" );
+      if ( fullFile.exists() ) f = fullFile;
+    }
+    long modified = f == null ? 0L : f.lastModified();
+    long length = f == null ? 0L : f.length();
+
+    String key = segmentDir + "/" + filenameBase + ( carMode ? ".cd5" : ".rd5" ) + "/" + lookupVersion;
+    DataFile df = files.get( key );
+    if ( df != null )
+    {
+      if ( ( f == null ? df.file == null : f.equals( df.file ) ) && df.modified == modified && df.length == length )
+      {
+        df.users++;
+        return df;
+      }
+      files.remove( key );
+      df.replaced = true;
+      if ( df.users == 0 )
+      {
+        closeDataFile( df );
+      }
+      dropSegments( Collections.singletonList( Integer.valueOf( df.id ) ) );
+    }
+    df = new DataFile();
+    df.id = nextFileId++;
+    df.segmentDir = segmentDir;
+    df.file = f;
+    df.modified = modified;
+    df.length = length;
+    if ( carMode && f != null && f.getName().endsWith( ".rd5" ) ) df.isCarsubsetFallback = true;
+
+    if ( f != null )
+    {
+      RandomAccessFile ra = new RandomAccessFile( f, "r" );
+      long[] fileIndex = new long[25];
+      ra.readFully( iobuffer, 0, 200 );
+      ByteDataReader dis = new ByteDataReader( iobuffer );
+      for( int i=0; i<25; i++ )
+      {
+        long lv = dis.readLong();
+        short readVersion = (short)(lv >> 48);
+        if ( readVersion != lookupVersion )
+        {
+          ra.close();
+          throw new IllegalArgumentException( "lookup version mismatch (old rd5?) lookups.dat="
+                   + lookupVersion + " " + f. getAbsolutePath() + "=" + readVersion );
+        }
+        fileIndex[i] = lv & 0xffffffffffffL;
+      }
+      df.ra = ra;
+      df.index = fileIndex;
+      if ( useMemoryMap )
+      {
+        df.buffer = mapFile( ra );
+      }
+    }
+    df.users = 1;
+    files.put( key, df );
+    return df;
+  }
+
+  /**
+   * Hold a datafile again that was released before
+   */
+  static synchronized void acquireDataFile( DataFile df )
+  {
+    df.users++;
+  }
+
+  /**
+   * Release a datafile got from getDataFile. A replaced
+   * datafile is closed when the last user releases it
+   */
+  static synchronized void releaseDataFile( DataFile df )
+  {
+    if ( --df.users == 0 && df.replaced )
+    {
+      closeDataFile( df );
+    }
+  }
+
+  private static ByteBuffer mapFile( RandomAccessFile ra )
+  {
+    try
+    {
+      FileChannel channel = ra.getChannel();
+      long size = channel.size();
+      if ( size <= Integer.MAX_VALUE )
+      {
+        return channel.map( FileChannel.MapMode.READ_ONLY, 0, size );
+      }
+    }
+    catch( IOException ioe )
+    {
+      // fall back to RandomAccessFile
+    }
+    return null;
+  }
+
+  /**
+   * Get the segment index of a 1*1 degree tile within a datafile
+   */
+  static int[] getPosIdx( DataFile df, int tileIndex, long startPos, byte[] iobuffer ) throws IOException
+  {
+    synchronized( df )
+    {
+      int[] posIdx = df.posIdx[tileIndex];
+      if ( posIdx == null )
+      {
+        posIdx = new int[6400];
+        if ( df.buffer != null )
+        {
+          for( int i=0; i<6400; i++ )
+          {
+            posIdx[i] = df.buffer.getInt( (int)startPos + 4*i );
+          }
+        }
+        else
+        {
+          synchronized( df.ra ) // file handles are shared between threads
+          {
+            df.ra.seek( startPos );
+            df.ra.readFully( iobuffer, 0, 25600 );
+          }
+          ByteDataReader dis = new ByteDataReader( iobuffer );
+          for( int i=0; i<6400; i++ )
+          {
+            posIdx[i] = dis.readInt();
+          }
+        }
+        df.posIdx[tileIndex] = posIdx;
+      }
+      return posIdx;
+    }
+  }
+
+  /**
+   * Get a decoded segment, reading it from the file if not cached
+   */
+  static MicroCache getSegment( OsmFile osmf, int lonIdx80, int latIdx80, int subIdx, byte[] iobuffer ) throws Exception
+  {
+    Long key = Long.valueOf( keyFor( osmf, subIdx ) );
+    synchronized( SegmentCache.class )
+    {
+      MicroCache segment = segments.get( key );
+      if ( segment != null )
+      {
+        hits++;
+        return segment;
+      }
+      misses++;
+    }
+
+    // decode outside the lock, a concurrent duplicate does no harm
+    MicroCache segment = new MicroCache( osmf, lonIdx80, latIdx80, iobuffer );
+
+    synchronized( SegmentCache.class )
+    {
+      if ( maxBytes > 0 && !segments.containsKey( key ) )
+      {
+        segments.put( key, segment );
+        currentBytes += segment.getMemorySize();
+        evict();
+      }
+    }
+    return segment;
+  }
+
+  /**
+   * @return the process-wide key of a segment
+   */
+  static long keyFor( OsmFile osmf, int subIdx )
+  {
+    return ((long)osmf.dataFile.id) << 32 | ( osmf.tileIndex * 6400 + subIdx );
+  }
+
+  private static void evict()
+  {
+    Iterator<MicroCache> it = segments.values().iterator();
+    while( currentBytes > maxBytes && it.hasNext() )
+    {
+      currentBytes -= it.next().getMemorySize();
+      it.remove();
+      evictions++;
+    }
+  }
+
+  /**
+   * Close the datafiles of a segment directory and drop their segments,
+   * regardless of their users (for batch tools)
+   */
+  static synchronized void close( String segmentDir )
+  {
+    List<Integer> ids = new ArrayList<Integer>();
+    for( Iterator<DataFile> it = files.values().iterator(); it.hasNext(); )
+    {
+      DataFile df = it.next();
+      if ( !df.segmentDir.equals( segmentDir ) ) continue;
+      it.remove();
+      ids.add( Integer.valueOf( df.id ) );
+      closeDataFile( df );
+    }
+    dropSegments( ids );
+  }
+
+  private static void closeDataFile( DataFile df )
+  {
+    if ( df.ra != null )
+    {
+      try
+      {
+        df.ra.close();
+      }
+      catch( IOException ioe )
+      {
+        // ignore
+      }
+    }
+  }
+
+  // drop the segments of the datafiles with the given ids
+  private static void dropSegments( List<Integer> ids )
+  {
+    for( Iterator<Map.Entry<Long,MicroCache>> it = segments.entrySet().iterator(); it.hasNext(); )
+    {
+      Map.Entry<Long,MicroCache> e = it.next();
+      if ( ids.contains( Integer.valueOf( (int)( e.getKey().longValue() >> 32 ) ) ) )
+      {
+        currentBytes -= e.getValue().getMemorySize();
+        it.remove();
+      }
+    }
+  }
+}
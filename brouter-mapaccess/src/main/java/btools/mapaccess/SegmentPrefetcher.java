@@ -0,0 +1,189 @@
+/**
+ * Loads segments in the background, ahead of the search
+ *
+ * A search requests the segments it is likely to need next
+ * (in the direction of its target, or the next ring around a
+ * waypoint), and they are read and decoded by a process-wide pool
+ * of I/O threads into a hand-off map of that search. NodesCache
+ * takes them from there instead of loading them synchronously,
+ * so the I/O overlaps with the routing.
+ *
+ * The pool size is given by the system property
+ * "segmentPrefetchThreads" (default 0 = no prefetching).
+ * A prefetched segment that is never taken by the search counts
+ * as a wasted read.
+ *
+ * @author ab
+ */
+package btools.mapaccess;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class SegmentPrefetcher
+{
+  private static final int MAX_PENDING = 64;
+
+  private static final int threads = getThreads();
+  private static ExecutorService executor;
+
+  private static AtomicLong requests = new AtomicLong();
+  private static AtomicLong loads = new AtomicLong();
+  private static AtomicLong hits = new AtomicLong();
+  private static AtomicLong waits = new AtomicLong();
+  private static AtomicLong wasted = new AtomicLong();
+
+  // the io-buffer of each I/O thread
+  private static ThreadLocal<byte[]> iobuffers = new ThreadLocal<byte[]>()
+  {
+    protected byte[] initialValue()
+    {
+      return new byte[65636];
+    }
+  };
+
+  // the requested segments by key, in request order.
+  // Accessed by the thread of the search only
+  private LinkedHashMap<Long,Future<MicroCache>> pending = new LinkedHashMap<Long,Future<MicroCache>>();
+
+  private volatile boolean cancelled;
+
+  private static int getThreads()
+  {
+    String s = System.getProperty( "segmentPrefetchThreads" );
+    return s == null ? 0 : Integer.parseInt( s );
+  }
+
+  /**
+   * @return a prefetcher for a search, or null if prefetching is off
+   */
+  static SegmentPrefetcher create()
+  {
+    return threads > 0 ? new SegmentPrefetcher() : null;
+  }
+
+  private static synchronized ExecutorService getExecutor()
+  {
+    if ( executor == null )
+    {
+      executor = Executors.newFixedThreadPool( threads, new ThreadFactory()
+      {
+        public Thread newThread( Runnable r )
+        {
+          Thread t = new Thread( r, "brouter-prefetch" );
+          t.setDaemon( true );
+          return t;
+        }
+      } );
+    }
+    return executor;
+  }
+
+  /**
+   * @return the counters as a single-line string for logging
+   */
+  public static String getStatistics()
+  {
+    long r = requests.get();
+    long h = hits.get();
+    return "requests=" + r + " loads=" + loads.get() + " hits=" + h + " waits=" + waits.get()
+         + " wasted=" + wasted.get() + " hitrate=" + ( r == 0 ? 0 : 100*h/r ) + "%";
+  }
+
+  /**
+   * Request a segment to be loaded in the background, if not yet requested
+   */
+  void request( final OsmFile osmf, final int lonIdx80, final int latIdx80, final int subIdx )
+  {
+    Long key = Long.valueOf( SegmentCache.keyFor( osmf, subIdx ) );
+    if ( cancelled || pending.containsKey( key ) )
+    {
+      return;
+    }
+    if ( pending.size() == MAX_PENDING )
+    {
+      Iterator<Future<MicroCache>> it = pending.values().iterator();
+      discard( it.next() );
+      it.remove();
+    }
+    requests.incrementAndGet();
+    pending.put( key, getExecutor().submit( new Callable<MicroCache>()
+    {
+      public MicroCache call() throws Exception
+      {
+        if ( cancelled )
+        {
+          return null;
+        }
+        MicroCache segment = SegmentCache.getSegment( osmf, lonIdx80, latIdx80, subIdx, iobuffers.get() );
+        loads.incrementAndGet();
+        return segment;
+      }
+    } ) );
+  }
+
+  /**
+   * Take a requested segment, waiting for it if it is still loading
+   *
+   * @return the segment, or null if not requested or failed
+   */
+  MicroCache take( OsmFile osmf, int subIdx )
+  {
+    Future<MicroCache> f = pending.remove( Long.valueOf( SegmentCache.keyFor( osmf, subIdx ) ) );
+    if ( f == null )
+    {
+      return null;
+    }
+    if ( !f.isDone() )
+    {
+      waits.incrementAndGet();
+    }
+    try
+    {
+      MicroCache segment = f.get();
+      if ( segment != null )
+      {
+        hits.incrementAndGet();
+      }
+      return segment;
+    }
+    catch( ExecutionException ee )
+    {
+      return null; // the synchronous load reports the error
+    }
+    catch( InterruptedException ie )
+    {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+
+  /**
+   * Drop all requests of the search, the segments not taken are wasted
+   */
+  void cancel()
+  {
+    cancelled = true;
+    for( Future<MicroCache> f : pending.values() )
+    {
+      discard( f );
+    }
+    pending.clear();
+  }
+
+  private void discard( Future<MicroCache> f )
+  {
+    // if it did not start yet, it is not read at all
+    if ( !f.cancel( false ) )
+    {
+      wasted.incrementAndGet();
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/**
+ * Helpers for the profile-specific sidecar files (.ch5, .lm5)
+ * that are computed for a fixed profile and stored per 5*5 tile
+ * next to the datafile they were computed from
+ *
+ * @author ab
+ */
+package btools.mapaccess;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+public final class SidecarFile
+{
+  /**
+   * @return the sidecar file with the given suffix for the datafile
+   * that NodesCache uses for that tile (carsubset/*.cd5 or *.rd5)
+   */
+  public static File getFile( String segmentDir, boolean carMode, String filenameBase, String suffix )
+  {
+    if ( carMode )
+    {
+      File carDir = new File( segmentDir, "carsubset" );
+      if ( new File( carDir, filenameBase + ".cd5" ).exists() )
+      {
+        return new File( carDir, filenameBase + "." + suffix );
+      }
+    }
+    return new File( segmentDir, filenameBase + "." + suffix );
+  }
+
+  /**
+   * @return the base filename (e.g. "E5_N45") of the 5*5 tile for a position
+   */
+  public static String getTileBase( int ilon, int ilat )
+  {
+    int lonDegree = ilon / 1000000;
+    int latDegree = ilat / 1000000;
+    int lon = lonDegree - 180 - lonDegree % 5;
+    int lat = latDegree - 90 - latDegree % 5;
+    String slon = lon < 0 ? "W" + (-lon) : "E" + lon;
+    String slat = lat < 0 ? "S" + (-lat) : "N" + lat;
+    return slon + "_" + slat;
+  }
+
+  /**
+   * @return the key of the 5*5 tile for a node id
+   */
+  public static int getTileKey( long id )
+  {
+    int ilon = (int)(id >> 32);
+    int ilat = (int)(id & 0xffffffff);
+    return ( ilon / 5000000 ) * 100 + ilat / 5000000;
+  }
+
+  /**
+   * @return a checksum identifying a profile file
+   */
+  public static int calcProfileCrc( File profileFile )
+  {
+    CRC32 crc = new CRC32();
+    byte[] buf = new byte[4096];
+    FileInputStream is = null;
+    try
+    {
+      is = new FileInputStream( profileFile );
+      for(;;)
+      {
+        int len = is.read( buf );
+        if ( len < 0 ) break;
+        crc.update( buf, 0, len );
+      }
+    }
+    catch( IOException ioe )
+    {
+      return 0;
+    }
+    finally
+    {
+      if ( is != null ) try { is.close(); } catch( IOException ioe ) {}
+    }
+    return (int)crc.getValue();
+  }
+}
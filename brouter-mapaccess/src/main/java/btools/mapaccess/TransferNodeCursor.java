@@ -0,0 +1,65 @@
+/**
+ * Cursor over the transfer-nodes of a link
+ *
+ * The transfer-nodes are read directly from the arrays of the
+ * segment, into the fields of the cursor, so iterating them
+ * allocates nothing. A cursor is meant to be reused for all
+ * links of a search, it must not be shared between threads.
+ *
+ * Usage:
+ *   cursor.init( link );
+ *   while( cursor.next() ) { ... cursor.ilon ... }
+ *
+ * @author ab
+ */
+package btools.mapaccess;
+
+public final class TransferNodeCursor
+{
+  /**
+   * The current transfer-node. The description bitmap is the
+   * one of the section ending at that transfer-node.
+   */
+  public int ilon;
+  public int ilat;
+  public short selev;
+  public long descriptionBitmap;
+
+  private MicroCache source;
+  private int link;
+  private boolean reversed;
+  private int idx;
+  private int count;
+
+  /**
+   * Position the cursor before the first transfer-node of the given link
+   */
+  public void init( OsmLink link )
+  {
+    init( link.source, link.sourceLink, link.reversed );
+  }
+
+  void init( MicroCache source, int link, boolean reversed )
+  {
+    this.source = source;
+    this.link = link;
+    this.reversed = reversed;
+    idx = 0;
+    count = source == null ? 0 : source.getTransferNodeCount( link );
+  }
+
+  /**
+   * Advance to the next transfer-node
+   *
+   * @return false if there are no more transfer-nodes
+   */
+  public boolean next()
+  {
+    if ( idx == count )
+    {
+      return false;
+    }
+    source.readTransferNode( link, idx++, reversed, this );
+    return true;
+  }
+}
@@ -13,17 +13,32 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import btools.mapaccess.SegmentCache;
+import btools.mapaccess.SegmentPrefetcher;
+import btools.router.MemoryBudget;
 import btools.router.OsmNodeNamed;
 import btools.router.OsmTrack;
+import btools.router.ProfileCache;
 import btools.router.RoutingContext;
 import btools.router.RoutingEngine;
+import btools.router.WaypointMatchCache;
 import btools.server.request.RequestHandler;
 import btools.server.request.ServerHandler;
 import btools.server.request.YoursHandler;
 
 public class RouteServer extends Thread
 {
+  private static final int RETRY_AFTER_SECONDS = 10;
+
+  private static final boolean logStatistics = Boolean.getBoolean( "logStatistics" );
+
 	public ServiceContext serviceContext;
   public short port = 17777;
 
@@ -100,6 +115,15 @@ public class RouteServer extends Thread
 
 
   public boolean serveRequest( Socket clientSocket )
+  {
+    return serveRequest( clientSocket, System.currentTimeMillis() + getMaxRunningTime() );
+  }
+
+  /**
+   * Serve a request that has to be finished at the given deadline,
+   * which includes the time spent waiting in the request queue
+   */
+  public boolean serveRequest( Socket clientSocket, long deadline )
   {
           BufferedReader br = null;
           BufferedWriter bw = null;
@@ -122,8 +146,34 @@ public class RouteServer extends Thread
             String url = getline.split(" ")[1];
             HashMap<String,String> params = getUrlParams(url);
 
-            long maxRunningTime = getMaxRunningTime();
-            long startTime = System.currentTimeMillis();
+            long maxRunningTime = deadline - System.currentTimeMillis();
+            if ( maxRunningTime <= 0 )
+            {
+              writeServiceUnavailable( bw, "request expired in queue" );
+              return true;
+            }
+
+            if ( hasPath( url, "/stats" ) )
+            {
+              serveStatisticsRequest( bw );
+              return true;
+            }
+
+            if ( hasPath( url, "/snap" ) )
+            {
+              serveSnapRequest( bw, params );
+              return true;
+            }
+            if ( hasPath( url, "/matrix" ) )
+            {
+              serveMatrixRequest( bw, params, maxRunningTime );
+              return true;
+            }
+            if ( hasPath( url, "/isochrone" ) )
+            {
+              serveIsochroneRequest( bw, params, maxRunningTime );
+              return true;
+            }
 
             RequestHandler handler;
             if ( params.containsKey( "lonlats" ) && params.containsKey( "profile" ) )
@@ -140,6 +190,7 @@ public class RouteServer extends Thread
             RoutingEngine cr = new RoutingEngine( null, null, serviceContext.segmentDir, wplist, rc );
             cr.quite = true;
             cr.doRun( maxRunningTime );
+            logStatistics( rc );
 
             // http-header
             bw.write( "HTTP/1.1 200 OK\n" );
@@ -180,6 +231,126 @@ public class RouteServer extends Thread
           return true;
   }
 
+  /**
+   * @return the counters of the process-wide caches, one line each
+   */
+  public static String getStatistics()
+  {
+    return "segment cache: " + SegmentCache.getStatistics()
+       + "\nsegment prefetch: " + SegmentPrefetcher.getStatistics()
+       + "\nprofile cache: " + ProfileCache.getStatistics()
+       + "\nwaypoint match cache: " + WaypointMatchCache.getStatistics()
+       + "\nmemory budget: " + MemoryBudget.getStatistics();
+  }
+
+  // log the counters after a request, if the system property "logStatistics" is set
+  private static void logStatistics( RoutingContext rc )
+  {
+    if ( logStatistics )
+    {
+      System.out.println( getStatistics() + "\nexpression cache " + rc.expctxWay.getCacheStatistics() );
+    }
+  }
+
+  private void serveStatisticsRequest( BufferedWriter bw ) throws IOException
+  {
+    bw.write( "HTTP/1.1 200 OK\n" );
+    bw.write( "Connection: close\n" );
+    bw.write( "Content-Type: text/plain; charset=utf-8\n" );
+    bw.write( "Access-Control-Allow-Origin: *\n" );
+    bw.write( "\n" );
+    bw.write( getStatistics() + "\n" );
+    bw.flush();
+  }
+
+  private static boolean hasPath( String url, String suffix )
+  {
+    int idx = url.indexOf( '?' );
+    return ( idx < 0 ? url : url.substring( 0, idx ) ).endsWith( suffix );
+  }
+
+  // snap the positions of the lonlats-list to their nearest routable way-sections
+  private void serveSnapRequest( BufferedWriter bw, HashMap<String,String> params ) throws IOException
+  {
+    ServerHandler handler = new ServerHandler( serviceContext, params );
+    RoutingContext rc = handler.readRoutingContext();
+    List<OsmNodeNamed> wplist = handler.readSnapPositionList();
+
+    RoutingEngine cr = new RoutingEngine( null, null, serviceContext.segmentDir, wplist, rc );
+    List<OsmNodeNamed> crosspoints = cr.snapWaypoints();
+    logStatistics( rc );
+
+    bw.write( "HTTP/1.1 200 OK\n" );
+    bw.write( "Connection: close\n" );
+    bw.write( "Content-Type: text/plain; charset=utf-8\n" );
+    bw.write( "Access-Control-Allow-Origin: *\n" );
+    bw.write( "\n" );
+    bw.write( handler.formatSnappedPositions( wplist, crosspoints ) );
+    bw.flush();
+  }
+
+  // calculate the costs and distances from each origin to each target
+  private void serveMatrixRequest( BufferedWriter bw, HashMap<String,String> params, long maxRunningTime ) throws IOException
+  {
+    RoutingContext rc = null;
+    String result;
+    try
+    {
+      ServerHandler handler = new ServerHandler( serviceContext, params );
+      rc = handler.readRoutingContext();
+      List<OsmNodeNamed> origins = handler.readOriginList();
+      List<OsmNodeNamed> targets = handler.readTargetList();
+
+      RoutingEngine cr = new RoutingEngine( null, null, serviceContext.segmentDir, null, rc );
+      result = handler.formatCostMatrix( cr.calcCostMatrix( origins, targets, maxRunningTime ) );
+    }
+    catch( RuntimeException e )
+    {
+      writeBadRequest( bw, rc, e );
+      return;
+    }
+    logStatistics( rc );
+
+    bw.write( "HTTP/1.1 200 OK\n" );
+    bw.write( "Connection: close\n" );
+    bw.write( "Content-Type: text/plain; charset=utf-8\n" );
+    bw.write( "Access-Control-Allow-Origin: *\n" );
+    bw.write( "\n" );
+    bw.write( result );
+    bw.flush();
+  }
+
+  // calculate the area reachable from a position within a cost limit
+  private void serveIsochroneRequest( BufferedWriter bw, HashMap<String,String> params, long maxRunningTime ) throws IOException
+  {
+    RoutingContext rc = null;
+    String result;
+    try
+    {
+      ServerHandler handler = new ServerHandler( serviceContext, params );
+      rc = handler.readRoutingContext();
+      OsmNodeNamed origin = handler.readIsochroneOrigin();
+      int maxCost = handler.readMaxCost();
+
+      RoutingEngine cr = new RoutingEngine( null, null, serviceContext.segmentDir, null, rc );
+      result = handler.formatIsochrone( cr.calcIsochrone( origin, maxCost, maxRunningTime ) );
+    }
+    catch( RuntimeException e )
+    {
+      writeBadRequest( bw, rc, e );
+      return;
+    }
+    logStatistics( rc );
+
+    bw.write( "HTTP/1.1 200 OK\n" );
+    bw.write( "Connection: close\n" );
+    bw.write( "Content-Type: application/geo+json; charset=utf-8\n" );
+    bw.write( "Access-Control-Allow-Origin: *\n" );
+    bw.write( "\n" );
+    bw.write( result );
+    bw.flush();
+  }
+
   public static void main(String[] args) throws Exception
   {
         System.out.println("BRouter 0.98 / 12012014 / abrensch");
@@ -205,16 +376,88 @@ public class RouteServer extends Thread
         	serviceContext.profileMap = loadProfileMap( profileMapOrDir );
         }
 
+        // bounded worker pool, requests beyond the queue are rejected
+        int maxThreads = getIntProperty( "maxThreads", Runtime.getRuntime().availableProcessors() );
+        int maxQueue = getIntProperty( "maxQueue", 2*maxThreads );
+        BlockingQueue<Runnable> queue = maxQueue > 0 ? new ArrayBlockingQueue<Runnable>( maxQueue ) : new SynchronousQueue<Runnable>();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor( maxThreads, maxThreads, 0L, TimeUnit.MILLISECONDS, queue );
+
         ServerSocket serverSocket = new ServerSocket(Integer.parseInt(args[2]));
         for (;;)
         {
-          Socket clientSocket = serverSocket.accept();
-          RouteServer server = new RouteServer();
+          final Socket clientSocket = serverSocket.accept();
+          final long deadline = System.currentTimeMillis() + getMaxRunningTime();
+          final RouteServer server = new RouteServer();
           server.serviceContext = serviceContext;
-          server.serveRequest( clientSocket );
+          try
+          {
+            executor.execute( new Runnable()
+            {
+              public void run()
+              {
+                server.serveRequest( clientSocket, deadline );
+              }
+            } );
+          }
+          catch( RejectedExecutionException ree )
+          {
+            rejectRequest( clientSocket );
+          }
         }
   }
 
+  private static void rejectRequest( Socket clientSocket )
+  {
+    BufferedWriter bw = null;
+    try
+    {
+      bw = new BufferedWriter( new OutputStreamWriter( clientSocket.getOutputStream() ) );
+      writeServiceUnavailable( bw, "server busy" );
+    }
+    catch( IOException e )
+    {
+      // client gone
+    }
+    finally
+    {
+      if ( bw != null ) try { bw.close(); } catch( Exception e ) {}
+      try { clientSocket.close(); } catch( Exception e ) {}
+    }
+  }
+
+  // a request that could not be parsed or calculated, the message is the reason
+  private static void writeBadRequest( BufferedWriter bw, RoutingContext rc, RuntimeException e ) throws IOException
+  {
+    if ( rc != null )
+    {
+      logStatistics( rc );
+    }
+    bw.write( "HTTP/1.1 400 Bad Request\n" );
+    bw.write( "Connection: close\n" );
+    bw.write( "Content-Type: text/plain; charset=utf-8\n" );
+    bw.write( "Access-Control-Allow-Origin: *\n" );
+    bw.write( "\n" );
+    bw.write( ( e instanceof IllegalArgumentException ? e.getMessage() : e.toString() ) + "\n" );
+    bw.flush();
+  }
+
+  private static void writeServiceUnavailable( BufferedWriter bw, String message ) throws IOException
+  {
+    bw.write( "HTTP/1.1 503 Service Unavailable\n" );
+    bw.write( "Retry-After: " + RETRY_AFTER_SECONDS + "\n" );
+    bw.write( "Connection: close\n" );
+    bw.write( "Content-Type: text/plain; charset=utf-8\n" );
+    bw.write( "\n" );
+    bw.write( message + "\n" );
+    bw.flush();
+  }
+
+  private static int getIntProperty( String name, int defaultValue )
+  {
+    String s = System.getProperty( name );
+    return s == null ? defaultValue : Integer.parseInt( s );
+  }
+
   private static Map<String,String> loadProfileMap( File file ) throws IOException 
   {
     Map<String,String> profileMap = new HashMap<String,String>();
@@ -12,5 +12,5 @@ public class ServiceContext
 {
   public String segmentDir;
   public Map<String,String> profileMap = null;
-  public List<OsmNodeNamed> nogoList;
+  public List<OsmNodeNamed> nogoList; // shared by concurrent requests, copy before use
 }
@@ -4,6 +4,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 
+import btools.router.CostMatrix;
+import btools.router.Isochrone;
 import btools.router.OsmNodeNamed;
 import btools.router.OsmTrack;
 import btools.router.RoutingContext;
@@ -25,6 +27,20 @@ import btools.server.ServiceContext;
  * http://localhost:17777/brouter?lonlats=8.799297,49.565883|8.811764,49.563606&nogos=&profile=trekking&alternativeidx=0&format=gpx
  * http://localhost:17777/brouter?lonlats=1.1,1.2|2.1,2.2|3.1,3.2|4.1,4.2&nogos=-1.1,-1.2,1|-2.1,-2.2,2&profile=shortest&alternativeidx=1&format=kml
  *
+ * Snapping (path ending with /snap, lonlats with one position at least):
+ * http://localhost:17777/brouter/snap?lonlats=8.799297,49.565883|8.811764,49.563606&profile=trekking
+ * returns a line "lon,lat,distance" (distance in meters) per position, or "-" if not mapped
+ *
+ * Cost matrix (path ending with /matrix, origins and targets as lists like lonlats):
+ * http://localhost:17777/brouter/matrix?origins=8.799297,49.565883&targets=8.811764,49.563606|8.8,49.57&profile=trekking
+ * returns a line per origin, with "cost,distance" per target separated by tabs, or "-" if not reachable
+ *
+ * Isochrone (path ending with /isochrone, lonlats with a single position, maxcost = the cost limit,
+ * sectors = the number of sectors of the hull, optional, default 72):
+ * http://localhost:17777/brouter/isochrone?lonlats=8.799297,49.565883&maxcost=5000&profile=trekking
+ * returns a GeoJSON FeatureCollection with the hull polygon of the reachable area
+ * and the boundary points, where the cost limit is reached
+ *
  */
 public class ServerHandler extends RequestHandler {
 
@@ -39,7 +55,8 @@ public class ServerHandler extends RequestHandler {
     RoutingContext rc = new RoutingContext();
 
     rc.localFunction = params.get( "profile" );
-    rc.setAlternativeIdx(Integer.parseInt(params.get( "alternativeidx" )));
+    String alternativeIdx = params.get( "alternativeidx" );
+    rc.setAlternativeIdx( alternativeIdx == null ? 0 : Integer.parseInt( alternativeIdx ) );
     
     List<OsmNodeNamed> nogoList = readNogoList();
     if ( nogoList != null )
@@ -53,27 +70,161 @@ public class ServerHandler extends RequestHandler {
 
 	@Override
 	public List<OsmNodeNamed> readWayPointList()
+	{
+		List<OsmNodeNamed> wplist = readLonLats( "lonlats", 2, "via" );
+
+    wplist.get(0).name = "from";
+    wplist.get(wplist.size()-1).name = "to";
+
+    return wplist;
+	}
+
+	/**
+	 * @return the positions to snap
+	 */
+	public List<OsmNodeNamed> readSnapPositionList()
+	{
+		return readLonLats( "lonlats", 1, "pos" );
+	}
+
+	/**
+	 * @return the origins of a cost matrix
+	 */
+	public List<OsmNodeNamed> readOriginList()
+	{
+		return readLonLats( "origins", 1, "origin" );
+	}
+
+	/**
+	 * @return the targets of a cost matrix
+	 */
+	public List<OsmNodeNamed> readTargetList()
+	{
+		return readLonLats( "targets", 1, "target" );
+	}
+
+	/**
+	 * @return the origin of an isochrone
+	 */
+	public OsmNodeNamed readIsochroneOrigin()
+	{
+		List<OsmNodeNamed> wplist = readLonLats( "lonlats", 1, "origin" );
+		if ( wplist.size() > 1 ) throw new IllegalArgumentException( "we need a single lat/lon point for an isochrone" );
+		return wplist.get( 0 );
+	}
+
+	/**
+	 * @return the cost limit of an isochrone
+	 */
+	public int readMaxCost()
+	{
+		String maxCost = params.get( "maxcost" );
+		if ( maxCost == null ) throw new IllegalArgumentException( "maxcost parameter not set" );
+		return Integer.parseInt( maxCost );
+	}
+
+	private List<OsmNodeNamed> readLonLats( String paramName, int minCount, String namePrefix )
 	{
 	  // lon,lat|...
-		String lonLats = params.get( "lonlats" );
-		if (lonLats == null) throw new IllegalArgumentException( "lonlats parameter not set" );
+		String lonLats = params.get( paramName );
+		if (lonLats == null) throw new IllegalArgumentException( paramName + " parameter not set" );
 
 		String[] coords = lonLats.split("\\|");
-		if (coords.length < 2) throw new IllegalArgumentException( "we need two lat/lon points at least!" );
-		
+		if (coords.length < minCount) throw new IllegalArgumentException( "we need " + minCount + " lat/lon points at least!" );
+
     List<OsmNodeNamed> wplist = new ArrayList<OsmNodeNamed>();
     for (int i = 0; i < coords.length; i++)
 		{
     	String[] lonLat = coords[i].split(",");
-    	wplist.add( readPosition( lonLat[0], lonLat[1], "via" + i ) );
+    	wplist.add( readPosition( lonLat[0], lonLat[1], namePrefix + i ) );
 		}
-
-    wplist.get(0).name = "from";
-    wplist.get(wplist.size()-1).name = "to";
-
     return wplist;
 	}
+
+	/**
+	 * Format the snapped positions, a line "lon,lat,distance"
+	 * per position, or "-" if not mapped
+	 */
+	public String formatSnappedPositions( List<OsmNodeNamed> wplist, List<OsmNodeNamed> crosspoints )
+	{
+		StringBuilder sb = new StringBuilder( crosspoints.size() * 32 );
+		for ( int i = 0; i < crosspoints.size(); i++ )
+		{
+			OsmNodeNamed cp = crosspoints.get( i );
+			if ( cp == null )
+			{
+				sb.append( "-\n" );
+				continue;
+			}
+			sb.append( OsmTrack.formatPos( cp.ilon - 180000000 ) ).append( ',' ).append( OsmTrack.formatPos( cp.ilat - 90000000 ) )
+			  .append( ',' ).append( wplist.get( i ).calcDistance( cp ) ).append( '\n' );
+		}
+		return sb.toString();
+	}
 	
+	/**
+	 * Format a cost matrix, a line per origin with "cost,distance"
+	 * per target separated by tabs, or "-" if not reachable
+	 */
+	public String formatCostMatrix( CostMatrix matrix )
+	{
+		StringBuilder sb = new StringBuilder( matrix.getOriginCount() * matrix.getTargetCount() * 12 );
+		for ( int i = 0; i < matrix.getOriginCount(); i++ )
+		{
+			for ( int j = 0; j < matrix.getTargetCount(); j++ )
+			{
+				if ( j > 0 ) sb.append( '\t' );
+				int cost = matrix.getCost( i, j );
+				if ( cost < 0 )
+				{
+					sb.append( '-' );
+				}
+				else
+				{
+					sb.append( cost ).append( ',' ).append( matrix.getDistance( i, j ) );
+				}
+			}
+			sb.append( '\n' );
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Format an isochrone as a GeoJSON FeatureCollection, with
+	 * the hull polygon and the boundary points as features
+	 */
+	public String formatIsochrone( Isochrone isochrone )
+	{
+		String sectors = params.get( "sectors" );
+		List<OsmNodeNamed> hull = isochrone.getHull( sectors == null ? 72 : Integer.parseInt( sectors ) );
+
+		StringBuilder sb = new StringBuilder( 8192 );
+		sb.append( "{\"type\":\"FeatureCollection\",\"features\":[\n" );
+		sb.append( "{\"type\":\"Feature\",\"properties\":{\"maxcost\":" ).append( isochrone.getMaxCost() )
+		  .append( ",\"nodes\":" ).append( isochrone.getNodeCount() ).append( "},\n" );
+		sb.append( " \"geometry\":{\"type\":\"Polygon\",\"coordinates\":[[" );
+		for ( int i = 0; i < hull.size(); i++ )
+		{
+			appendGeoJsonPos( sb, i, hull.get( i ).ilon, hull.get( i ).ilat );
+		}
+		sb.append( "]]}},\n" );
+		sb.append( "{\"type\":\"Feature\",\"properties\":{},\n" );
+		sb.append( " \"geometry\":{\"type\":\"MultiPoint\",\"coordinates\":[" );
+		for ( int i = 0; i < isochrone.getBoundaryCount(); i++ )
+		{
+			appendGeoJsonPos( sb, i, isochrone.getBoundaryLon( i ), isochrone.getBoundaryLat( i ) );
+		}
+		sb.append( "]}}\n" );
+		sb.append( "]}\n" );
+		return sb.toString();
+	}
+
+	private static void appendGeoJsonPos( StringBuilder sb, int idx, int ilon, int ilat )
+	{
+		if ( idx > 0 ) sb.append( ',' );
+		sb.append( '[' ).append( OsmTrack.formatPos( ilon - 180000000 ) ).append( ',' ).append( OsmTrack.formatPos( ilat - 90000000 ) ).append( ']' );
+	}
+
 	@Override
 	public String formatTrack(OsmTrack track)
 	{
@@ -28,9 +28,19 @@ public class YoursHandler extends RequestHandler {
     if ( profile_path == null ) throw new IllegalArgumentException( "no profile for key: " + profile_key );
     rc.localFunction = profile_path;
     
-    List<OsmNodeNamed> nogoList = serviceContext.nogoList;
-    if ( nogoList != null )
+    // copy the shared nogos, because prepareNogoPoints sets their radius
+    if ( serviceContext.nogoList != null )
     {
+      List<OsmNodeNamed> nogoList = new ArrayList<OsmNodeNamed>();
+      for( OsmNodeNamed nogo : serviceContext.nogoList )
+      {
+        OsmNodeNamed n = new OsmNodeNamed();
+        n.ilon = nogo.ilon;
+        n.ilat = nogo.ilat;
+        n.name = nogo.name;
+        n.isNogo = nogo.isNogo;
+        nogoList.add( n );
+      }
       rc.prepareNogoPoints( nogoList );
       rc.nogopoints = nogoList;
     }
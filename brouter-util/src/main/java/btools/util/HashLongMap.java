@@ -0,0 +1,197 @@
+package btools.util;
+
+import java.util.Arrays;
+
+/**
+ * Hash map to map a long-key to an object-value
+ *
+ * In contrast to java.util.HashMap, it does not need boxed keys
+ * and entry objects: keys and values are stored in two parallel
+ * arrays with open addressing and linear probing. Removal shifts
+ * the following entries of the probe sequence back, so no
+ * tombstones are needed and the probe sequences stay short.
+ *
+ * Null values are not allowed, a null value marks a free slot.
+ * For iteration, loop over the slots up to capacity() and skip
+ * the free ones (valueAt() == null).
+ *
+ * @author ab
+ */
+public final class HashLongMap<V>
+{
+  private long[] keys;
+  private Object[] values;
+  private int mask;
+  private int shift;
+  private int size;
+
+  public HashLongMap()
+  {
+    this( 16 );
+  }
+
+  /**
+   * @param expectedSize  the number of entries that fit without resizing
+   */
+  public HashLongMap( int expectedSize )
+  {
+    int capacity = 16;
+    while( capacity < 2*expectedSize ) capacity <<= 1;
+    allocate( capacity );
+  }
+
+  private void allocate( int capacity )
+  {
+    keys = new long[capacity];
+    values = new Object[capacity];
+    mask = capacity - 1;
+    shift = 64 - Integer.numberOfTrailingZeros( capacity );
+  }
+
+  // fibonacci hashing: the upper bits of the product are well mixed
+  private int slotFor( long key )
+  {
+    return (int)( ( key * 0x9E3779B97F4A7C15L ) >>> shift );
+  }
+
+  /**
+   * @return the value for the given key, or null if not contained
+   */
+  @SuppressWarnings("unchecked")
+  public V get( long key )
+  {
+    for( int i = slotFor( key );; i = ( i + 1 ) & mask )
+    {
+      Object v = values[i];
+      if ( v == null ) return null;
+      if ( keys[i] == key ) return (V)v;
+    }
+  }
+
+  public boolean contains( long key )
+  {
+    return get( key ) != null;
+  }
+
+  /**
+   * Put a value into the map
+   *
+   * @return the previous value for that key, or null
+   */
+  @SuppressWarnings("unchecked")
+  public V put( long key, V value )
+  {
+    if ( value == null ) throw new IllegalArgumentException( "null value not allowed" );
+    int i = slotFor( key );
+    for( ;; i = ( i + 1 ) & mask )
+    {
+      Object v = values[i];
+      if ( v == null ) break;
+      if ( keys[i] == key )
+      {
+        values[i] = value;
+        return (V)v;
+      }
+    }
+    keys[i] = key;
+    values[i] = value;
+    if ( 2 * ++size > values.length ) // load factor 0.5
+    {
+      resize( 2*values.length );
+    }
+    return null;
+  }
+
+  /**
+   * Remove a key from the map
+   *
+   * @return the removed value, or null if not contained
+   */
+  @SuppressWarnings("unchecked")
+  public V remove( long key )
+  {
+    for( int i = slotFor( key );; i = ( i + 1 ) & mask )
+    {
+      Object v = values[i];
+      if ( v == null ) return null;
+      if ( keys[i] == key )
+      {
+        removeAt( i );
+        return (V)v;
+      }
+    }
+  }
+
+  // remove the entry at the given slot, shifting back the
+  // entries that would not be found anymore otherwise
+  private void removeAt( int gap )
+  {
+    for( int i = ( gap + 1 ) & mask;; i = ( i + 1 ) & mask )
+    {
+      Object v = values[i];
+      if ( v == null ) break;
+      int home = slotFor( keys[i] );
+      // can be moved to the gap if its home slot is not within (gap,i]
+      if ( ( ( i - home ) & mask ) >= ( ( i - gap ) & mask ) )
+      {
+        keys[gap] = keys[i];
+        values[gap] = v;
+        gap = i;
+      }
+    }
+    values[gap] = null;
+    size--;
+  }
+
+  private void resize( int capacity )
+  {
+    long[] oldKeys = keys;
+    Object[] oldValues = values;
+    allocate( capacity );
+    for( int j=0; j<oldValues.length; j++ )
+    {
+      Object v = oldValues[j];
+      if ( v == null ) continue;
+      int i = slotFor( oldKeys[j] );
+      while( values[i] != null ) i = ( i + 1 ) & mask;
+      keys[i] = oldKeys[j];
+      values[i] = v;
+    }
+  }
+
+  public int size()
+  {
+    return size;
+  }
+
+  public void clear()
+  {
+    Arrays.fill( values, null );
+    size = 0;
+  }
+
+  /**
+   * @return the number of slots, for iteration
+   */
+  public int capacity()
+  {
+    return values.length;
+  }
+
+  /**
+   * @return the value in the given slot, or null if free
+   */
+  @SuppressWarnings("unchecked")
+  public V valueAt( int slot )
+  {
+    return (V)values[slot];
+  }
+
+  /**
+   * @return the key in the given slot, undefined if free
+   */
+  public long keyAt( int slot )
+  {
+    return keys[slot];
+  }
+}
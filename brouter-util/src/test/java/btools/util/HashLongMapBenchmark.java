@@ -0,0 +1,107 @@
+package btools.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Throughput and allocation of HashLongMap vs. HashMap<Long,...>,
+ * not a unit test: run manually with the test classpath
+ */
+public class HashLongMapBenchmark
+{
+  private static final int NODES = 200000;
+  private static final int LOOKUPS = 2000000;
+
+  public static void main( String[] args )
+  {
+    long[] keys = createKeys();
+    for( int pass=0; pass<3; pass++ )
+    {
+      long a0 = allocatedBytes();
+      long t0 = System.currentTimeMillis();
+      int r1 = runHashMap( keys );
+      long t1 = System.currentTimeMillis();
+      long a1 = allocatedBytes();
+      int r2 = runHashLongMap( keys );
+      long t2 = System.currentTimeMillis();
+      long a2 = allocatedBytes();
+      if ( r1 != r2 ) throw new IllegalArgumentException( "results differ: " + r1 + " " + r2 );
+      System.out.println( "HashLongMap benchmark pass " + pass
+          + ": HashMap=" + (t1-t0) + "ms " + format( a1-a0 )
+          + " HashLongMap=" + (t2-t1) + "ms " + format( a2-a1 ) );
+    }
+  }
+
+  // node ids as built from positions (ilon << 32 | ilat), clustered in a region
+  private static long[] createKeys()
+  {
+    Random rnd = new Random( 4711 );
+    long[] keys = new long[NODES];
+    for( int i=0; i<NODES; i++ )
+    {
+      long ilon = 188000000 + rnd.nextInt( 1000000 );
+      long ilat = 140000000 + rnd.nextInt( 1000000 );
+      keys[i] = ilon << 32 | ilat;
+    }
+    return keys;
+  }
+
+  // fill, look up (about half of the lookups miss) and remove half
+  private static int runHashMap( long[] keys )
+  {
+    HashMap<Long,Object> map = new HashMap<Long,Object>();
+    Object value = new Object();
+    for( int i=0; i<keys.length; i+=2 )
+    {
+      map.put( Long.valueOf( keys[i] ), value );
+    }
+    int found = 0;
+    for( int i=0; i<LOOKUPS; i++ )
+    {
+      if ( map.get( Long.valueOf( keys[i % keys.length] ) ) != null ) found++;
+    }
+    for( int i=0; i<keys.length; i+=4 )
+    {
+      map.remove( Long.valueOf( keys[i] ) );
+    }
+    return found + map.size();
+  }
+
+  private static int runHashLongMap( long[] keys )
+  {
+    HashLongMap<Object> map = new HashLongMap<Object>();
+    Object value = new Object();
+    for( int i=0; i<keys.length; i+=2 )
+    {
+      map.put( keys[i], value );
+    }
+    int found = 0;
+    for( int i=0; i<LOOKUPS; i++ )
+    {
+      if ( map.get( keys[i % keys.length] ) != null ) found++;
+    }
+    for( int i=0; i<keys.length; i+=4 )
+    {
+      map.remove( keys[i] );
+    }
+    return found + map.size();
+  }
+
+  // the bytes allocated by this thread, -1 if not supported by the JVM
+  private static long allocatedBytes()
+  {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if ( bean instanceof com.sun.management.ThreadMXBean )
+    {
+      return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes( Thread.currentThread().getId() );
+    }
+    return -1L;
+  }
+
+  private static String format( long bytes )
+  {
+    return bytes < 0 ? "(alloc n/a)" : ( bytes / 1024 ) + "KB";
+  }
+}
@@ -0,0 +1,57 @@
+package btools.util;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HashLongMapTest
+{
+  @Test
+  public void hashMapSlowTest()
+  {
+    hashMapSlowTest( 1000, 100 ); // mostly collisions
+    hashMapSlowTest( 100000, 1000000 );
+    hashMapSlowTest( 100000, Long.MAX_VALUE );
+  }
+
+  private void hashMapSlowTest( int mapsize, long keyrange )
+  {
+    Random rand = new Random( 12345 );
+    HashMap<Long,String> hmap = new HashMap<Long,String>();
+    HashLongMap<String> lmap = new HashLongMap<String>();
+
+    for( int i=0; i<mapsize; i++ )
+    {
+      long k = ( rand.nextLong() & Long.MAX_VALUE ) % keyrange;
+      Long key = Long.valueOf( k );
+      int op = rand.nextInt( 4 );
+      if ( op < 2 )
+      {
+        String value = "" + i;
+        Assert.assertEquals( "put returns previous value", hmap.put( key, value ), lmap.put( k, value ) );
+      }
+      else if ( op < 3 )
+      {
+        Assert.assertEquals( "remove returns removed value", hmap.remove( key ), lmap.remove( k ) );
+      }
+      else
+      {
+        Assert.assertEquals( "get returns the same value", hmap.get( key ), lmap.get( k ) );
+      }
+    }
+    Assert.assertEquals( "sizes equal", hmap.size(), lmap.size() );
+
+    // check all entries, by iterating the slots
+    int cnt = 0;
+    for( int i=0; i<lmap.capacity(); i++ )
+    {
+      String value = lmap.valueAt( i );
+      if ( value == null ) continue;
+      cnt++;
+      Assert.assertEquals( "slot value", hmap.get( Long.valueOf( lmap.keyAt( i ) ) ), value );
+    }
+    Assert.assertEquals( "slot count", hmap.size(), cnt );
+  }
+}